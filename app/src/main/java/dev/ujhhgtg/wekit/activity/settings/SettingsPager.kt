@@ -15,14 +15,17 @@ import androidx.compose.foundation.layout.Row
 import androidx.compose.foundation.layout.Spacer
 import androidx.compose.foundation.layout.fillMaxWidth
 import androidx.compose.foundation.layout.height
+import androidx.compose.foundation.layout.heightIn
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.layout.size
 import androidx.compose.foundation.layout.width
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.foundation.text.input.clearText
 import androidx.compose.foundation.text.input.rememberTextFieldState
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
@@ -63,6 +66,7 @@ import com.composables.icons.materialsymbols.outlined.Notifications
 import com.composables.icons.materialsymbols.outlined.Palette
 import com.composables.icons.materialsymbols.outlined.Rule_settings
 import com.composables.icons.materialsymbols.outlined.Search
+import com.composables.icons.materialsymbols.outlined.Speed
 import com.composables.icons.materialsymbols.outlined.Style
 import com.composables.icons.materialsymbols.outlined.Sync
 import com.composables.icons.materialsymbols.outlined.Update
@@ -78,6 +82,7 @@ import dev.ujhhgtg.wekit.activity.TransparentActivity
 import dev.ujhhgtg.wekit.constants.PackageNames
 import dev.ujhhgtg.wekit.constants.Preferences
 import dev.ujhhgtg.wekit.features.api.core.WeApi
+import dev.ujhhgtg.wekit.features.core.StartupTracer
 import dev.ujhhgtg.wekit.features.items.debug.ResetDexCache
 import dev.ujhhgtg.wekit.preferences.WePrefs
 import dev.ujhhgtg.wekit.ui.content.MiuixSmallTitle
@@ -140,12 +145,14 @@ fun SettingsPager(onOpenLicense: () -> Unit) {
     val context = LocalComponentActivity.current
 
     var showClearConfirm by remember { mutableStateOf(false) }
+    var showStartupTraces by remember { mutableStateOf(false) }
     var updateInfo by remember { mutableStateOf<UpdateResult.UpdateAvailable?>(null) }
     var updateError by remember { mutableStateOf<String?>(null) }
 
     ClearConfigDialog(show = showClearConfirm, onDismiss = { showClearConfirm = false })
     UpdateAvailableDialog(info = updateInfo, onDismiss = { updateInfo = null }, context = context)
     UpdateErrorDialog(message = updateError, onDismiss = { updateError = null })
+    StartupTraceDialog(show = showStartupTraces, onDismiss = { showStartupTraces = false })
 
     MiuixListScaffold(title = "设置") {
         // Account info card — shown at top of Settings tab.
@@ -184,6 +191,12 @@ fun SettingsPager(onOpenLicense: () -> Unit) {
                     summary = "允许处理不带 'wxid_' 前缀的微信 ID, 可能导致误伤消息原始内容 (实验性)",
                     icon = MaterialSymbols.Outlined.Rule_settings,
                 )
+                PrefArrow(
+                    title = "启动耗时",
+                    summary = "查看最近几次启动中各功能的耗时, 并与上一次启动对比",
+                    icon = MaterialSymbols.Outlined.Speed,
+                    onClick = { showStartupTraces = true },
+                )
             }
         }
 
@@ -775,6 +788,96 @@ private fun UpdateErrorDialog(message: String?, onDismiss: () -> Unit) {
     )
 }
 
+/** Latest startup trace, with per-feature deltas against the run before it. */
+@Composable
+private fun StartupTraceDialog(show: Boolean, onDismiss: () -> Unit) {
+    val records by produceState<List<StartupTracer.StartupTrace>?>(null, show) {
+        value = if (show) withContext(Dispatchers.IO) { StartupTracer.loadRecords() } else null
+    }
+
+    WindowDialog(show = show, title = "启动耗时", onDismissRequest = onDismiss) {
+        Column {
+            val list = records
+            val current = list?.lastOrNull()
+            if (list == null) {
+                Text(text = "加载中...")
+            } else if (current == null) {
+                Text(text = "暂无记录, 重启微信后再查看")
+            } else {
+                val previous = list.getOrNull(list.size - 2)
+                Text(
+                    text = buildString {
+                        append(formatEpoch(current.timestamp, true)).append(" · ").append(current.hostVersion).append('\n')
+                        append("总耗时 ").append(formatMs(current.totalMs))
+                        if (previous != null) append(" (").append(formatDeltaMs(current.totalMs - previous.totalMs)).append(')')
+                        append('\n')
+                        append("DEX 缓存 ").append(current.cacheHits).append(" 命中 / ").append(current.cacheMisses).append(" 未命中, ")
+                        append("耗时 ").append(formatMs(current.cacheLoadMs)).append('\n')
+                        append("延迟启用 ").append(current.deferred).append(" 项, 共记录 ").append(list.size).append(" 次启动")
+                    },
+                    fontSize = 13.sp,
+                    color = MiuixTheme.colorScheme.onSurfaceVariantSummary,
+                )
+                Spacer(Modifier.height(12.dp))
+                Column(
+                    modifier = Modifier
+                        .heightIn(max = 360.dp)
+                        .verticalScroll(rememberScrollState())
+                ) {
+                    StartupTracer.diff(current, previous)
+                        .sortedByDescending { if (previous != null) it.deltaMs else it.current.wallMs }
+                        .take(STARTUP_TRACE_ROWS)
+                        .forEach { StartupTraceRow(it, showDelta = previous != null) }
+                }
+            }
+            Spacer(Modifier.height(20.dp))
+            TextButton(
+                text = "关闭",
+                onClick = onDismiss,
+                modifier = Modifier.fillMaxWidth(),
+                colors = ButtonDefaults.textButtonColorsPrimary(),
+            )
+        }
+    }
+}
+
+@Composable
+private fun StartupTraceRow(diff: StartupTracer.FeatureDiff, showDelta: Boolean) {
+    val trace = diff.current
+    Row(modifier = Modifier.fillMaxWidth().padding(vertical = 4.dp)) {
+        Column(modifier = Modifier.weight(1f)) {
+            Text(text = trace.name, fontSize = 14.sp, maxLines = 1, overflow = TextOverflow.Ellipsis)
+            Text(
+                text = "${trace.hooks} hooks · ${trace.reflections} 次反射",
+                fontSize = 12.sp,
+                color = MiuixTheme.colorScheme.onSurfaceVariantSummary,
+            )
+        }
+        Spacer(Modifier.width(8.dp))
+        Column(horizontalAlignment = Alignment.End) {
+            Text(text = formatMs(trace.wallMs), fontSize = 14.sp)
+            if (showDelta) {
+                val regressed = diff.deltaMs >= STARTUP_REGRESSION_MS
+                Text(
+                    text = if (diff.previous == null) "新增" else formatDeltaMs(diff.deltaMs),
+                    fontSize = 12.sp,
+                    fontWeight = if (regressed) FontWeight.Bold else null,
+                    color = if (regressed) MiuixTheme.colorScheme.error else MiuixTheme.colorScheme.onSurfaceVariantSummary,
+                )
+            }
+        }
+    }
+}
+
+private const val STARTUP_TRACE_ROWS = 30
+
+/** Slowdowns at or above this are highlighted. */
+private const val STARTUP_REGRESSION_MS = 20.0
+
+private fun formatMs(ms: Double) = "%.1f ms".format(ms)
+
+private fun formatDeltaMs(ms: Double) = "%+.1f ms".format(ms)
+
 /** Two-button (cancel / confirm) miuix dialog. */
 @Composable
 private fun MiuixConfirmDialog(
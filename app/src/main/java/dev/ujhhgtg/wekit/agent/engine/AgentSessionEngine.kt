@@ -14,10 +14,15 @@ import dev.ujhhgtg.wekit.agent.tool.WireTool
 import dev.ujhhgtg.wekit.agent.ui.UiImageSink
 import dev.ujhhgtg.wekit.utils.WeLogger
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.jsonObject
 
@@ -38,6 +43,8 @@ class TurnConfig(
     val conditionalPrompts: List<ConditionalPromptEntity>,
     val toolLoadingMode: ToolLoadingMode,
     val maxModelRequests: Int,
+    /** Upper bound on parallel-safe tool calls from one model response that execute at once. */
+    val maxParallelToolCalls: Int = 4,
     /** Per-model max output tokens, or null to omit the field (provider default). */
     val maxTokens: Int? = null,
     /**
@@ -89,6 +96,7 @@ class AgentSessionEngine(
         userMessage: String,
     ): Flow<AgentEvent> = channelFlow {
         try {
+            val toolCallLimiter = Semaphore(config.maxParallelToolCalls.coerceAtLeast(1))
             val systemMessage = promptComposer.composeSystemMessage(config.systemPromptContent)
             // Persist/display the raw user message; the model gets the per-turn-augmented copy.
             historySink.onUserMessage(userMessage)
@@ -183,17 +191,35 @@ class AgentSessionEngine(
                     return@channelFlow
                 }
 
-                // Execute each tool call, appending a TOOL message per call.
+                // Gate each call in order, so approval prompts stay one at a time. Consecutive
+                // parallel-safe calls then run concurrently (bounded by maxParallelToolCalls); any
+                // other call first waits for them. TOOL messages are still appended in call order.
+                val pending = ArrayList<Pair<LlmToolCall, Deferred<Triple<String, ApprovalStatus, String>>>>()
+
+                suspend fun flushPending() {
+                    for ((call, result) in pending) {
+                        val (text, status, providerId) = result.await()
+                        messages += LlmMessage(role = LlmRole.TOOL, content = text, toolCallId = call.id)
+                        historySink.onToolResult(call.id, call.name, providerId, call.argumentsJson, text, status)
+                        send(AgentEvent.ToolCallFinished(call.id, call.name, status, text))
+                    }
+                    pending.clear()
+                }
+
                 for (call in assistant.toolCalls) {
                     currentCoroutineContext().ensureActive()
                     send(AgentEvent.ToolCallStarted(call.id, call.name, call.argumentsJson))
-                    val (text, status, providerId) = executeToolCall(call, assistant.content, discovered) { toolName ->
+                    val gated = gateToolCall(call, assistant.content, discovered) { toolName ->
                         send(AgentEvent.ToolAwaitingApproval(call.id, toolName))
                     }
-                    messages += LlmMessage(role = LlmRole.TOOL, content = text, toolCallId = call.id)
-                    historySink.onToolResult(call.id, call.name, providerId, call.argumentsJson, text, status)
-                    send(AgentEvent.ToolCallFinished(call.id, call.name, status, text))
+                    pending += call to if (gated is GatedCall.Approved && gated.tool.parallelSafe) {
+                        async { toolCallLimiter.withPermit { gated.resolve() } }
+                    } else {
+                        if (gated is GatedCall.Approved) flushPending()
+                        CompletableDeferred(gated.resolve())
+                    }
                 }
+                flushPending()
 
                 // Vision: a tool (ui-screenshot) may have staged images into the UiImageSink this
                 // round. Inject them as a transient USER message so the model sees them next request.
@@ -216,26 +242,35 @@ class AgentSessionEngine(
         }
     }
 
+    /** A tool call after the discover_tools / lookup / permission stage. */
+    private sealed interface GatedCall {
+        /** No execution needed: discover_tools, an unknown tool, or a denied call. */
+        class Resolved(val result: Triple<String, ApprovalStatus, String>) : GatedCall
+
+        /** Approved and ready to execute. */
+        class Approved(val tool: WireTool, val args: JsonObject, val status: ApprovalStatus) : GatedCall
+    }
+
     /**
-     * Handles one tool call end-to-end: the discover_tools meta-tool, permission gating, and
-     * execution. Returns (resultText, approvalStatus, providerId).
+     * Handles the discover_tools meta-tool and permission gating for one tool call. Must be called
+     * sequentially in call order: it may prompt the user and it mutates [discovered].
      */
-    private suspend fun executeToolCall(
+    private suspend fun gateToolCall(
         call: LlmToolCall,
         modelExplanation: String?,
         discovered: MutableSet<String>,
         onAwaitingApproval: suspend (String) -> Unit,
-    ): Triple<String, ApprovalStatus, String> {
+    ): GatedCall {
         val args = parseArgs(call.argumentsJson)
 
         // discover_tools meta-tool (§3.3): handled by the engine, always allowed.
         if (call.name == ToolRegistry.DISCOVER_TOOLS_NAME) {
             val text = ToolDiscovery.handle(registry, args, discovered)
-            return Triple(text, ApprovalStatus.AUTO_ALLOWED, "builtin")
+            return GatedCall.Resolved(Triple(text, ApprovalStatus.AUTO_ALLOWED, "builtin"))
         }
 
         val tool = registry.findByExposedName(call.name)
-            ?: return Triple("Unknown tool: ${call.name}", ApprovalStatus.AUTO_ALLOWED, "")
+            ?: return GatedCall.Resolved(Triple("Unknown tool: ${call.name}", ApprovalStatus.AUTO_ALLOWED, ""))
 
         if (tool.mode == dev.ujhhgtg.wekit.agent.tool.ToolMode.MANUAL_APPROVAL) onAwaitingApproval(call.name)
 
@@ -254,18 +289,26 @@ class AgentSessionEngine(
                     dev.ujhhgtg.wekit.agent.tool.ToolMode.SMART_APPROVAL -> ApprovalStatus.AI_APPROVED
                     else -> ApprovalStatus.AUTO_ALLOWED
                 }
-                val result = runCatching { registry.execute(tool, args) }
-                    .getOrElse { "工具执行失败：${it.message ?: it.javaClass.simpleName}" }
-                Triple(result, status, tool.provider.id)
+                GatedCall.Approved(tool, args, status)
             }
 
             is ApprovalDecision.Denied -> {
                 val status = if (decision.bySmartReview) ApprovalStatus.AI_REJECTED else ApprovalStatus.USER_REJECTED
-                Triple(approvalGateway.deniedResultText(decision), status, tool.provider.id)
+                GatedCall.Resolved(Triple(approvalGateway.deniedResultText(decision), status, tool.provider.id))
             }
         }
     }
 
+    /** Executes an approved call (or passes a resolved one through). Returns (resultText, approvalStatus, providerId). */
+    private suspend fun GatedCall.resolve(): Triple<String, ApprovalStatus, String> = when (this) {
+        is GatedCall.Resolved -> result
+        is GatedCall.Approved -> {
+            val result = runCatching { registry.execute(tool, args) }
+                .getOrElse { "工具执行失败：${it.message ?: it.javaClass.simpleName}" }
+            Triple(result, status, tool.provider.id)
+        }
+    }
+
     private fun parseArgs(argumentsJson: String): JsonObject =
         runCatching { dev.ujhhgtg.wekit.agent.model.LlmJson.json.parseToJsonElement(argumentsJson).jsonObject }
             .getOrElse { JsonObject(emptyMap()) }
@@ -30,10 +30,7 @@ object ToolDiscovery {
             }
 
             "search_tools" -> {
-                val kw = keyword?.lowercase().orEmpty()
-                val tools = registry.resolveVisibleTools().filter {
-                    it.exposedName.lowercase().contains(kw) || it.description.lowercase().contains(kw)
-                }
+                val tools = registry.searchTools(keyword.orEmpty())
                 tools.forEach { discovered += it.exposedName }
                 renderTools(tools)
             }
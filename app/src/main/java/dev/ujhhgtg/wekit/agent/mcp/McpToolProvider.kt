@@ -20,6 +20,7 @@ import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.put
+import java.util.concurrent.atomic.AtomicLong
 
 /** Connection state of an [McpToolProvider], surfaced in the settings UI (§4). */
 enum class McpConnectionState { DISCONNECTED, CONNECTING, CONNECTED, FAILED }
@@ -59,9 +60,17 @@ class McpToolProvider(
     // Cached tools/list, refreshed on connect and on manual refresh.
     @Volatile
     private var cachedTools: List<ProviderTool> = emptyList()
+        set(value) {
+            field = value
+            cachedToolsVersion.incrementAndGet()
+        }
+
+    private val cachedToolsVersion = AtomicLong()
 
     override fun listTools(): List<ProviderTool> = cachedTools
 
+    override val toolsVersion: Long get() = cachedToolsVersion.get()
+
     private fun requestBuilder(): HttpRequestBuilder.() -> Unit {
         val customHeaders = headers
         return { customHeaders.forEach { (k, v) -> headers.append(k, v) } }
@@ -121,6 +130,8 @@ class McpToolProvider(
                 jsonSchema = buildSchema(tool.inputSchema.properties, tool.inputSchema.required),
                 // MCP tools default to ENABLED — the user already trusted the server by adding it (§3.2).
                 factoryDefaultMode = ToolMode.ENABLED,
+                // Only servers that explicitly declare a tool read-only get concurrent execution.
+                parallelSafe = tool.annotations?.readOnlyHint == true,
             )
         }
 
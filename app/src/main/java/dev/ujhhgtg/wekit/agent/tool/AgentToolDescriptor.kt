@@ -28,11 +28,13 @@ data class AgentToolParamSpec(
 /**
  * A built-in WeAgent tool, generated by the `@AgentTool` KSP scanner. [invoker] unpacks a
  * validated [AgentToolArgs] and calls the underlying function, returning a model-readable string.
+ * [parallelSafe] tools may run concurrently with each other within one model response.
  */
 data class AgentToolDescriptor(
     val name: String,
     val description: String,
     val sideEffect: Boolean,
+    val parallelSafe: Boolean = !sideEffect,
     val group: String,
     val params: List<AgentToolParamSpec>,
     val invoker: suspend (AgentToolArgs) -> String,
@@ -6,6 +6,7 @@ import dev.ujhhgtg.wekit.agent.tool.BuiltinToolProvider.Companion.exaKeyPresent
 import dev.ujhhgtg.wekit.agent.tool.BuiltinToolProvider.Companion.fsToolsVisible
 import dev.ujhhgtg.wekit.features.core.AgentTool
 import kotlinx.serialization.json.JsonObject
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * The built-in tool providers (§3.4), split by the `@AgentTool(group=…)` tag into three fixed
@@ -47,9 +48,12 @@ class BuiltinToolProvider(
                     description = if (notice != null) "${d.description}\n\n⚠ $notice" else d.description,
                     jsonSchema = d.buildJsonSchema(),
                     factoryDefaultMode = ToolMode.defaultFor(d.sideEffect),
+                    parallelSafe = d.parallelSafe,
                 )
             }
 
+    override val toolsVersion: Long get() = visibilityVersion.get()
+
     override suspend fun execute(toolName: String, arguments: JsonObject): String {
         // Intercept calls to currently-unavailable tools before reaching the invoker,
         // so the model gets the same actionable notice it saw in the description.
@@ -100,9 +104,17 @@ class BuiltinToolProvider(
             "write_file", "append_file", "delete_file", "move_file",
         )
 
+        /** Bumped whenever one of the flags below changes what [listTools] returns. */
+        private val visibilityVersion = AtomicLong()
+
         /** Set by WeAgentService from settings: true when workspace OR memory is enabled. */
         @Volatile
         var fsToolsVisible: Boolean = false
+            set(value) {
+                val changed = field != value
+                field = value
+                if (changed) visibilityVersion.incrementAndGet()
+            }
 
         /**
          * Set by WeAgentService per-turn from the session model's `supportsVision` flag.
@@ -111,6 +123,11 @@ class BuiltinToolProvider(
          */
         @Volatile
         var visionToolsVisible: Boolean = false
+            set(value) {
+                val changed = field != value
+                field = value
+                if (changed) visibilityVersion.incrementAndGet()
+            }
 
         /** Screenshot tool name — hidden unless the session model supports vision. */
         val VISION_TOOL_NAMES = setOf("ui-screenshot")
@@ -122,12 +139,22 @@ class BuiltinToolProvider(
          */
         @Volatile
         var exaKeyPresent: Boolean = false
+            set(value) {
+                val changed = field != value
+                field = value
+                if (changed) visibilityVersion.incrementAndGet()
+            }
 
         /**
          * Whether a Brave Search API key is configured. Same semantics as [exaKeyPresent].
          */
         @Volatile
         var braveKeyPresent: Boolean = false
+            set(value) {
+                val changed = field != value
+                field = value
+                if (changed) visibilityVersion.incrementAndGet()
+            }
 
         /**
          * Per-tool availability checks. Each entry maps a tool name to a lambda that returns:
@@ -21,6 +21,12 @@ interface ToolProvider {
     /** Snapshot of the tools this provider currently exposes. */
     fun listTools(): List<ProviderTool>
 
+    /**
+     * Changes whenever [listTools] may return something different, so [ToolRegistry] can reuse its
+     * resolved catalog until then.
+     */
+    val toolsVersion: Long get() = 0L
+
     /** Execute a tool by its bare name with the given JSON arguments, returning a model-readable result. */
     suspend fun execute(toolName: String, arguments: JsonObject): String
 }
@@ -30,10 +36,12 @@ enum class ProviderKind { BUILTIN, MCP }
 /**
  * A tool as advertised by a [ToolProvider], before permission resolution. [factoryDefaultMode]
  * is the out-of-the-box mode used only to seed the permission table for a never-seen tool.
+ * [parallelSafe] marks tools the engine may execute concurrently with other parallel-safe calls.
  */
 data class ProviderTool(
     val name: String,
     val description: String,
     val jsonSchema: JsonObject,
     val factoryDefaultMode: ToolMode,
+    val parallelSafe: Boolean = false,
 )
@@ -15,6 +15,9 @@ import kotlinx.serialization.json.putJsonObject
  */
 fun interface ToolPermissionSource {
     fun modeFor(providerId: String, toolName: String, factoryDefault: ToolMode): ToolMode
+
+    /** Changes whenever any resolved mode may have changed; a constant source never changes. */
+    val version: Long get() = 0L
 }
 
 /** How tools are advertised to the model for a request (§3.3). */
@@ -31,6 +34,7 @@ data class WireTool(
     val mode: ToolMode,
     val provider: ToolProvider,
     val bareName: String,
+    val parallelSafe: Boolean = false,
 )
 
 /**
@@ -38,26 +42,58 @@ data class WireTool(
  * four-state permission model, and produces the request-time tool list in either static-injection
  * or dynamic-discovery mode. Not tied to a single conversation — the engine holds per-turn
  * discovery state separately (see [discoveredThisTurn]).
+ *
+ * The resolved tool list is cached as an indexed snapshot and rebuilt only when the provider set,
+ * a provider's availability or [ToolProvider.toolsVersion], or [ToolPermissionSource.version] moves.
  */
 class ToolRegistry(
     private val permissions: ToolPermissionSource,
     providers: List<ToolProvider> = BuiltinToolProvider.all,
 ) {
-    private val providers = providers.toMutableList()
+    @Volatile
+    private var providers: List<ToolProvider> = providers.toList()
+
+    /**
+     * The resolved tool list plus its lookup indexes. Immutable; replaced as a whole when [stamp]
+     * no longer matches the providers / permissions it was built from.
+     */
+    private class Catalog(val stamp: List<Any>, val tools: List<WireTool>) {
+        val byName: Map<String, WireTool> = tools.associateBy { it.exposedName }
+        val lowerNames: List<String> = tools.map { it.exposedName.lowercase() }
+        val lowerDescriptions: List<String> = tools.map { it.description.lowercase() }
+    }
+
+    @Volatile
+    private var catalog: Catalog? = null
 
     fun setMcpProviders(mcpProviders: List<ToolProvider>) {
-        providers.removeAll { it.kind == ProviderKind.MCP }
-        providers.addAll(mcpProviders)
+        providers = providers.filter { it.kind != ProviderKind.MCP } + mcpProviders
     }
 
-    fun allProviders(): List<ToolProvider> = providers.toList()
+    fun allProviders(): List<ToolProvider> = providers
 
     /** Qualified name a tool is exposed under: bare for builtin, namespaced for MCP. */
     private fun exposedName(provider: ToolProvider, bare: String): String =
         if (provider.kind == ProviderKind.BUILTIN) bare else "mcp__${provider.id}__$bare"
 
-    /** Every non-disabled, available tool across providers, with resolved modes. */
-    fun resolveVisibleTools(): List<WireTool> = buildList {
+    /** Everything the catalog depends on: provider identity, availability, tool lists, permissions. */
+    private fun currentStamp(providers: List<ToolProvider>): List<Any> = buildList(providers.size * 3 + 1) {
+        add(permissions.version)
+        for (provider in providers) {
+            add(provider)
+            add(provider.isAvailable)
+            add(provider.toolsVersion)
+        }
+    }
+
+    private fun catalog(): Catalog {
+        val providers = providers
+        val stamp = currentStamp(providers)
+        catalog?.let { if (it.stamp == stamp) return it }
+        return Catalog(stamp, buildVisibleTools(providers)).also { catalog = it }
+    }
+
+    private fun buildVisibleTools(providers: List<ToolProvider>): List<WireTool> = buildList {
         for (provider in providers) {
             if (!provider.isAvailable) continue
             for (tool in provider.listTools()) {
@@ -71,12 +107,25 @@ class ToolRegistry(
                         mode = mode,
                         provider = provider,
                         bareName = tool.name,
+                        parallelSafe = tool.parallelSafe,
                     )
                 )
             }
         }
     }
 
+    /** Every non-disabled, available tool across providers, with resolved modes. */
+    fun resolveVisibleTools(): List<WireTool> = catalog().tools
+
+    /** Visible tools whose exposed name or description contains [keyword] (case-insensitive). */
+    fun searchTools(keyword: String): List<WireTool> {
+        val catalog = catalog()
+        val kw = keyword.lowercase()
+        return catalog.tools.filterIndexed { i, _ ->
+            catalog.lowerNames[i].contains(kw) || catalog.lowerDescriptions[i].contains(kw)
+        }
+    }
+
     /**
      * The tools to inject into a request. In [ToolLoadingMode.STATIC], all visible tools. In
      * [ToolLoadingMode.DYNAMIC], only the `discover_tools` meta-tool plus whatever the model has
@@ -92,8 +141,7 @@ class ToolRegistry(
         }
 
     /** Look up a resolved tool by the name the model called. */
-    fun findByExposedName(exposedName: String): WireTool? =
-        resolveVisibleTools().firstOrNull { it.exposedName == exposedName }
+    fun findByExposedName(exposedName: String): WireTool? = catalog().byName[exposedName]
 
     /**
      * Execute a resolved tool. Permission gating is the engine's responsibility; this performs the
@@ -104,18 +152,22 @@ class ToolRegistry(
 
     // -------- discover_tools meta-tool (§3.3) --------
 
-    fun discoverToolsMeta(): WireTool = WireTool(
-        exposedName = DISCOVER_TOOLS_NAME,
-        description = "Discover available tools. action=list_providers lists tool providers; " +
-                "action=list_tools returns tools (optionally filtered by provider) with full JSON schemas; " +
-                "action=search_tools fuzzy-matches name/description by keyword. Returned tools become callable.",
-        jsonSchema = DISCOVER_TOOLS_SCHEMA,
-        mode = ToolMode.ENABLED,
-        // Meta-tool: handled by the engine (ToolDiscovery), never executed via this provider — the
-        // field is only for display, so any built-in provider works.
-        provider = providers.first { it.kind == ProviderKind.BUILTIN },
-        bareName = DISCOVER_TOOLS_NAME,
-    )
+    fun discoverToolsMeta(): WireTool = discoverTools
+
+    private val discoverTools: WireTool by lazy {
+        WireTool(
+            exposedName = DISCOVER_TOOLS_NAME,
+            description = "Discover available tools. action=list_providers lists tool providers; " +
+                    "action=list_tools returns tools (optionally filtered by provider) with full JSON schemas; " +
+                    "action=search_tools fuzzy-matches name/description by keyword. Returned tools become callable.",
+            jsonSchema = DISCOVER_TOOLS_SCHEMA,
+            mode = ToolMode.ENABLED,
+            // Meta-tool: handled by the engine (ToolDiscovery), never executed via this provider — the
+            // field is only for display, so any built-in provider works.
+            provider = providers.first { it.kind == ProviderKind.BUILTIN },
+            bareName = DISCOVER_TOOLS_NAME,
+        )
+    }
 
     companion object {
         const val DISCOVER_TOOLS_NAME = "discover_tools"
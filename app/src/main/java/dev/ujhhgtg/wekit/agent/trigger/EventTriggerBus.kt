@@ -20,8 +20,13 @@ import java.util.concurrent.atomic.AtomicLong
  *  - MESSAGE `filterOwnEvents` drops rows with `isSend == 1` — this covers both the user's own sends
  *    and anything the agent sent via tools (both go out under the logged-in identity).
  *  - SQL events are dropped while a [suppressSqlBriefly] window is open, so the agent's own
- *    `builtin-wechat-sql` writes don't re-trigger SQL triggers. The window is time-based because DB
- *    callbacks arrive on WeChat's own threads, not the agent's coroutine.
+ *    `builtin-wechat-sql` writes don't re-trigger SQL triggers. The window is time-based because the
+ *    writes are observed through DB hooks, not the agent's coroutine.
+ *
+ * Insert/update events are registered in async mode, so matching never runs on WeChat's DB writer
+ * threads; they are delivered later on the listener API's dispatcher, possibly well after the write
+ * under backlog. Suppression and [TriggeredEvent.at] therefore use the write time from
+ * [WeDatabaseListenerApi.eventTimeMillis], not the delivery time. Query events stay synchronous.
  */
 class EventTriggerBus(
     private val scope: CoroutineScope,
@@ -34,12 +39,16 @@ class EventTriggerBus(
         const val TAG = "EventTriggerBus"
     }
 
-    // triggerId -> (trigger row, its buffer). Rebuilt on resync.
-    private class Bound(val trigger: TriggerEntity, val conditions: TriggerConditions, val buffer: TriggerBuffer)
+    // triggerId -> (trigger row, its compiled conditions, its buffer). Rebuilt on resync.
+    private class Bound(val trigger: TriggerEntity, val matcher: CompiledConditions, val buffer: TriggerBuffer)
 
     private val message = ConcurrentHashMap<String, Bound>()
     private val sql = ConcurrentHashMap<String, Bound>()
 
+    /** Union of the operations any SQL trigger reacts to; other operations return immediately. */
+    @Volatile
+    private var sqlOpsWanted: Set<SqlOp> = emptySet()
+
     /** Epoch millis until which SQL events are suppressed (agent's own writes). 0 = not suppressed. */
     private val sqlSuppressedUntil = AtomicLong(0)
 
@@ -52,8 +61,7 @@ class EventTriggerBus(
         sqlSuppressedUntil.updateAndGet { prev -> maxOf(prev, until) }
     }
 
-    private val sqlSuppressed: Boolean
-        get() = System.currentTimeMillis() < sqlSuppressedUntil.get()
+    private fun sqlSuppressedAt(atMillis: Long): Boolean = atMillis < sqlSuppressedUntil.get()
 
     /**
      * Reconciles bound buffers against the current [triggers]. Cancels buffers for triggers that
@@ -64,10 +72,11 @@ class EventTriggerBus(
     fun resync(triggers: List<TriggerEntity>) {
         rebuild(message, triggers.filter { it.type == TriggerType.MESSAGE && it.enabled })
         rebuild(sql, triggers.filter { it.type == TriggerType.SQL && it.enabled })
+        sqlOpsWanted = sql.values.flatMapTo(HashSet()) { it.matcher.sqlOps }
 
         val anyEligible = message.isNotEmpty() || sql.isNotEmpty()
         if (anyEligible && !registered) {
-            WeDatabaseListenerApi.addListener(this)
+            WeDatabaseListenerApi.addAsyncListener(this)
             registered = true
             WeLogger.i(TAG, "registered DB listeners (message=${message.size}, sql=${sql.size})")
         } else if (!anyEligible && registered) {
@@ -84,7 +93,7 @@ class EventTriggerBus(
         // (Re)create every wanted buffer so edited conditions/buffer params take effect.
         for ((id, trigger) in wanted) {
             map.remove(id)?.buffer?.cancel()
-            val conditions = TriggerConditionsJson.decode(trigger.conditionsJson)
+            val matcher = CompiledConditions(TriggerConditionsJson.decode(trigger.conditionsJson))
             val buffer = TriggerBuffer(
                 triggerId = trigger.id,
                 scope = scope,
@@ -93,7 +102,7 @@ class EventTriggerBus(
                 maxWaitMillis = trigger.bufferMaxWaitMillis,
                 onFlush = { batch -> onFlush(trigger, batch) },
             )
-            map[id] = Bound(trigger, conditions, buffer)
+            map[id] = Bound(trigger, matcher, buffer)
         }
     }
 
@@ -106,26 +115,32 @@ class EventTriggerBus(
         sql.values.forEach { it.buffer.cancel() }
         message.clear()
         sql.clear()
+        sqlOpsWanted = emptySet()
     }
 
     // ---------------------------------------------------------------------------
-    // DB listener callbacks (run on WeChat's threads)
+    // DB listener callbacks (insert/update on the async dispatcher, query on WeChat's threads)
     // ---------------------------------------------------------------------------
 
     override fun onInsert(table: String, values: ContentValues) {
+        val at = WeDatabaseListenerApi.eventTimeMillis()
         // MESSAGE triggers.
         if (table == "message" && message.isNotEmpty()) {
             val isSend = (values.getAsInteger("isSend") ?: 0) == 1
             val type = values.getAsInteger("type")
             val talker = values.getAsString("talker")
             val content = values.getAsString("content")
-            val event = TriggeredEvent.Message(Instant.now(), talker, type, isSend, content)
+            var event: TriggeredEvent.Message? = null
             for (bound in message.values) {
-                if (matchesMessage(bound, event)) bound.buffer.offer(event)
+                // Anti-loop: skip own sends (also covers agent tool sends).
+                if (bound.trigger.filterOwnEvents && isSend) continue
+                if (!bound.matcher.matchesMessage(isSend, type, talker, content)) continue
+                val ev = event ?: TriggeredEvent.Message(Instant.ofEpochMilli(at), talker, type, isSend, content).also { event = it }
+                bound.buffer.offer(ev)
             }
         }
         // SQL INSERT triggers.
-        dispatchSql(SqlOp.INSERT, table = table, sql = null, values = values.toString())
+        dispatchSql(SqlOp.INSERT, at, table = table, sql = null, values = values)
     }
 
     override fun onUpdate(
@@ -135,62 +150,30 @@ class EventTriggerBus(
         whereArgs: Array<String>?,
         conflictAlgorithm: Int,
     ) {
-        dispatchSql(SqlOp.UPDATE, table = table, sql = whereClause, values = values.toString())
+        dispatchSql(SqlOp.UPDATE, WeDatabaseListenerApi.eventTimeMillis(), table = table, sql = whereClause, values = values)
     }
 
     override fun onQuery(sql: String): String? {
-        dispatchSql(SqlOp.QUERY, table = null, sql = sql, values = null)
+        dispatchSql(SqlOp.QUERY, System.currentTimeMillis(), table = null, sql = sql, values = null)
         return null // never rewrite the query
     }
 
-    private fun dispatchSql(op: SqlOp, table: String?, sql: String?, values: String?) {
-        if (this.sql.isEmpty()) return
-        if (sqlSuppressed) return // agent's own writes
-        val event = TriggeredEvent.Sql(Instant.now(), op, table, sql, values)
+    /**
+     * Offers one SQL event to every matching trigger. Cheap checks (operation, table, SQL text) run
+     * first; [values] is only stringified once some trigger gets past them, and the event object
+     * is only built once one actually matches. [atMillis] is when the operation happened.
+     */
+    private fun dispatchSql(op: SqlOp, atMillis: Long, table: String?, sql: String?, values: ContentValues?) {
+        if (op !in sqlOpsWanted) return
+        if (sqlSuppressedAt(atMillis)) return // agent's own writes
+        var valuesText: String? = null
+        var event: TriggeredEvent.Sql? = null
         for (bound in this.sql.values) {
-            if (matchesSql(bound, event)) bound.buffer.offer(event)
-        }
-    }
-
-    // ---------------------------------------------------------------------------
-    // Condition matching
-    // ---------------------------------------------------------------------------
-
-    private fun matchesMessage(bound: Bound, ev: TriggeredEvent.Message): Boolean {
-        val c = bound.conditions
-        // Anti-loop: skip own sends (also covers agent tool sends).
-        if (bound.trigger.filterOwnEvents && ev.isSend) return false
-        // Direction.
-        when (c.direction) {
-            MessageDirection.RECEIVED -> if (ev.isSend) return false
-            MessageDirection.SENT -> if (!ev.isSend) return false
-            MessageDirection.BOTH -> Unit
-        }
-        // Message type.
-        c.msgTypes?.takeIf { it.isNotEmpty() }?.let { types ->
-            if (ev.type == null || ev.type !in types) return false
+            if (!bound.matcher.matchesSql(op, table, sql)) continue
+            if (valuesText == null && values != null) valuesText = values.toString()
+            if (!bound.matcher.matchesValues(valuesText)) continue
+            val ev = event ?: TriggeredEvent.Sql(Instant.ofEpochMilli(atMillis), op, table, sql, valuesText).also { event = it }
+            bound.buffer.offer(ev)
         }
-        // Talker regex.
-        if (!regexOk(c.talkerRegex, ev.talker)) return false
-        // Content regex.
-        if (!regexOk(c.contentRegex, ev.content)) return false
-        return true
-    }
-
-    private fun matchesSql(bound: Bound, ev: TriggeredEvent.Sql): Boolean {
-        val c = bound.conditions
-        // Operation set (empty = all).
-        if (c.sqlOps.isNotEmpty() && ev.op !in c.sqlOps) return false
-        if (!regexOk(c.tableRegex, ev.table)) return false
-        if (!regexOk(c.sqlRegex, ev.sql)) return false
-        if (!regexOk(c.valuesRegex, ev.values)) return false
-        return true
-    }
-
-    /** A null/blank pattern imposes no constraint; otherwise the value must contain a match. */
-    private fun regexOk(pattern: String?, value: String?): Boolean {
-        if (pattern.isNullOrBlank()) return true
-        if (value == null) return false
-        return runCatching { Regex(pattern).containsMatchIn(value) }.getOrDefault(false)
     }
 }
@@ -3,10 +3,11 @@ package dev.ujhhgtg.wekit.agent.trigger
 import dev.ujhhgtg.wekit.utils.WeLogger
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
 import kotlin.time.Duration.Companion.milliseconds
 
 /**
@@ -16,9 +17,11 @@ import kotlin.time.Duration.Companion.milliseconds
  *  3. **max-wait** — flush unconditionally [maxWaitMillis] after the FIRST buffered event, even if
  *     events keep arriving (bounds worst-case latency under a steady stream).
  *
- * Events are appended via [offer] (cheap, non-suspending from the DB-listener thread's perspective —
- * it launches into [scope]). When a flush fires, [onFlush] is invoked with the drained, time-ordered
- * events. All state is guarded by a [Mutex]; timers are cancellable [Job]s in [scope].
+ * Events are appended via [offer]: a lock-free enqueue plus a conflated wake-up signal, so the
+ * DB-listener thread never launches a coroutine or touches a lock. One long-lived drain coroutine
+ * in [scope] owns all buffer state and tracks both deadlines, waiting on a single timeout for
+ * whichever is earlier. When a flush fires, [onFlush] is invoked with the drained, time-ordered
+ * events.
  *
  * SCHEDULE triggers do not use this — they fire immediately through the dispatcher.
  */
@@ -30,66 +33,79 @@ class TriggerBuffer(
     private val maxWaitMillis: Long,
     private val onFlush: suspend (List<TriggeredEvent>) -> Unit,
 ) {
-    private val mutex = Mutex()
-    private val pending = ArrayList<TriggeredEvent>()
-    private var debounceJob: Job? = null
-    private var maxWaitJob: Job? = null
+    private val incoming = ConcurrentLinkedQueue<TriggeredEvent>()
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
 
-    /** Adds an event to the buffer, (re)arming the debounce timer and, on the first event, the max-wait timer. */
+    @Volatile
+    private var cancelled = false
+
+    private val drainJob: Job = scope.launch { drainLoop() }
+
+    /** Adds an event to the buffer. Never blocks or suspends; a no-op after [cancel]. */
     fun offer(event: TriggeredEvent) {
-        scope.launch {
-            mutex.withLock {
-                pending.add(event)
+        if (cancelled) return
+        incoming.offer(event)
+        wakeUp.trySend(Unit)
+    }
 
-                // cap rule: flush now if we've hit the ceiling.
-                if (pending.size >= maxEvents) {
-                    flushLocked("cap")
-                    return@launch
-                }
+    private suspend fun drainLoop() {
+        // Owned exclusively by this coroutine: no locking needed.
+        val pending = ArrayList<TriggeredEvent>()
+        var debounceDeadline = 0L
+        var maxWaitDeadline = 0L
 
-                // debounce rule: restart the silence timer.
-                debounceJob?.cancel()
-                debounceJob = scope.launch {
-                    delay(debounceMillis.milliseconds)
-                    mutex.withLock { flushLocked("debounce") }
+        while (true) {
+            if (pending.isEmpty()) {
+                wakeUp.receive()
+            } else {
+                val now = nowMillis()
+                val deadline = minOf(debounceDeadline, maxWaitDeadline)
+                if (now >= deadline) {
+                    flush(pending, if (maxWaitDeadline <= debounceDeadline) "max-wait" else "debounce")
+                    continue
                 }
+                // A lost wake-up here is harmless: the queue is drained below regardless.
+                withTimeoutOrNull((deadline - now).milliseconds) { wakeUp.receive() }
+            }
 
+            while (true) {
+                val event = incoming.poll() ?: break
+                val now = nowMillis()
                 // max-wait rule: arm once, on the first buffered event.
-                if (maxWaitJob == null) {
-                    maxWaitJob = scope.launch {
-                        delay(maxWaitMillis.milliseconds)
-                        mutex.withLock { flushLocked("max-wait") }
-                    }
-                }
+                if (pending.isEmpty()) maxWaitDeadline = now + maxWaitMillis
+                pending.add(event)
+                // debounce rule: restart the silence timer.
+                debounceDeadline = now + debounceMillis
+                // cap rule: flush now if we've hit the ceiling.
+                if (pending.size >= maxEvents) flush(pending, "cap")
             }
         }
     }
 
-    /** Drains and dispatches the buffer. Caller must hold [mutex]. */
-    private suspend fun flushLocked(reason: String) {
+    /** Drains [pending] and dispatches it. Only called from [drainLoop]. */
+    private fun flush(pending: MutableList<TriggeredEvent>, reason: String) {
         if (pending.isEmpty()) return
         val batch = pending.sortedBy { it.at }
         pending.clear()
-        debounceJob?.cancel(); debounceJob = null
-        maxWaitJob?.cancel(); maxWaitJob = null
         WeLogger.i(TAG, "flushing trigger=$triggerId reason=$reason count=${batch.size}")
-        // Dispatch on a DETACHED coroutine: the debounce / max-wait timers invoke flushLocked from
-        // within their own Job, and the cancel() calls above cancel that very Job — so running the
-        // suspend onFlush inline would immediately hit the cancelled state (JobCancellationException).
-        // Launching on [scope] decouples the dispatch from the timer job's lifecycle.
+        // Dispatch on a DETACHED coroutine so a slow onFlush never stalls ingestion, and cancelling
+        // this buffer doesn't abort a batch that has already been handed off.
         scope.launch {
             runCatching { onFlush(batch) }
                 .onFailure { WeLogger.e(TAG, "onFlush failed for trigger=$triggerId", it) }
         }
     }
 
-    /** Cancels any pending timers and drops buffered events (trigger disabled/deleted/reloaded). */
+    /** Stops the drain coroutine and drops buffered events (trigger disabled/deleted/reloaded). */
     fun cancel() {
-        debounceJob?.cancel(); debounceJob = null
-        maxWaitJob?.cancel(); maxWaitJob = null
-        scope.launch { mutex.withLock { pending.clear() } }
+        cancelled = true
+        drainJob.cancel()
+        wakeUp.close()
+        incoming.clear()
     }
 
+    private fun nowMillis(): Long = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
+
     private companion object {
         const val TAG = "TriggerBuffer"
     }
@@ -0,0 +1,90 @@
+package dev.ujhhgtg.wekit.agent.trigger
+
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * One partial-match condition from [TriggerConditions], compiled once. Patterns without regex
+ * metacharacters are matched as plain substrings (`^lit$` as equality) and never touch the regex
+ * engine; an invalid pattern matches nothing, same as before compilation.
+ */
+internal sealed class TextMatcher {
+    abstract fun matches(value: String): Boolean
+
+    private class Contains(val literal: String) : TextMatcher() {
+        override fun matches(value: String) = value.contains(literal)
+    }
+
+    private class Equals(val literal: String) : TextMatcher() {
+        override fun matches(value: String) = value == literal
+    }
+
+    private class Find(val pattern: Pattern) : TextMatcher() {
+        override fun matches(value: String) = pattern.matcher(value).find()
+    }
+
+    private object Never : TextMatcher() {
+        override fun matches(value: String) = false
+    }
+
+    companion object {
+        private const val META = "\\^$.|?*+()[]{}"
+
+        private fun isLiteral(s: String) = s.none { it in META }
+
+        /** Returns null for a null/blank pattern, which imposes no constraint. */
+        fun compile(pattern: String?): TextMatcher? {
+            if (pattern.isNullOrBlank()) return null
+            if (isLiteral(pattern)) return Contains(pattern)
+            if (pattern.length > 2 && pattern.startsWith('^') && pattern.endsWith('$')) {
+                val inner = pattern.substring(1, pattern.length - 1)
+                if (isLiteral(inner)) return Equals(inner)
+            }
+            return try {
+                Find(Pattern.compile(pattern))
+            } catch (_: PatternSyntaxException) {
+                Never
+            }
+        }
+    }
+}
+
+/**
+ * [TriggerConditions] compiled for the hot path in [EventTriggerBus]. Built once per resync. SQL
+ * matching is split so the caller can run [matchesSql] before it stringifies the ContentValues
+ * that [matchesValues] needs.
+ */
+internal class CompiledConditions(conditions: TriggerConditions) {
+    private val direction = conditions.direction
+    private val msgTypes: Set<Int>? = conditions.msgTypes?.takeIf { it.isNotEmpty() }?.toHashSet()
+    private val talker = TextMatcher.compile(conditions.talkerRegex)
+    private val content = TextMatcher.compile(conditions.contentRegex)
+
+    /** Empty = all operations. */
+    val sqlOps: Set<SqlOp> = conditions.sqlOps.toSet().ifEmpty { SqlOp.entries.toSet() }
+    private val table = TextMatcher.compile(conditions.tableRegex)
+    private val sql = TextMatcher.compile(conditions.sqlRegex)
+    private val values = TextMatcher.compile(conditions.valuesRegex)
+
+    fun matchesMessage(isSend: Boolean, type: Int?, talker: String?, content: String?): Boolean {
+        when (direction) {
+            MessageDirection.RECEIVED -> if (isSend) return false
+            MessageDirection.SENT -> if (!isSend) return false
+            MessageDirection.BOTH -> Unit
+        }
+        if (msgTypes != null && (type == null || type !in msgTypes)) return false
+        if (!ok(this.talker, talker)) return false
+        if (!ok(this.content, content)) return false
+        return true
+    }
+
+    /** Checks everything except the values pattern; see [matchesValues]. */
+    fun matchesSql(op: SqlOp, table: String?, sql: String?): Boolean =
+        op in sqlOps && ok(this.table, table) && ok(this.sql, sql)
+
+    fun matchesValues(values: String?): Boolean = ok(this.values, values)
+
+    /** A missing matcher imposes no constraint; otherwise the value must be present and match. */
+    private fun ok(matcher: TextMatcher?, value: String?): Boolean =
+        matcher == null || (value != null && matcher.matches(value))
+}
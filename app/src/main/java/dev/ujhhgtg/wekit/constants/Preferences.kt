@@ -1,5 +1,6 @@
 package dev.ujhhgtg.wekit.constants
 
+import dev.ujhhgtg.wekit.preferences.WePrefs.Companion.cachedPrefOption
 import dev.ujhhgtg.wekit.preferences.WePrefs.Companion.prefOption
 
 object Preferences {
@@ -19,13 +20,14 @@ object Preferences {
     const val THEME_SEED_COLOR = "settings_theme_seed_color"
     const val THEME_APPLY_TO_WECHAT = "settings_theme_apply_to_wechat"
 
-    var verboseLog by prefOption(VERBOSE_LOG, false)
+    // checked on every DB / packet hook
+    var verboseLog by cachedPrefOption(VERBOSE_LOG, false)
     var noDexResolve by prefOption(NO_DEX_RESOLVE, false)
     var showStartupToast by prefOption(SHOW_STARTUP_TOAST, false)
     var resetDexCacheOnHotUpdate by prefOption(RESET_DEX_ON_HOT_UPDATE, false)
 
     // ALWAYS check whether sender is group chat!!!
-    var matchGenericWxIdExp by prefOption(MATCH_GENERIC_WXID_EXP, true)
+    var matchGenericWxIdExp by cachedPrefOption(MATCH_GENERIC_WXID_EXP, true)
 
     // use this when Google fucked up itself again
 //    var useActivityInsteadOfDialog: Boolean
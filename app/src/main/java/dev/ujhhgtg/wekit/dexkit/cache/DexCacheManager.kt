@@ -3,24 +3,35 @@ package dev.ujhhgtg.wekit.dexkit.cache
 import dev.ujhhgtg.wekit.constants.Preferences
 import dev.ujhhgtg.wekit.dexkit.abc.IResolveDex
 import dev.ujhhgtg.wekit.features.core.BaseFeature
+import dev.ujhhgtg.wekit.features.core.StartupTracer
 import dev.ujhhgtg.wekit.preferences.WePrefs
+import dev.ujhhgtg.wekit.utils.TargetProcesses
 import dev.ujhhgtg.wekit.utils.WeLogger
 import dev.ujhhgtg.wekit.utils.fs.KnownPaths
 import dev.ujhhgtg.wekit.utils.fs.createDirsSafe
+import dev.ujhhgtg.wekit.utils.reflection.DexKit
 import dev.ujhhgtg.wekit.utils.unreachable
 import org.json.JSONObject
 import java.nio.file.Path
 import kotlin.io.path.deleteIfExists
 import kotlin.io.path.div
 import kotlin.io.path.exists
+import kotlin.io.path.extension
 import kotlin.io.path.listDirectoryEntries
 import kotlin.io.path.readText
-import kotlin.io.path.writeText
+import kotlin.time.measureTime
 
 /**
  * Dex 缓存管理器
  * 负责管理 Dex 查找结果的缓存，支持版本控制和增量更新。
  *
+ * 运行时缓存保存在每个宿主版本一个的二进制文件中（见 [DexCacheStore]），
+ * 启动时 mmap 后一次遍历完成校验与加载；旧版本遗留的逐 Feature JSON 文件在首次加载时导入后删除。
+ *
+ * 宿主版本变化时不再清空缓存：上一版本的缓存文件会保留，主进程在后台修复流程中（见 [migrateFromPrevious]）
+ * 用 [DexFingerprint] 逐委托校验描述符在新 APK 中是否仍指向同一段代码，通过校验的直接迁移，
+ * 其余才交给 DexKit 重新适配。启动路径本身不打开 DexKit。
+ *
  * 缓存的 key → value 由各 [dev.ujhhgtg.wekit.dexkit.dsl.BaseDexDelegate] 直接提供
  */
 object DexCacheManager {
@@ -29,89 +40,118 @@ object DexCacheManager {
 
     private const val CACHE_DIR_NAME = "dex_cache"
     private const val CACHE_FILE_SUFFIX = ".json"
+    private const val STORE_FILE_SUFFIX = ".bin"
     private const val KEY_HOST_VERSION = "host_version"
+    private const val KEY_PREVIOUS_HOST_VERSION = "previous_host_version"
 
     private val cacheDir: Path by lazy {
         (KnownPaths.moduleData / CACHE_DIR_NAME).createDirsSafe()
     }
 
+    private lateinit var store: DexCacheStore
+
+    /** 上一宿主版本的缓存，等待校验迁移；迁移完成后删除 */
+    @Volatile
+    private var previousStore: DexCacheStore? = null
+
     fun init(currentVer: String) {
         val cachedVer = WePrefs.getString(KEY_HOST_VERSION)
-        if (cachedVer != currentVer) {
-            WeLogger.i(TAG, "host version changed: $cachedVer -> $currentVer, resetting all cache")
-            clearAllCache()
+        if (cachedVer != null && cachedVer != currentVer) {
+            WeLogger.i(TAG, "host version changed: $cachedVer -> $currentVer, cache will be verified incrementally")
+            WePrefs.putString(KEY_PREVIOUS_HOST_VERSION, cachedVer)
             Preferences.noDexResolve = false
             WeLogger.i(TAG, "disabling NO_DEX_RESOLVE due to host version change")
         }
 
         WePrefs.putString(KEY_HOST_VERSION, currentVer)
+        store = DexCacheStore(getStoreFile(currentVer))
+
+        val previousFile = WePrefs.getString(KEY_PREVIOUS_HOST_VERSION)?.let { getStoreFile(it) }
+        if (previousFile != null && previousFile != getStoreFile(currentVer) && previousFile.exists())
+            previousStore = DexCacheStore(previousFile)
+
+        // 其他版本或旧格式的缓存文件已无用
+        val keep = setOfNotNull(getStoreFile(currentVer), previousStore?.let { previousFile })
+        cacheDir.listDirectoryEntries()
+            .filter { it.extension == STORE_FILE_SUFFIX.drop(1) && it !in keep }
+            .forEach { it.deleteIfExists() }
     }
 
     /**
-     * 检查 Feature 的缓存是否完整有效。
+     * 一次遍历完成所有 [items] 的缓存校验与加载。
      *
-     * 有效条件：
-     * 1. 缓存文件存在
-     * 2. methodHash 匹配（检测代码变化）
-     * 3. [item] 的每个委托 key 都有非空值
+     * - 缓存不存在或 methodHash 不匹配（检测代码变化）→ 不加载，加入返回列表。
+     * - 某个委托的 key 缺失 → 其他委托不受影响，仍正常加载；item 加入返回列表。
+     * - 记录损坏 → 删除该记录，整个 item 加入返回列表。
+     *
+     * @return 需要 DexKit 重新扫描的 item
      */
-    fun isItemCacheValid(item: IResolveDex): Boolean {
-        if (item !is BaseFeature) unreachable()
+    fun loadFromCache(items: List<IResolveDex>): List<IResolveDex> {
+        val brokenItems = mutableListOf<IResolveDex>()
+        val elapsed = measureTime { loadFromCache(items, brokenItems) }
+        StartupTracer.recordDexCache(items.size - brokenItems.size, brokenItems.size, elapsed)
+        return brokenItems
+    }
 
-        val cacheFile = getCacheFile(item.name)
-        if (!cacheFile.exists()) {
-            WeLogger.d(TAG, "cache not found for ${item.name}")
-            return false
-        }
+    private fun loadFromCache(items: List<IResolveDex>, brokenItems: MutableList<IResolveDex>) {
+        if (store.isEmpty()) importLegacyJson(items)
+        var removedCorrupt = false
 
-        return try {
-            val json = JSONObject(cacheFile.readText())
+        for (item in items) {
+            if (item !is BaseFeature) unreachable()
 
-            val cachedHash = json.optString("methodHash", "")
-            val currentHash = calculateMethodHash(item)
-            if (cachedHash != currentHash) {
-                WeLogger.d(TAG, "resolveDex of ${item.displayName} changed: cached=$cachedHash, current=$currentHash")
-                return false
-            }
+            try {
+                val entry = store[item.name]
+                if (entry == null) {
+                    WeLogger.d(TAG, "cache not found for ${item.displayName}")
+                    brokenItems += item
+                    continue
+                }
 
-            // 每个委托对应一个 key，全部必须存在且非空
-            val missingOrEmpty = item.dexDelegates.filter { delegate ->
-                val v = json.optString(delegate.key, "")
-                v.isEmpty() || v == "null"
-            }
+                val currentHash = calculateMethodHash(item)
+                if (entry.methodHash != currentHash) {
+                    WeLogger.d(TAG, "resolveDex of ${item.displayName} changed: cached=${entry.methodHash}, current=$currentHash")
+                    brokenItems += item
+                    continue
+                }
 
-            if (missingOrEmpty.isNotEmpty()) {
-                WeLogger.d(TAG, "cache incomplete for ${item.displayName}, missing keys: ${missingOrEmpty.map { it.key }}")
-                return false
+                // loadFromCache 逐委托加载；返回未命中的 key 集合
+                val missingKeys = item.loadFromCache(entry.descriptors)
+                if (missingKeys.isNotEmpty()) {
+                    val total = item.dexDelegates.size
+                    val loaded = total - missingKeys.size
+                    WeLogger.w(TAG, "${item.displayName}: loaded $loaded/$total delegates from cache, missing: $missingKeys")
+                    brokenItems += item
+                    // 已命中的委托此时已经可用；hook 仍然跳过（见 FeaturesLoader.loadFeatures），
+                    // 等 DexKit 把缺失的部分补齐、cache 更新后下次启动即完整。
+                }
+            } catch (e: Exception) {
+                WeLogger.e(TAG, "cache load failed for ${item.displayName}", e)
+                runCatching { store.remove(item.name) }
+                removedCorrupt = true
+                brokenItems += item
             }
-
-            true
-        } catch (e: Exception) {
-            WeLogger.e(TAG, "failed to read cache for: ${item.displayName}", e)
-            false
         }
+        // 损坏的记录统一删除后只落盘一次
+        if (removedCorrupt) flush()
     }
 
     /**
-     * 将 [item] 所有委托的当前描述符持久化到缓存文件。
+     * 将 [item] 所有委托的当前描述符写入内存中的缓存，调用 [flush] 后落盘。
      * 数据来自 [IResolveDex.collectDescriptors]。
      */
-    fun saveItemCache(item: IResolveDex) {
+    fun saveItemCache(item: IResolveDex, fingerprints: Map<String, String> = emptyMap()) {
         if (item !is BaseFeature) {
             error("item is not BaseFeature")
         }
 
-        val cacheFile = getCacheFile(item.name)
         try {
-            val json = JSONObject()
-            json.put("methodHash", calculateMethodHash(item))
-            json.put("timestamp", System.currentTimeMillis())
-
-            item.collectDescriptors().forEach { (key, value) ->
-                json.put(key, value)
-            }
-
-            cacheFile.writeText(json.toString(2))
+            store[item.name] = DexCacheStore.Entry(
+                calculateMethodHash(item),
+                System.currentTimeMillis(),
+                item.collectDescriptors(),
+                fingerprints
+            )
             WeLogger.d(TAG, "cache saved for: ${item.displayName}")
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to save cache for: ${item.displayName}", e)
@@ -119,50 +159,153 @@ object DexCacheManager {
     }
 
     /**
-     * 从缓存文件加载原始 Map（不包含元数据 key）。
-     * 由 [IResolveDex.loadFromCache] 消费，后者负责逐委托分发。
+     * 将 [saveItemCache] / [deleteCache] 的修改写入二进制缓存文件。
      */
-    fun loadItemCache(item: IResolveDex): Map<String, Any>? {
-        if (item !is BaseFeature) {
-            error("item is not BaseFeature")
-        }
-
-        val cacheFile = getCacheFile(item.name)
-        if (!cacheFile.exists()) return null
-
-        return try {
-            val json = JSONObject(cacheFile.readText())
-            buildMap {
-                for (key in json.keys()) {
-                    if (key !in META_KEYS) put(key, json.get(key))
-                }
-            }
-        } catch (e: Exception) {
-            WeLogger.e(TAG, "failed to load cache for: ${item.displayName}", e)
-            null
-        }
+    fun flush() {
+        runCatching { store.flush() }
+            .onFailure { WeLogger.e(TAG, "failed to flush cache", it) }
     }
 
-    fun deleteCache(path: String) {
-        getCacheFile(path).deleteIfExists()
+    fun deleteCache(item: IResolveDex) {
+        if (item !is BaseFeature) unreachable()
+        store.remove(item.name)
+        flush()
     }
 
     fun clearAllCache() {
+        if (::store.isInitialized) store.clear()
+        previousStore?.clear()
+        previousStore = null
+        WePrefs.remove(KEY_PREVIOUS_HOST_VERSION)
         cacheDir.listDirectoryEntries().forEach { path ->
             path.deleteIfExists()
         }
         WeLogger.i(TAG, "all cache cleared")
     }
 
-    fun getOutdatedItems(items: List<IResolveDex>): List<IResolveDex> =
-        items.filter { !isItemCacheValid(it) }
+    /**
+     * 将上一宿主版本中 methodHash 未变、且指纹在新 APK 中仍然一致的委托迁移到当前缓存。
+     * 指纹不一致或没有指纹的委托被丢弃，其所属 item 照常进入重新适配。
+     * 完整迁移的 item 会同时把描述符加载进各委托，调用方可以随即启用它们。
+     *
+     * 需要打开 DexKit，只应在后台线程调用。
+     *
+     * @return [items] 中仍需 DexKit 重新扫描的 item
+     */
+    @Synchronized
+    fun migrateFromPrevious(items: List<IResolveDex>): List<IResolveDex> {
+        val previous = previousStore ?: return items
+        if (!TargetProcesses.isInMain) return items
+        val remaining = mutableListOf<IResolveDex>()
+        var verified = 0
+        var rejected = 0
+
+        val elapsed = measureTime {
+            val dexKit = DexKit
+            for (item in items) {
+                if (item !is BaseFeature) unreachable()
+                val entry = previous[item.name]
+                if (store[item.name] != null || entry == null) {
+                    remaining += item
+                    continue
+                }
+
+                try {
+                    if (entry.methodHash != calculateMethodHash(item)) {
+                        remaining += item
+                        continue
+                    }
+
+                    val descriptors = HashMap<String, String>()
+                    val fingerprints = HashMap<String, String>()
+                    for (delegate in item.dexDelegates) {
+                        val descriptor = entry.descriptors[delegate.key] ?: continue
+                        val expected = entry.fingerprints[delegate.key] ?: continue
+                        if (DexFingerprint.of(dexKit, delegate, descriptor) == expected) {
+                            descriptors[delegate.key] = descriptor
+                            fingerprints[delegate.key] = expected
+                            verified++
+                        } else {
+                            rejected++
+                        }
+                    }
+
+                    if (descriptors.isNotEmpty())
+                        store[item.name] = DexCacheStore.Entry(entry.methodHash, entry.timestamp, descriptors, fingerprints)
+                    if (item.dexDelegates.any { it.key !in descriptors }) remaining += item
+                    else item.loadFromCache(descriptors)
+                } catch (e: Exception) {
+                    WeLogger.e(TAG, "failed to verify cache for: ${item.displayName}", e)
+                    remaining += item
+                }
+            }
+            flush()
+        }
+
+        WeLogger.i(TAG, "migrated $verified delegates from previous host version, $rejected need re-resolution, took $elapsed")
+        previous.clear()
+        previousStore = null
+        WePrefs.remove(KEY_PREVIOUS_HOST_VERSION)
+        return remaining
+    }
 
     // ---------------------------------------------------------------------------
 
     private val META_KEYS = setOf("methodHash", "timestamp")
 
-    private fun getCacheFile(path: String): Path =
-        cacheDir / (path.replace("/", "_") + CACHE_FILE_SUFFIX)
+    /**
+     * 从 [dir] 中的 JSON 文件导入 [items] 的缓存；methodHash 在加载时照常校验。
+     *
+     * @return 成功导入的数量
+     */
+    private fun importJson(items: List<IResolveDex>, dir: Path): Int {
+        var imported = 0
+        for (item in items) {
+            if (item !is BaseFeature) unreachable()
+            val file = getJsonFile(dir, item.name)
+            if (!file.exists()) continue
+
+            try {
+                val json = JSONObject(file.readText())
+                val descriptors = buildMap {
+                    for (key in json.keys()) {
+                        if (key in META_KEYS) continue
+                        val value = json.optString(key, "")
+                        if (value.isNotEmpty() && value != "null") put(key, value)
+                    }
+                }
+                store[item.name] = DexCacheStore.Entry(
+                    json.optString("methodHash", ""),
+                    json.optLong("timestamp", 0L),
+                    descriptors
+                )
+                imported++
+            } catch (e: Exception) {
+                WeLogger.e(TAG, "failed to import cache for: ${item.displayName}", e)
+            }
+        }
+        flush()
+        return imported
+    }
+
+    /**
+     * 迁移旧版本遗留在缓存目录中的 JSON 文件（宿主版本未变时才会保留下来）。
+     */
+    private fun importLegacyJson(items: List<IResolveDex>) {
+        val legacyFiles = cacheDir.listDirectoryEntries().filter { it.extension == CACHE_FILE_SUFFIX.drop(1) }
+        if (legacyFiles.isEmpty()) return
+
+        val imported = importJson(items, cacheDir)
+        legacyFiles.forEach { it.deleteIfExists() }
+        WeLogger.i(TAG, "migrated $imported legacy json cache files")
+    }
+
+    private fun getJsonFile(dir: Path, name: String): Path =
+        dir / (name.replace("/", "_") + CACHE_FILE_SUFFIX)
+
+    private fun getStoreFile(hostVer: String): Path =
+        cacheDir / ("v${DexCacheStore.FORMAT_VERSION}_" +
+                hostVer.replace(Regex("[^A-Za-z0-9._-]"), "_") + STORE_FILE_SUFFIX)
 
     /**
      * 获取 resolveDex 方法编译时生成的哈希，用于检测实现变化。
@@ -0,0 +1,203 @@
+package dev.ujhhgtg.wekit.dexkit.cache
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.moveTo
+import kotlin.io.path.outputStream
+import kotlin.io.path.resolveSibling
+
+/**
+ * Dex 缓存的二进制存储 — 每个宿主版本对应一个文件，启动时整体 mmap，按 Feature 名索引。
+ *
+ * 文件布局（大端序）：
+ * ```
+ * magic:i32  format:i32  count:i32
+ * index  × count: name:utf  offset:i32
+ * record × count: methodHash:utf  timestamp:i64  n:i32  (key:utf  value:utf) × n  m:i32  (key:utf  fingerprint:utf) × m
+ * ```
+ * 其中 utf 为 `len:i32 + UTF-8 bytes`。索引在打开时一次性解析为 HashMap，记录体按需解码。
+ */
+internal class DexCacheStore(private val file: Path) {
+
+    class Entry(
+        val methodHash: String,
+        val timestamp: Long,
+        val descriptors: Map<String, String>,
+        /** 委托 key → [DexFingerprint]，用于宿主更新后的增量校验 */
+        val fingerprints: Map<String, String> = emptyMap()
+    )
+
+    private var mapped: MappedByteBuffer? = null
+    private val offsets = HashMap<String, Int>()
+
+    /** 已修改但尚未落盘的条目；null 值表示删除 */
+    private val pending = HashMap<String, Entry?>()
+
+    init {
+        open()
+    }
+
+    @Synchronized
+    operator fun get(name: String): Entry? {
+        if (pending.containsKey(name)) return pending[name]
+        val buffer = mapped ?: return null
+        val offset = offsets[name] ?: return null
+        return runCatching { readEntry(buffer.duplicate(), offset) }.getOrNull()
+    }
+
+    @Synchronized
+    fun isEmpty(): Boolean = offsets.keys.all { pending.containsKey(it) } && pending.values.all { it == null }
+
+    @Synchronized
+    operator fun set(name: String, entry: Entry) {
+        pending[name] = entry
+    }
+
+    @Synchronized
+    fun remove(name: String) {
+        pending[name] = null
+    }
+
+    /**
+     * 将内存中的修改与现有记录合并后写入临时文件，再原子替换并重新映射。
+     */
+    @Synchronized
+    fun flush() {
+        if (pending.isEmpty()) return
+
+        val merged = LinkedHashMap<String, Entry>()
+        for (name in offsets.keys) get(name)?.let { merged[name] = it }
+        for ((name, entry) in pending) {
+            if (entry == null) merged.remove(name) else merged[name] = entry
+        }
+
+        val tmp = file.resolveSibling("${file.fileName}.tmp")
+        tmp.outputStream().use { it.write(encode(merged)) }
+        mapped = null
+        tmp.moveTo(file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        pending.clear()
+        open()
+    }
+
+    @Synchronized
+    fun clear() {
+        mapped = null
+        offsets.clear()
+        pending.clear()
+        file.deleteIfExists()
+    }
+
+    // ---------------------------------------------------------------------------
+
+    private fun open() {
+        offsets.clear()
+        mapped = null
+        if (!file.exists()) return
+
+        try {
+            val buffer = FileChannel.open(file, StandardOpenOption.READ).use { channel ->
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            }
+            require(buffer.remaining() >= 12 && buffer.int == MAGIC) { "bad magic" }
+            require(buffer.int == FORMAT_VERSION) { "unsupported format" }
+
+            val count = buffer.int
+            repeat(count) {
+                val name = buffer.readUtf()
+                offsets[name] = buffer.int
+            }
+            mapped = buffer
+        } catch (_: Exception) {
+            // 损坏或旧格式的文件直接丢弃，由调用方重新适配
+            offsets.clear()
+            file.deleteIfExists()
+        }
+    }
+
+    private fun readEntry(buffer: ByteBuffer, offset: Int): Entry {
+        buffer.position(offset)
+        val methodHash = buffer.readUtf()
+        val timestamp = buffer.long
+        val n = buffer.int
+        val descriptors = HashMap<String, String>(n * 2)
+        repeat(n) {
+            val key = buffer.readUtf()
+            descriptors[key] = buffer.readUtf()
+        }
+        val m = buffer.int
+        val fingerprints = HashMap<String, String>(m * 2)
+        repeat(m) {
+            val key = buffer.readUtf()
+            fingerprints[key] = buffer.readUtf()
+        }
+        return Entry(methodHash, timestamp, descriptors, fingerprints)
+    }
+
+    private fun encode(entries: Map<String, Entry>): ByteArray {
+        val names = entries.keys.map { it to it.toByteArray() }
+
+        // 先编码记录体，以便确定索引中的偏移量
+        val records = ByteArrayOutputStream()
+        val recordOffsets = IntArray(names.size)
+        DataOutputStream(records).use { out ->
+            names.forEachIndexed { i, (name, _) ->
+                recordOffsets[i] = out.size()
+                val entry = entries.getValue(name)
+                out.writeUtf(entry.methodHash)
+                out.writeLong(entry.timestamp)
+                out.writeInt(entry.descriptors.size)
+                for ((key, value) in entry.descriptors) {
+                    out.writeUtf(key)
+                    out.writeUtf(value)
+                }
+                out.writeInt(entry.fingerprints.size)
+                for ((key, value) in entry.fingerprints) {
+                    out.writeUtf(key)
+                    out.writeUtf(value)
+                }
+            }
+        }
+
+        val headerSize = 12 + names.sumOf { (_, bytes) -> 4 + bytes.size + 4 }
+        val result = ByteArrayOutputStream(headerSize + records.size())
+        DataOutputStream(result).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(FORMAT_VERSION)
+            out.writeInt(names.size)
+            names.forEachIndexed { i, (_, bytes) ->
+                out.writeInt(bytes.size)
+                out.write(bytes)
+                out.writeInt(headerSize + recordOffsets[i])
+            }
+            records.writeTo(out)
+        }
+        return result.toByteArray()
+    }
+
+    private fun ByteBuffer.readUtf(): String {
+        val len = int
+        val bytes = ByteArray(len)
+        get(bytes)
+        return String(bytes)
+    }
+
+    private fun DataOutputStream.writeUtf(s: String) {
+        val bytes = s.toByteArray()
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    companion object {
+        /** "WKDC" */
+        private const val MAGIC = 0x574B4443
+        const val FORMAT_VERSION = 2
+    }
+}
@@ -0,0 +1,98 @@
+package dev.ujhhgtg.wekit.dexkit.cache
+
+import dev.ujhhgtg.wekit.dexkit.abc.IResolveDex
+import dev.ujhhgtg.wekit.dexkit.dsl.BaseDexDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexClassDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexConstructorDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexFieldDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexMethodDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.findClassData
+import org.luckypray.dexkit.DexKitBridge
+import org.luckypray.dexkit.result.ClassData
+import org.luckypray.dexkit.result.MethodData
+import java.security.MessageDigest
+
+/**
+ * 委托解析结果的廉价内容指纹，用于宿主更新后判断缓存的描述符是否仍然指向同一段代码。
+ *
+ * 混淆名在宿主版本之间经常整体重排，因此指纹不含任何成员名；非框架类型也只记为 `?`：
+ * - 类：父类、接口，以及排序后的字段类型与方法原型（只需读取类本身，不逐个查询方法）
+ * - 方法 / 构造函数：原型 + 完整指令序列 + 引用字符串
+ * - 字段：类型 + 所属类的指纹
+ *
+ * 以上内容经 SHA-256 摘要后截取前 [DIGEST_BYTES] 字节。旧格式的指纹长度不同，永远不会匹配，
+ * 对应委托会照常重新适配。占位描述符（查找失败）不生成指纹，宿主更新后总是重新适配。
+ */
+internal object DexFingerprint {
+
+    private const val DIGEST_BYTES = 12
+
+    /** 不会被混淆的类型前缀 */
+    private val STABLE_PREFIXES = listOf("java.", "javax.", "android.", "androidx.", "kotlin.", "dalvik.")
+
+    fun collect(dexKit: DexKitBridge, item: IResolveDex): Map<String, String> = buildMap {
+        for (delegate in item.dexDelegates) {
+            val descriptor = delegate.getDescriptorString() ?: continue
+            if (delegate.isPlaceholder) continue
+            of(dexKit, delegate, descriptor)?.let { put(delegate.key, it) }
+        }
+    }
+
+    /**
+     * 计算 [descriptor] 在 [dexKit] 所加载的 APK 中的指纹；描述符不存在时返回 null。
+     */
+    fun of(dexKit: DexKitBridge, delegate: BaseDexDelegate, descriptor: String): String? {
+        val digest = MessageDigest.getInstance("SHA-256")
+        when (delegate) {
+            is DexClassDelegate -> digest.putClass(dexKit.findClassData(descriptor) ?: return null)
+
+            is DexMethodDelegate, is DexConstructorDelegate -> {
+                val method = dexKit.getMethodData(descriptor) ?: return null
+                digest.put("m", method.proto())
+                digest.put("o", method.opCodes.joinToString(","))
+                method.usingStrings.forEach { digest.put("s", it) }
+            }
+
+            is DexFieldDelegate -> {
+                val field = dexKit.getFieldData(descriptor) ?: return null
+                digest.put("f", stableType(field.typeName))
+                digest.putClass(field.declaredClass)
+            }
+        }
+        return digest.digest().take(DIGEST_BYTES).joinToString("") { "%02x".format(it) }
+    }
+
+    private fun MessageDigest.putClass(c: ClassData?) {
+        if (c == null) return put("c")
+        put("c", c.superClass?.name?.let(::stableType))
+        c.interfaces.map { stableType(it.name) }.sorted().forEach { put("i", it) }
+        c.fields.map { stableType(it.typeName) }.sorted().forEach { put("f", it) }
+        c.methods.map { it.proto() }.sorted().forEach { put("m", it) }
+    }
+
+    private fun MethodData.proto(): String =
+        "(${paramTypeNames.joinToString(",", transform = ::stableType)})${stableType(returnTypeName)}"
+
+    /** 基本类型与框架类型原样保留，其余（可能被混淆的）类型只保留数组维度 */
+    private fun stableType(name: String): String {
+        val element = name.substringBefore('[')
+        val stable = '.' !in element || STABLE_PREFIXES.any { element.startsWith(it) }
+        return if (stable) name else "?" + name.substring(element.length)
+    }
+
+    /** 每段以 0 结尾，避免相邻字段拼接产生歧义 */
+    private fun MessageDigest.put(vararg parts: String?) {
+        for (part in parts) {
+            update((part ?: "").toByteArray())
+            update(0)
+        }
+    }
+
+    private val BaseDexDelegate.isPlaceholder: Boolean
+        get() = when (this) {
+            is DexClassDelegate -> isPlaceholder
+            is DexFieldDelegate -> isPlaceholder
+            is DexMethodDelegate -> isPlaceholder
+            is DexConstructorDelegate -> false
+        }
+}
@@ -6,6 +6,7 @@ import dev.ujhhgtg.reflekt.reflekt
 import dev.ujhhgtg.reflekt.utils.toClassOrNull
 import dev.ujhhgtg.wekit.dexkit.DexMethodDescriptor
 import dev.ujhhgtg.wekit.features.core.BaseFeature
+import dev.ujhhgtg.wekit.features.core.StartupTracer
 import dev.ujhhgtg.wekit.utils.WeLogger
 import dev.ujhhgtg.wekit.utils.reflection.ClassLoaders
 import org.luckypray.dexkit.DexKitBridge
@@ -46,18 +47,25 @@ sealed interface BaseDexDelegate {
  */
 class DexClassDelegate internal constructor(
     override val key: String,
+    internal val inlineQuery: (FindClass.() -> Unit)? = null,
     private val inlineBlock: ((DexClassDelegate, DexKitBridge) -> Boolean)? = null
 ) : ReadOnlyProperty<BaseFeature, DexClassDelegate>, BaseDexDelegate {
 
     private var descriptorString: String? = null
     private var cachedClass: Class<*>? = null
 
+    /** 由 [dev.ujhhgtg.wekit.dexkit.engine.DexQueryPlanner] 批量预查得的候选类；非空时 [find] 只在其中搜索 */
+    internal var candidates: List<ClassData>? = null
+
     val clazz: Class<*>
         get() {
+            DexResolveTracker.checkResolved(key, descriptorString != null)
             if (descriptorString == "com.tencent.mm.ui.LauncherUI")
                 error("Class resolution has failed: $key")
-            if (cachedClass == null && descriptorString != null)
+            if (cachedClass == null && descriptorString != null) {
+                StartupTracer.onReflection()
                 cachedClass = descriptorString!!.toClassOrNull()
+            }
             return cachedClass ?: error("Class not found for key: $key")
         }
 
@@ -95,7 +103,9 @@ class DexClassDelegate internal constructor(
         multipleIndex: Int = 0,
         block: FindClass.() -> Unit
     ): Boolean {
-        val results = dexKit.findClass(block)
+        val scope = candidates
+        val results = if (scope.isNullOrEmpty()) dexKit.findClass(block)
+        else dexKit.findClass { block(); searchIn(scope) }
 
         if (results.isEmpty()) {
             if (!allowFailure) error("DexKit: No class found for key: $key")
@@ -139,10 +149,13 @@ class DexFieldDelegate internal constructor(
 
     val field: Field
         get() {
+            DexResolveTracker.checkResolved(key, descriptorString != null)
             if (descriptorString == PLACEHOLDER_DESCRIPTOR)
                 error("Field resolution has failed: $key")
-            if (cachedField == null && descriptorString != null)
+            if (cachedField == null && descriptorString != null) {
+                StartupTracer.onReflection()
                 cachedField = getFieldInstance(descriptorString!!)
+            }
             return cachedField ?: error("Field not found for key: $key")
         }
 
@@ -230,18 +243,25 @@ class DexFieldDelegate internal constructor(
  */
 class DexMethodDelegate internal constructor(
     override val key: String,
+    internal val inlineQuery: (FindMethod.() -> Unit)? = null,
     private val inlineBlock: ((DexMethodDelegate, DexKitBridge) -> Boolean)? = null
 ) : ReadOnlyProperty<BaseFeature, DexMethodDelegate>, BaseDexDelegate {
 
     private var descriptor: DexMethodDescriptor? = null
     private var cachedMethod: Method? = null
 
+    /** 由 [dev.ujhhgtg.wekit.dexkit.engine.DexQueryPlanner] 批量预查得的候选方法；非空时 [find] 只在其中搜索 */
+    internal var candidates: List<MethodData>? = null
+
     val method: Method
         get() {
+            DexResolveTracker.checkResolved(key, descriptor != null)
             if (descriptor != null && descriptor!!.name == "Lcom/tencent/mm/ui/LauncherUI;->()Lcom/tencent/mm/ui/LauncherUI;")
                 error("Method resolution has failed: $key")
-            if (cachedMethod == null && descriptor != null)
+            if (cachedMethod == null && descriptor != null) {
+                StartupTracer.onReflection()
                 cachedMethod = descriptor!!.getMethodInstance(ClassLoaders.HOST)
+            }
             return cachedMethod ?: error("Method not found for key: $key")
         }
 
@@ -285,7 +305,9 @@ class DexMethodDelegate internal constructor(
         resultIndex: Int = 0,
         block: FindMethod.() -> Unit
     ): Boolean {
-        val results = dexKit.findMethod(block)
+        val scope = candidates
+        val results = if (scope.isNullOrEmpty()) dexKit.findMethod(block)
+        else dexKit.findMethod { block(); searchInMethod(scope) }
 
         if (results.isEmpty()) {
             if (!allowFailure) error("DexKit: No method found for key: $key")
@@ -322,16 +344,23 @@ class DexMethodDelegate internal constructor(
  */
 class DexConstructorDelegate internal constructor(
     override val key: String,
+    internal val inlineQuery: (FindMethod.() -> Unit)? = null,
     private val inlineBlock: ((DexConstructorDelegate, DexKitBridge) -> Boolean)? = null
 ) : ReadOnlyProperty<BaseFeature, DexConstructorDelegate>, BaseDexDelegate {
 
     private var descriptor: DexMethodDescriptor? = null
     private var cachedConstructor: Constructor<*>? = null
 
+    /** 由 [dev.ujhhgtg.wekit.dexkit.engine.DexQueryPlanner] 批量预查得的候选方法；非空时 [find] 只在其中搜索 */
+    internal var candidates: List<MethodData>? = null
+
     val constructor: Constructor<*>
         get() {
-            if (cachedConstructor == null && descriptor != null)
+            DexResolveTracker.checkResolved(key, descriptor != null)
+            if (cachedConstructor == null && descriptor != null) {
+                StartupTracer.onReflection()
                 cachedConstructor = descriptor!!.getConstructorInstance(ClassLoaders.HOST)
+            }
             return cachedConstructor ?: error("Constructor not found for key: $key")
         }
 
@@ -371,10 +400,12 @@ class DexConstructorDelegate internal constructor(
         resultIndex: Int = 0,
         block: FindMethod.() -> Unit
     ): Boolean {
+        val scope = candidates
         val results = dexKit.findMethod {
             block()
             if (matcher == null) matcher { name = "<init>" }
             else matcher!!.name = "<init>"
+            if (!scope.isNullOrEmpty()) searchInMethod(scope)
         }
 
         if (results.isEmpty()) {
@@ -455,7 +486,7 @@ fun dexConstructor(
 ): PropertyDelegateProvider<BaseFeature, ReadOnlyProperty<BaseFeature, DexConstructorDelegate>> =
     PropertyDelegateProvider { item, property ->
         val key = "${item::class.simpleName}:${property.name}"
-        DexConstructorDelegate(key) { delegate, dexKit ->
+        DexConstructorDelegate(key, block) { delegate, dexKit ->
             delegate.find(dexKit, allowMultiple, throwOnFailure, resultIndex, block)
         }.also { item.registerDexDelegate(it) }
     }
@@ -471,7 +502,7 @@ fun dexClass(
 ): PropertyDelegateProvider<BaseFeature, ReadOnlyProperty<BaseFeature, DexClassDelegate>> =
     PropertyDelegateProvider { item, property ->
         val key = "${item::class.simpleName}:${property.name}"
-        DexClassDelegate(key) { delegate, dexKit ->
+        DexClassDelegate(key, block) { delegate, dexKit ->
             delegate.find(dexKit, allowMultiple, allowFailure, multipleIndex, block)
         }.also { item.registerDexDelegate(it) }
     }
@@ -503,7 +534,7 @@ fun dexMethod(
 ): PropertyDelegateProvider<BaseFeature, ReadOnlyProperty<BaseFeature, DexMethodDelegate>> =
     PropertyDelegateProvider { item, property ->
         val key = "${item::class.simpleName}:${property.name}"
-        DexMethodDelegate(key) { delegate, dexKit ->
+        DexMethodDelegate(key, block) { delegate, dexKit ->
             delegate.find(dexKit, allowMultiple, allowFailure, resultIndex, block)
         }.also { item.registerDexDelegate(it) }
     }
@@ -0,0 +1,49 @@
+package dev.ujhhgtg.wekit.dexkit.dsl
+
+/**
+ * 在 [DexResolveTracker.track] 作用域内读取一个尚未解析的委托时抛出，
+ * 供 [dev.ujhhgtg.wekit.dexkit.engine.DexResolveEngine] 推断委托之间的依赖顺序。
+ */
+class UnresolvedDelegateException(val key: String) :
+    IllegalStateException("Dex delegate read before it was resolved: $key")
+
+/**
+ * 记录当前线程是否处于 DexKit 扫描中。
+ *
+ * 扫描中的 `find` 代码块可能读取另一个 Feature 的委托（例如 `declaredClass(classMmKernel.clazz)`），
+ * 若该委托尚未解析，则以 [UnresolvedDelegateException] 代替普通的 "not found" 错误，
+ * 让调度器等待依赖项完成后重试。
+ */
+object DexResolveTracker {
+
+    private val active = ThreadLocal<Boolean>()
+
+    inline fun <T> track(block: () -> T): T {
+        enter()
+        try {
+            return block()
+        } finally {
+            exit()
+        }
+    }
+
+    @PublishedApi
+    internal fun enter() = active.set(true)
+
+    @PublishedApi
+    internal fun exit() = active.remove()
+
+    internal fun checkResolved(key: String, resolved: Boolean) {
+        if (!resolved && active.get() == true) throw UnresolvedDelegateException(key)
+    }
+
+    /** 在异常链中查找 [UnresolvedDelegateException] */
+    fun findUnresolved(e: Throwable): UnresolvedDelegateException? {
+        var cur: Throwable? = e
+        while (cur != null) {
+            if (cur is UnresolvedDelegateException) return cur
+            cur = cur.cause
+        }
+        return null
+    }
+}
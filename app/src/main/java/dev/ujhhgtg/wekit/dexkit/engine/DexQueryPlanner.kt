@@ -0,0 +1,122 @@
+package dev.ujhhgtg.wekit.dexkit.engine
+
+import dev.ujhhgtg.wekit.dexkit.abc.IResolveDex
+import dev.ujhhgtg.wekit.dexkit.dsl.DexClassDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexConstructorDelegate
+import dev.ujhhgtg.wekit.dexkit.dsl.DexMethodDelegate
+import dev.ujhhgtg.wekit.utils.WeLogger
+import org.luckypray.dexkit.DexKitBridge
+import org.luckypray.dexkit.query.FindClass
+import org.luckypray.dexkit.query.FindMethod
+import org.luckypray.dexkit.query.enums.StringMatchType
+import org.luckypray.dexkit.query.matchers.base.StringMatcher
+import kotlin.time.measureTime
+
+/**
+ * 批量查询规划器。
+ *
+ * 大部分内联委托仅靠 `usingStrings` / `usingEqStrings` 定位，逐个 `findClass` / `findMethod`
+ * 意味着每个委托都要完整扫描一次 dex。规划器先收集所有待适配委托的字符串条件，
+ * 按字符串集合去重分组后通过 `batchFind*UsingStrings` 一次扫描取得候选集，
+ * 再分发给各委托的 `candidates`；委托随后的 `find` 仅在候选集中执行完整匹配。
+ *
+ * 无法规划的委托（无字符串条件、忽略大小写、混用匹配方式、构造查询时依赖尚未解析的委托等）
+ * 保持原样，走普通的全量查询。
+ */
+object DexQueryPlanner {
+
+    private const val TAG = "DexQueryPlanner"
+
+    private class Plan(val matchType: StringMatchType, val strings: List<String>) {
+        /** 相同字符串集合的委托共享同一个分组 */
+        val groupName = "$matchType:" + strings.sorted().joinToString("\u0000")
+    }
+
+    /**
+     * 为 [items] 中所有内联委托批量预取候选集。
+     *
+     * @return 获得候选集的委托数量
+     */
+    fun prefetch(dexKit: DexKitBridge, items: List<IResolveDex>): Int {
+        val classPlans = HashMap<DexClassDelegate, Plan>()
+        val methodPlans = HashMap<Any, Plan>()
+
+        for (delegate in items.flatMap { it.dexDelegates }) {
+            when (delegate) {
+                is DexClassDelegate -> delegate.inlineQuery
+                    ?.let { q -> planOf { FindClass().apply(q).matcher?.usingStringsMatcher } }
+                    ?.let { classPlans[delegate] = it }
+
+                is DexMethodDelegate -> delegate.inlineQuery
+                    ?.let { q -> planOf { FindMethod().apply(q).matcher?.usingStringsMatcher } }
+                    ?.let { methodPlans[delegate] = it }
+
+                is DexConstructorDelegate -> delegate.inlineQuery
+                    ?.let { q -> planOf { FindMethod().apply(q).matcher?.usingStringsMatcher } }
+                    ?.let { methodPlans[delegate] = it }
+
+                else -> {}
+            }
+        }
+
+        var assigned = 0
+        val elapsed = measureTime {
+            for ((matchType, plans) in classPlans.entries.groupBy { it.value.matchType }) {
+                val keywords = plans.associate { it.value.groupName to it.value.strings }
+                val results = dexKit.batchFindClassUsingStrings { groups(keywords, matchType) }
+                for ((delegate, plan) in plans) {
+                    delegate.candidates = results[plan.groupName] ?: continue
+                    assigned++
+                }
+            }
+
+            for ((matchType, plans) in methodPlans.entries.groupBy { it.value.matchType }) {
+                val keywords = plans.associate { it.value.groupName to it.value.strings }
+                val results = dexKit.batchFindMethodUsingStrings { groups(keywords, matchType) }
+                for ((delegate, plan) in plans) {
+                    val candidates = results[plan.groupName] ?: continue
+                    when (delegate) {
+                        is DexMethodDelegate -> delegate.candidates = candidates
+                        is DexConstructorDelegate -> delegate.candidates = candidates
+                    }
+                    assigned++
+                }
+            }
+        }
+
+        WeLogger.i(
+            TAG,
+            "prefetched candidates for $assigned delegates " +
+                    "(${classPlans.size} class, ${methodPlans.size} method queries) in $elapsed"
+        )
+        return assigned
+    }
+
+    /** 清除 [items] 中委托的候选集，避免影响之后的查询 */
+    fun reset(items: List<IResolveDex>) {
+        for (delegate in items.flatMap { it.dexDelegates }) {
+            when (delegate) {
+                is DexClassDelegate -> delegate.candidates = null
+                is DexMethodDelegate -> delegate.candidates = null
+                is DexConstructorDelegate -> delegate.candidates = null
+                else -> {}
+            }
+        }
+    }
+
+    /**
+     * 从查询的字符串条件生成分组；条件需同为 Equals 或 Contains 且区分大小写。
+     * 构造查询本身失败（例如读取了尚未解析的委托）时返回 null。
+     */
+    private inline fun planOf(matchers: () -> List<StringMatcher>?): Plan? {
+        val list = runCatching(matchers).getOrNull()
+        if (list.isNullOrEmpty()) return null
+        if (list.any { it.ignoreCase || it.value.isNullOrEmpty() }) return null
+
+        val matchType = list.first().matchType
+        if (matchType != StringMatchType.Equals && matchType != StringMatchType.Contains) return null
+        if (list.any { it.matchType != matchType }) return null
+
+        return Plan(matchType, list.map { it.value!! })
+    }
+}
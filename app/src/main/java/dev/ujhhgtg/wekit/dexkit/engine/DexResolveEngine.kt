@@ -0,0 +1,210 @@
+package dev.ujhhgtg.wekit.dexkit.engine
+
+import dev.ujhhgtg.wekit.dexkit.abc.IResolveDex
+import dev.ujhhgtg.wekit.dexkit.cache.DexCacheManager
+import dev.ujhhgtg.wekit.dexkit.cache.DexFingerprint
+import dev.ujhhgtg.wekit.dexkit.dsl.DexResolveTracker
+import dev.ujhhgtg.wekit.features.core.BaseFeature
+import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.unreachable
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.luckypray.dexkit.DexKitBridge
+import kotlin.time.Duration
+import kotlin.time.TimeSource
+import kotlin.time.measureTimedValue
+
+/**
+ * DexKit 重新适配调度器。
+ *
+ * 每个 [IResolveDex] 作为一个任务，在最多 [parallelism] 个并发扫描中执行 `findInline` + `resolveDex`。
+ * 任务间的先后顺序不需要声明：若某个任务读取了另一个待适配任务尚未解析的委托
+ * （如 `declaredClass(WeMessageApi.classMsgInfo.clazz)`），[DexResolveTracker] 会中断该次扫描，
+ * 调度器让出并发名额，等待依赖项完成后重试。依赖成环或依赖项失败时，该任务以失败结束。
+ *
+ * 开始前先由 [DexQueryPlanner] 批量预取字符串条件的候选集，使多数内联委托只需在候选中匹配。
+ *
+ * 成功的任务会连同各委托的 [DexFingerprint] 通过 [DexCacheManager.saveItemCache] 写入缓存，
+ * 全部结束后统一 [DexCacheManager.flush]。
+ */
+class DexResolveEngine(
+    private val dexKit: DexKitBridge,
+    private val parallelism: Int = DEFAULT_PARALLELISM
+) {
+
+    sealed class Event {
+        abstract val displayName: String
+
+        data class Started(override val displayName: String) : Event()
+        data class Waiting(override val displayName: String, val dependency: String) : Event()
+        data class Completed(override val displayName: String, val timing: ItemTiming) : Event()
+        data class Failed(override val displayName: String, val error: Exception, val timing: ItemTiming) : Event()
+    }
+
+    /**
+     * @param busy 实际扫描耗时（不含等待依赖的时间）
+     * @param attempts 扫描次数，每等待一次依赖加一
+     * @param dependencies 运行中推断出的依赖项
+     */
+    data class ItemTiming(
+        val displayName: String,
+        val busy: Duration,
+        val attempts: Int,
+        val dependencies: List<String>
+    )
+
+    class Report(
+        val timings: List<ItemTiming>,
+        val failed: List<Event.Failed>,
+        val elapsed: Duration
+    )
+
+    private val semaphore = Semaphore(parallelism)
+
+    /** 正在等待依赖项的任务 → 其依赖项，用于检测环 */
+    private val waitingOn = HashMap<IResolveDex, IResolveDex>()
+
+    suspend fun resolve(
+        items: List<IResolveDex>,
+        onEvent: suspend (Event) -> Unit = {}
+    ): Report = coroutineScope {
+        val mark = TimeSource.Monotonic.markNow()
+
+        val owners = HashMap<String, IResolveDex>()
+        for (item in items) item.dexDelegates.forEach { owners[it.key] = item }
+        val done = items.associateWith { CompletableDeferred<Boolean>() }
+
+        runCatching { DexQueryPlanner.prefetch(dexKit, items) }
+            .onFailure { WeLogger.w(TAG, "batch prefetch failed, falling back to per-delegate queries", it) }
+
+        val events = try {
+            items.map { item ->
+                async(Dispatchers.IO) {
+                    val event = resolveItem(item, owners, done, onEvent)
+                    done.getValue(item).complete(event is Event.Completed)
+                    onEvent(event)
+                    event
+                }
+            }.awaitAll()
+        } finally {
+            DexQueryPlanner.reset(items)
+        }
+
+        DexCacheManager.flush()
+
+        val timings = events.map {
+            when (it) {
+                is Event.Completed -> it.timing
+                is Event.Failed -> it.timing
+                else -> unreachable()
+            }
+        }
+        val report = Report(timings, events.filterIsInstance<Event.Failed>(), mark.elapsedNow())
+        logReport(report)
+        report
+    }
+
+    private suspend fun resolveItem(
+        item: IResolveDex,
+        owners: Map<String, IResolveDex>,
+        done: Map<IResolveDex, CompletableDeferred<Boolean>>,
+        onEvent: suspend (Event) -> Unit
+    ): Event {
+        if (item !is BaseFeature) unreachable()
+
+        val displayName = item.displayName
+        val dependencies = mutableListOf<String>()
+        var busy = Duration.ZERO
+        var attempts = 0
+
+        fun timing() = ItemTiming(displayName, busy, attempts, dependencies.toList())
+
+        onEvent(Event.Started(displayName))
+
+        while (true) {
+            attempts++
+            val (error, elapsed) = semaphore.withPermit {
+                measureTimedValue {
+                    try {
+                        DexResolveTracker.track {
+                            item.resolveInlineDex(dexKit)
+                            item.resolveDex(dexKit)
+                        }
+                        val fingerprints = runCatching { DexFingerprint.collect(dexKit, item) }
+                            .onFailure { WeLogger.w(TAG, "failed to fingerprint $displayName", it) }
+                            .getOrDefault(emptyMap())
+                        DexCacheManager.saveItemCache(item, fingerprints)
+                        null
+                    } catch (e: Exception) {
+                        e
+                    }
+                }
+            }
+            busy += elapsed
+
+            if (error == null) return Event.Completed(displayName, timing())
+
+            val unresolved = DexResolveTracker.findUnresolved(error)
+            val dependency = unresolved?.let { owners[it.key] }
+            if (unresolved == null || dependency == null || dependency === item || !startWaiting(item, dependency)) {
+                WeLogger.e(TAG, "failed to resolve: $displayName", error)
+                return Event.Failed(displayName, error, timing())
+            }
+
+            val dependencyName = (dependency as BaseFeature).displayName
+            dependencies += dependencyName
+            onEvent(Event.Waiting(displayName, dependencyName))
+            WeLogger.d(TAG, "$displayName waits for $dependencyName (${unresolved.key})")
+
+            val ok = try {
+                done.getValue(dependency).await()
+            } finally {
+                synchronized(waitingOn) { waitingOn.remove(item) }
+            }
+            if (!ok) {
+                val e = IllegalStateException("dependency $dependencyName failed to resolve", error)
+                return Event.Failed(displayName, e, timing())
+            }
+        }
+    }
+
+    /**
+     * 登记 [item] 等待 [dependency]；若会形成环则拒绝。
+     */
+    private fun startWaiting(item: IResolveDex, dependency: IResolveDex): Boolean = synchronized(waitingOn) {
+        var cur: IResolveDex? = dependency
+        while (cur != null) {
+            if (cur === item) return false
+            cur = waitingOn[cur]
+        }
+        waitingOn[item] = dependency
+        true
+    }
+
+    private fun logReport(report: Report) {
+        WeLogger.i(
+            TAG,
+            "resolved ${report.timings.size - report.failed.size}/${report.timings.size} items " +
+                    "in ${report.elapsed} with parallelism $parallelism"
+        )
+        report.timings.sortedByDescending { it.busy }.take(SLOWEST_LOGGED).forEach {
+            WeLogger.i(
+                TAG,
+                "  ${it.displayName}: ${it.busy}" +
+                        (if (it.dependencies.isNotEmpty()) ", after ${it.dependencies}" else "")
+            )
+        }
+    }
+
+    companion object {
+        private const val TAG = "DexResolveEngine"
+        private const val SLOWEST_LOGGED = 10
+
+        val DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(2, 8)
+    }
+}
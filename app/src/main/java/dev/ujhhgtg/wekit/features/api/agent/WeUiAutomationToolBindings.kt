@@ -130,6 +130,7 @@ object WeUiAutomationToolBindings {
                 "Returns a short acknowledgement; the actual image is delivered as a separate message.",
         sideEffect = false,   // read-only from WeChat's perspective; gated separately by visionToolsVisible
         group = BUILTIN_UI,
+        parallelSafe = false, // staged images must reach the model in call order
     )
     suspend fun uiScreenshot(
         @AgentToolParam("Handle #N to capture a subtree; null = whole window") viewRef: String?,
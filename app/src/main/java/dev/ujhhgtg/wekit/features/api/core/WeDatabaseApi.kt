@@ -19,13 +19,21 @@ import dev.ujhhgtg.wekit.features.api.net.models.protobuf.ChatRoomDataProto
 import dev.ujhhgtg.wekit.features.core.ApiFeature
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.android.intOrZero
+import dev.ujhhgtg.wekit.utils.android.longOrZero
+import dev.ujhhgtg.wekit.utils.android.stringOrEmpty
 import dev.ujhhgtg.wekit.utils.reflection.BString
 import dev.ujhhgtg.wekit.utils.reflection.int
 import dev.ujhhgtg.wekit.utils.strings.isGroupChatWxId
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.decodeFromByteArray
 import kotlinx.serialization.protobuf.ProtoBuf
 import java.lang.reflect.Modifier
+import java.util.concurrent.CopyOnWriteArrayList
 
 @OptIn(ExperimentalSerializationApi::class)
 @SuppressLint("DiscouragedApi")
@@ -69,6 +77,19 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
 
     val isReady: Boolean get() = ::db.isInitialized
 
+    private val readyListeners = CopyOnWriteArrayList<() -> Unit>()
+
+    /** 数据库就绪后回调 [listener]；若已就绪则立即回调 */
+    fun addOnReadyListener(listener: () -> Unit) {
+        synchronized(this) {
+            if (!isReady) {
+                readyListeners += listener
+                return
+            }
+        }
+        listener()
+    }
+
     private const val TAG = "WeDatabaseApi"
 
     val coreStorage by lazy {
@@ -349,6 +370,12 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
                 parameterCount = 0
                 returnType = "com.tencent.wcdb.database.SQLiteDatabase"
             }.invoke()!! as SQLiteDatabase
+
+        // 取出与清空都在锁内，与 addOnReadyListener 互斥；回调在锁外执行
+        val listeners = synchronized(this) { readyListeners.toList().also { readyListeners.clear() } }
+        listeners.forEach { listener ->
+            runCatching(listener).onFailure { WeLogger.e(TAG, "database ready listener failed", it) }
+        }
     }
 
     @Suppress("NOTHING_TO_INLINE")
@@ -388,6 +415,57 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
         return result
     }
 
+    /**
+     * 游标到对象的映射。
+     *
+     * [bind] 在每个游标上只调用一次，用于按列名解析列索引；返回的函数对每一行调用，直接按索引读取原始类型
+     */
+    fun interface RowMapper<T> {
+        fun bind(cursor: Cursor): Cursor.() -> T
+    }
+
+    /**
+     * 执行查询并用 [mapper] 逐行映射；失败时记录日志并返回已读取的行
+     */
+    fun <T> query(statement: String, args: Array<Any>? = null, mapper: RowMapper<T>): List<T> {
+        val result = ArrayList<T>()
+        try {
+            db.rawQuery(statement, args)?.use { cursor ->
+                result.ensureCapacity(cursor.count)
+                val read = mapper.bind(cursor)
+                while (cursor.moveToNext()) result.add(cursor.read())
+            }
+        } catch (e: Exception) {
+            WeLogger.e(TAG, "sql query failed", e)
+        }
+        return result
+    }
+
+    /**
+     * 以 [Sequence] 形式逐行读取查询结果，游标只在 [block] 内有效，[block] 返回时关闭
+     */
+    fun <T, R> querySequence(
+        statement: String,
+        args: Array<Any>? = null,
+        mapper: RowMapper<T>,
+        block: (Sequence<T>) -> R
+    ): R {
+        return db.rawQuery(statement, args).use { cursor ->
+            val read = mapper.bind(cursor)
+            block(sequence { while (cursor.moveToNext()) yield(cursor.read()) })
+        }
+    }
+
+    /**
+     * 以 [Flow] 形式逐行发出查询结果，在 IO 线程读取；收集结束或取消时关闭游标
+     */
+    fun <T> queryFlow(statement: String, args: Array<Any>? = null, mapper: RowMapper<T>): Flow<T> = flow {
+        db.rawQuery(statement, args).use { cursor ->
+            val read = mapper.bind(cursor)
+            while (cursor.moveToNext()) emit(cursor.read())
+        }
+    }.flowOn(Dispatchers.IO)
+
     @Suppress("NOTHING_TO_INLINE")
     inline fun execStatement(statement: String, args: Array<Any>? = null) = db.execSQL(statement, args)
 
@@ -396,14 +474,14 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
      * 返回所有账号
      */
     fun getContacts(): List<WeContact> {
-        return mapToContacts(executeQuery(SqlStatements.CONTACTS))
+        return query(SqlStatements.CONTACTS, mapper = ContactMapper)
     }
 
     /**
      * 获取【好友】
      */
     fun getFriends(): List<WeContact> {
-        return mapToContacts(executeQuery(SqlStatements.FRIENDS))
+        return query(SqlStatements.FRIENDS, mapper = ContactMapper)
     }
 
     /**
@@ -415,11 +493,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
         if (wxId.isEmpty()) return null
         try {
             val escapedWxid = wxId.replace("'", "''")
-            val result = executeQuery(SqlStatements.friend(escapedWxid))
-
-            if (result.isEmpty()) return null
-
-            return mapToContacts(result).firstOrNull()
+            return query(SqlStatements.friend(escapedWxid), mapper = ContactMapper).firstOrNull()
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to get friend details; wxid=$wxId", e)
             return null
@@ -434,15 +508,14 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
     fun getFriendsOrderedByMessageCount(limit: Int): Map<WeContact, Int> {
         if (limit <= 0) return emptyMap()
         try {
-            val result = executeQuery(SqlStatements.friendsOrderedByMessageCount(limit))
-            if (result.isEmpty()) return emptyMap()
-
-            val contacts = mapToContacts(result)
+            val mapper = RowMapper<Pair<WeContact, Int>> { cursor ->
+                val readContact = ContactMapper.bind(cursor)
+                val msgCount = cursor.getColumnIndex("msg_count")
+                return@RowMapper { readContact() to intOrZero(msgCount) }
+            }
 
-            // 使用 mapIndexed 组合并转换为 Map，Kotlin 的 toMap() 会默认保留原本的降序遍历顺序
-            return result.mapIndexed { index, row ->
-                contacts[index] to row.int("msg_count")
-            }.toMap()
+            // toMap() 会保留原本的降序遍历顺序
+            return query(SqlStatements.friendsOrderedByMessageCount(limit), mapper = mapper).toMap()
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to get friends ordered by message count; limit=$limit", e)
             return emptyMap()
@@ -458,18 +531,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
         if (wxId.isEmpty() || !wxId.isGroupChatWxId) return null
         try {
             val escapedWxid = wxId.replace("'", "''")
-            val result = executeQuery(SqlStatements.group(escapedWxid))
-
-            if (result.isEmpty()) return null
-
-            val row = result[0]
-            return WeGroup(
-                wxId = row.str("username"),
-                nickname = row.str("nickname"),
-                nicknameShortPinyin = row.str("pyInitial"),
-                nicknamePinyin = row.str("quanPin"),
-                avatarUrl = row.str("avatarUrl")
-            )
+            return query(SqlStatements.group(escapedWxid), mapper = GroupMapper).firstOrNull()
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to get group; wxid=$wxId", e)
             return null
@@ -508,15 +570,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
      * 获取【群聊】
      */
     fun getGroups(): List<WeGroup> {
-        return executeQuery(SqlStatements.GROUPS).map { row ->
-            WeGroup(
-                wxId = row.str("username"),
-                nickname = row.str("nickname"),
-                nicknameShortPinyin = row.str("pyInitial"),
-                nicknamePinyin = row.str("quanPin"),
-                avatarUrl = row.str("avatarUrl")
-            )
-        }
+        return query(SqlStatements.GROUPS, mapper = GroupMapper)
     }
 
     /**
@@ -542,7 +596,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
 
         val idsStr = members.joinToString(",") { "'$it'" }
 
-        return mapToContacts(executeQuery(SqlStatements.groupMembers(idsStr)))
+        return query(SqlStatements.groupMembers(idsStr), mapper = ContactMapper)
     }
 
     /**
@@ -603,13 +657,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
      * 获取【公众号】
      */
     fun getOfficialAccounts(): List<WeOfficialAccount> {
-        return executeQuery(SqlStatements.OFFICIAL_LIST).map { row ->
-            WeOfficialAccount(
-                wxId = row.str("username"),
-                nickname = row.str("nickname"),
-                avatarUrl = row.str("avatarUrl")
-            )
-        }
+        return query(SqlStatements.OFFICIAL_LIST, mapper = OfficialAccountMapper)
     }
 
     /**
@@ -618,17 +666,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
     fun getMessages(convId: String, pageIndex: Int = 1, pageSize: Int = 20): List<WeMessage> {
         if (convId.isEmpty()) return emptyList()
         val offset = (pageIndex - 1) * pageSize
-        return executeQuery(SqlStatements.messages(convId, pageSize, offset)).map { row ->
-            WeMessage(
-                msgId = row.long("msgId"),
-                msgSvrId = row.long("msgSvrId"),
-                talker = row.str("talker"),
-                content = row.str("content"),
-                typeCode = row.int("type"),
-                createTime = row.long("createTime"),
-                isSend = row.int("isSend")
-            )
-        }
+        return query(SqlStatements.messages(convId, pageSize, offset), mapper = MessageMapper)
     }
 
     /**
@@ -648,17 +686,7 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
             val escapedSenderId = senderId.replace("'", "''")
 
             val sql = SqlStatements.messagesFromSender(escapedConvId, escapedSenderId)
-            return executeQuery(sql).map { row ->
-                WeMessage(
-                    msgId = row.long("msgId"),
-                    msgSvrId = row.long("msgSvrId"),
-                    talker = row.str("talker"),
-                    content = row.str("content"),
-                    typeCode = row.int("type"),
-                    createTime = row.long("createTime"),
-                    isSend = row.int("isSend")
-                )
-            }
+            return query(sql, mapper = MessageMapper)
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to get messages from sender; convId=$convId, senderId=$senderId", e)
             return emptyList()
@@ -671,9 +699,12 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
      */
     fun getLastMessageTimes(): Map<String, Long> {
         return try {
-            executeQuery(SqlStatements.LAST_MESSAGE_TIMES).associate { row ->
-                row.str("talker") to row.long("lastTime")
+            val mapper = RowMapper<Pair<String, Long>> { cursor ->
+                val talker = cursor.getColumnIndex("talker")
+                val lastTime = cursor.getColumnIndex("lastTime")
+                return@RowMapper { stringOrEmpty(talker) to longOrZero(lastTime) }
             }
+            query(SqlStatements.LAST_MESSAGE_TIMES, mapper = mapper).toMap()
         } catch (e: Exception) {
             WeLogger.e(TAG, "failed to get last message times", e)
             emptyMap()
@@ -693,37 +724,89 @@ object WeDatabaseApi : ApiFeature(), IResolveDex {
         }
     }
 
-    private fun mapToContacts(data: List<Map<String, Any?>>): List<WeContact> {
-        return data.map { row ->
-            WeContact(
-                wxId = row.str("username"),
-                nickname = row.str("nickname"),
-                customWxId = row.str("alias"),
-                remarkName = row.str("conRemark"),
-                initialNickname = row.str("pyInitial"),
-                nicknamePinyin = row.str("quanPin"),
-                avatarUrl = row.str("avatarUrl"),
-                encryptedUsername = row.str("encryptUsername"),
-                type = row.int("type")
-            )
+    object ContactMapper : RowMapper<WeContact> {
+        override fun bind(cursor: Cursor): Cursor.() -> WeContact {
+            val username = cursor.getColumnIndex("username")
+            val nickname = cursor.getColumnIndex("nickname")
+            val alias = cursor.getColumnIndex("alias")
+            val conRemark = cursor.getColumnIndex("conRemark")
+            val pyInitial = cursor.getColumnIndex("pyInitial")
+            val quanPin = cursor.getColumnIndex("quanPin")
+            val avatarUrl = cursor.getColumnIndex("avatarUrl")
+            val encryptUsername = cursor.getColumnIndex("encryptUsername")
+            val type = cursor.getColumnIndex("type")
+            return {
+                WeContact(
+                    wxId = stringOrEmpty(username),
+                    nickname = stringOrEmpty(nickname),
+                    customWxId = stringOrEmpty(alias),
+                    remarkName = stringOrEmpty(conRemark),
+                    initialNickname = stringOrEmpty(pyInitial),
+                    nicknamePinyin = stringOrEmpty(quanPin),
+                    avatarUrl = stringOrEmpty(avatarUrl),
+                    encryptedUsername = stringOrEmpty(encryptUsername),
+                    type = intOrZero(type)
+                )
+            }
         }
     }
 
-    private fun Map<String, Any?>.str(key: String): String = this[key]?.toString() ?: ""
+    object GroupMapper : RowMapper<WeGroup> {
+        override fun bind(cursor: Cursor): Cursor.() -> WeGroup {
+            val username = cursor.getColumnIndex("username")
+            val nickname = cursor.getColumnIndex("nickname")
+            val pyInitial = cursor.getColumnIndex("pyInitial")
+            val quanPin = cursor.getColumnIndex("quanPin")
+            val avatarUrl = cursor.getColumnIndex("avatarUrl")
+            return {
+                WeGroup(
+                    wxId = stringOrEmpty(username),
+                    nickname = stringOrEmpty(nickname),
+                    nicknameShortPinyin = stringOrEmpty(pyInitial),
+                    nicknamePinyin = stringOrEmpty(quanPin),
+                    avatarUrl = stringOrEmpty(avatarUrl)
+                )
+            }
+        }
+    }
 
-    private fun Map<String, Any?>.long(key: String): Long {
-        return when (val v = this[key]) {
-            is Long -> v
-            is Int -> v.toLong()
-            else -> 0L
+    object OfficialAccountMapper : RowMapper<WeOfficialAccount> {
+        override fun bind(cursor: Cursor): Cursor.() -> WeOfficialAccount {
+            val username = cursor.getColumnIndex("username")
+            val nickname = cursor.getColumnIndex("nickname")
+            val avatarUrl = cursor.getColumnIndex("avatarUrl")
+            return {
+                WeOfficialAccount(
+                    wxId = stringOrEmpty(username),
+                    nickname = stringOrEmpty(nickname),
+                    avatarUrl = stringOrEmpty(avatarUrl)
+                )
+            }
         }
     }
 
-    private fun Map<String, Any?>.int(key: String): Int {
-        return when (val v = this[key]) {
-            is Int -> v
-            is Long -> v.toInt()
-            else -> 0
+    object MessageMapper : RowMapper<WeMessage> {
+        override fun bind(cursor: Cursor): Cursor.() -> WeMessage {
+            val msgId = cursor.getColumnIndex("msgId")
+            val msgSvrId = cursor.getColumnIndex("msgSvrId")
+            val talker = cursor.getColumnIndex("talker")
+            val content = cursor.getColumnIndex("content")
+            val type = cursor.getColumnIndex("type")
+            val createTime = cursor.getColumnIndex("createTime")
+            val isSend = cursor.getColumnIndex("isSend")
+            return {
+                WeMessage(
+                    msgId = longOrZero(msgId),
+                    msgSvrId = longOrZero(msgSvrId),
+                    talker = stringOrEmpty(talker),
+                    content = stringOrEmpty(content),
+                    typeCode = intOrZero(type),
+                    createTime = longOrZero(createTime),
+                    isSend = intOrZero(isSend)
+                )
+            }
         }
     }
+
+    private fun Map<String, Any?>.str(key: String): String = this[key]?.toString() ?: ""
 }
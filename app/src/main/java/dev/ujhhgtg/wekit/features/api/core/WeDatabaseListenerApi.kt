@@ -11,7 +11,14 @@ import dev.ujhhgtg.wekit.features.core.ApiFeature
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.utils.HostInfo
 import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.collections.BoundedRingBuffer
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 @SuppressLint("DiscouragedApi")
 @Feature(name = "数据库监听服务", categories = ["API"], description = "提供数据库插入、更新与查询监听能力")
@@ -27,27 +34,309 @@ object WeDatabaseListenerApi : ApiFeature() {
 
     fun interface IQueryListener {
         fun onQuery(sql: String): String?
+
+        /**
+         * 为 true 时 [onQuery] 的结果只取决于传入的 SQL 文本与监听器自身状态，且没有副作用（包括日志）；
+         * 该监听器的改写结果会按输入 SQL 缓存，监听器状态变化时须调用 [invalidateQueryRewrites]。
+         * 须为常量：不能按线程或时机改变。
+         */
+        val isRewriteCacheable: Boolean get() = false
     }
 
     private const val TAG = "WeDatabaseListenerApi"
 
-    private val insertListeners = CopyOnWriteArrayList<IInsertListener>()
-    private val updateListeners = CopyOnWriteArrayList<IUpdateListener>()
+    /**
+     * 按表名索引的监听器表。
+     *
+     * 未指定表名注册的监听器对所有表生效；指定了表名的监听器只在该表写入时调用，
+     * 写入无人监听的表时 hook 内只有一次哈希查找。
+     * 可选的 [columns] 进一步要求写入的 [ContentValues] 至少包含其中一列。
+     */
+    private class TableIndex<L : Any> {
+
+        private class Entry<L>(val listener: L, val columns: Set<String>?)
+
+        /** 写时复制，hook 内读取无需加锁 */
+        @Volatile
+        private var byTable: Map<String, List<Entry<L>>> = emptyMap()
+        private val wildcard = CopyOnWriteArrayList<L>()
+
+        val isEmpty: Boolean get() = wildcard.isEmpty() && byTable.isEmpty()
+
+        fun add(listener: L, tables: Collection<String>, columns: Set<String>?) {
+            if (tables.isEmpty()) {
+                wildcard.addIfAbsent(listener)
+                return
+            }
+            synchronized(this) {
+                val next = byTable.toMutableMap()
+                for (table in tables) {
+                    val list = next[table].orEmpty()
+                    if (list.any { it.listener == listener }) continue
+                    next[table] = list + Entry(listener, columns?.takeIf { it.isNotEmpty() })
+                }
+                byTable = next
+            }
+        }
+
+        fun remove(listener: L) {
+            wildcard.remove(listener)
+            synchronized(this) {
+                if (byTable.values.none { list -> list.any { it.listener == listener } }) return
+                byTable = byTable
+                    .mapValues { (_, list) -> list.filter { it.listener != listener } }
+                    .filterValues { it.isNotEmpty() }
+            }
+        }
+
+        fun clear() {
+            wildcard.clear()
+            synchronized(this) { byTable = emptyMap() }
+        }
+
+        /** [table] 是否有监听器；为 false 时调用方可以跳过参数解析 */
+        fun hasListeners(table: String): Boolean = wildcard.isNotEmpty() || table in byTable
+
+        inline fun dispatch(table: String, values: ContentValues, action: (L) -> Unit) {
+            byTable[table]?.forEach { entry ->
+                val columns = entry.columns
+                if (columns == null || columns.any { values.containsKey(it) }) action(entry.listener)
+            }
+            wildcard.forEach(action)
+        }
+    }
+
+    private val insertListeners = TableIndex<IInsertListener>()
+    private val updateListeners = TableIndex<IUpdateListener>()
     private val queryListeners = CopyOnWriteArrayList<IQueryListener>()
 
-    fun addListener(listener: Any) {
+    // ==================== 查询改写缓存 ====================
+
+    private const val QUERY_REWRITE_CACHE_LIMIT = 512
+
+    /** 可缓存监听器对某条输入 SQL 的改写结果，[generation] 过期即失效 */
+    private class QueryRewrite(val generation: Int, val result: String)
+
+    /** 每个可缓存监听器一张表：输入 SQL → 该监听器的输出 */
+    private val queryRewriteCaches = ConcurrentHashMap<IQueryListener, ConcurrentHashMap<String, QueryRewrite>>()
+    private val queryRewriteGeneration = AtomicInteger()
+
+    /** 丢弃所有缓存的查询改写结果；可缓存的 [IQueryListener] 在自身状态改变后调用 */
+    fun invalidateQueryRewrites() {
+        queryRewriteGeneration.incrementAndGet()
+        queryRewriteCaches.clear()
+    }
+
+    /**
+     * 按注册顺序依次让查询监听器改写 [sql]，每个监听器看到的都是其前面所有监听器改写后的结果。
+     * 可缓存的监听器按各自的输入 SQL 命中缓存，不必重新计算。
+     */
+    private fun rewriteQuery(sql: String): String {
+        val generation = queryRewriteGeneration.get()
+        var current = sql
+        for (listener in queryListeners) {
+            if (!listener.isRewriteCacheable) {
+                listener.onQuery(current)?.let { current = it }
+                continue
+            }
+
+            val cache = queryRewriteCaches.getOrPut(listener) { ConcurrentHashMap() }
+            val cached = cache[current]
+            current = if (cached != null && cached.generation == generation) {
+                cached.result
+            } else {
+                val input = current
+                (listener.onQuery(input) ?: input).also {
+                    if (cache.size >= QUERY_REWRITE_CACHE_LIMIT) cache.clear()
+                    cache[input] = QueryRewrite(generation, it)
+                }
+            }
+        }
+        return current
+    }
+
+    // ==================== 异步投递 ====================
+
+    private const val DEFAULT_ASYNC_CAPACITY = 1024
+    private const val ASYNC_BATCH_SIZE = 128
+
+    /** 每个事件都带有写入时刻 [at]（毫秒时间戳），投递时通过 [eventTimeMillis] 取回 */
+    private sealed interface DbEvent {
+        val at: Long
+
+        class Insert(override val at: Long, val table: String, val values: ContentValues) : DbEvent
+        class Update(
+            override val at: Long,
+            val table: String,
+            val values: ContentValues,
+            val whereClause: String?,
+            val whereArgs: Array<String>?,
+            val conflictAlgorithm: Int
+        ) : DbEvent
+    }
+
+    /** 投递线程上正在回调的事件的写入时刻；不在异步回调内时为 0 */
+    private val deliveringEventTime = ThreadLocal.withInitial { 0L }
+
+    /**
+     * 当前回调对应的写入发生的时刻（毫秒时间戳）。
+     *
+     * 异步监听器可能在写入之后很久才收到事件，依赖时间的判断应使用此值而非当前时间；
+     * 同步回调中即为当前时间。
+     */
+    fun eventTimeMillis(): Long = deliveringEventTime.get().takeIf { it != 0L } ?: System.currentTimeMillis()
+
+    /**
+     * 异步监听器的包装。
+     *
+     * 写入线程上只复制一份 [ContentValues] 快照放入有界无锁队列，随后由 [asyncExecutor] 批量回调 [target]；
+     * 同一个包装同一时刻最多只有一个投递任务在跑，因此 [target] 收到的事件保持写入顺序。
+     * 队列满时丢弃新事件并计数，不会阻塞写入线程。
+     */
+    private class AsyncDelivery(val target: Any, capacity: Int) : IInsertListener, IUpdateListener {
+
+        private val queue = BoundedRingBuffer<DbEvent>(capacity)
+        private val scheduled = AtomicBoolean(false)
+        val dropped = AtomicLong()
+        private var reportedDropped = 0L
+
+        @Volatile
+        var closed = false
+
+        override fun onInsert(table: String, values: ContentValues) {
+            offer(DbEvent.Insert(System.currentTimeMillis(), table, ContentValues(values)))
+        }
+
+        override fun onUpdate(table: String, values: ContentValues, whereClause: String?, whereArgs: Array<String>?, conflictAlgorithm: Int) {
+            offer(DbEvent.Update(System.currentTimeMillis(), table, ContentValues(values), whereClause, whereArgs?.clone(), conflictAlgorithm))
+        }
+
+        private fun offer(event: DbEvent) {
+            if (closed) return
+            if (!queue.offer(event)) {
+                dropped.incrementAndGet()
+                return
+            }
+            schedule()
+        }
+
+        private fun schedule() {
+            if (scheduled.compareAndSet(false, true)) asyncExecutor.execute(::drain)
+        }
+
+        private fun drain() {
+            val droppedNow = dropped.get()
+            if (droppedNow != reportedDropped) {
+                WeLogger.w(TAG, "async listener ${target.javaClass.name} lagging, dropped ${droppedNow - reportedDropped} events")
+                reportedDropped = droppedNow
+            }
+
+            var count = 0
+            while (count < ASYNC_BATCH_SIZE && !closed) {
+                val event = queue.poll() ?: break
+                try {
+                    deliver(event)
+                } catch (e: Throwable) {
+                    WeLogger.e(TAG, "async dispatch to ${target.javaClass.name} failed", e)
+                }
+                count++
+            }
+
+            scheduled.set(false)
+            if (!closed && !queue.isEmpty) schedule()
+        }
+
+        private fun deliver(event: DbEvent) {
+            deliveringEventTime.set(event.at)
+            try {
+                when (event) {
+                    is DbEvent.Insert -> (target as IInsertListener).onInsert(event.table, event.values)
+                    is DbEvent.Update -> (target as IUpdateListener).onUpdate(
+                        event.table, event.values, event.whereClause, event.whereArgs, event.conflictAlgorithm
+                    )
+                }
+            } finally {
+                deliveringEventTime.set(0L)
+            }
+        }
+    }
+
+    private val asyncDeliveries = ConcurrentHashMap<Any, AsyncDelivery>()
+
+    private val asyncExecutor: ExecutorService by lazy {
+        Executors.newCachedThreadPool { runnable ->
+            Thread(runnable, "DbListenerAsyncThread").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * 注册 [listener] 实现的所有监听接口。
+     *
+     * @param tables 只接收这些表的插入 / 更新；为空时接收所有表
+     */
+    fun addListener(listener: Any, vararg tables: String) {
         if (listener is IInsertListener) {
-            insertListeners.add(listener)
+            insertListeners.add(listener, tables.asList(), null)
         }
         if (listener is IUpdateListener) {
-            updateListeners.add(listener)
+            updateListeners.add(listener, tables.asList(), null)
         }
         if (listener is IQueryListener) {
             queryListeners.add(listener)
+            invalidateQueryRewrites()
+        }
+    }
+
+    /**
+     * 只接收 [table] 的插入；[columns] 非空时还要求插入的值至少包含其中一列。
+     */
+    fun addInsertListener(table: String, listener: IInsertListener, columns: Set<String>? = null) {
+        insertListeners.add(listener, listOf(table), columns)
+    }
+
+    /**
+     * 只接收 [table] 的更新；[columns] 非空时还要求更新的值至少包含其中一列。
+     */
+    fun addUpdateListener(table: String, listener: IUpdateListener, columns: Set<String>? = null) {
+        updateListeners.add(listener, listOf(table), columns)
+    }
+
+    /**
+     * 以异步模式注册 [listener] 的插入 / 更新监听：回调不在微信的数据库写入线程上执行，
+     * 收到的 [ContentValues] 是写入时的副本。
+     *
+     * 查询监听需要同步返回改写后的 SQL，因此 [IQueryListener] 仍按同步方式注册。
+     *
+     * @param tables 只接收这些表的插入 / 更新；为空时接收所有表
+     * @param capacity 待投递事件的上限，超出后新事件被丢弃并计入 [asyncDroppedCount]
+     */
+    fun addAsyncListener(listener: Any, vararg tables: String, capacity: Int = DEFAULT_ASYNC_CAPACITY) {
+        if (listener is IInsertListener || listener is IUpdateListener) {
+            var created = false
+            val delivery = asyncDeliveries.computeIfAbsent(listener) {
+                created = true
+                AsyncDelivery(listener, capacity)
+            }
+            if (created) {
+                if (listener is IInsertListener) insertListeners.add(delivery, tables.asList(), null)
+                if (listener is IUpdateListener) updateListeners.add(delivery, tables.asList(), null)
+            }
+        }
+        if (listener is IQueryListener) {
+            queryListeners.addIfAbsent(listener)
+            invalidateQueryRewrites()
         }
     }
 
+    /** 异步注册的 [listener] 因队列已满累计丢弃的事件数 */
+    fun asyncDroppedCount(listener: Any): Long = asyncDeliveries[listener]?.dropped?.get() ?: 0L
+
     fun removeListener(listener: Any) {
+        asyncDeliveries.remove(listener)?.let { delivery ->
+            delivery.closed = true
+            insertListeners.remove(delivery)
+            updateListeners.remove(delivery)
+        }
         if (listener is IInsertListener) {
             insertListeners.remove(listener)
         }
@@ -56,6 +345,7 @@ object WeDatabaseListenerApi : ApiFeature() {
         }
         if (listener is IQueryListener) {
             queryListeners.remove(listener)
+            invalidateQueryRewrites()
         }
     }
 
@@ -66,9 +356,12 @@ object WeDatabaseListenerApi : ApiFeature() {
     }
 
     override fun onDisable() {
+        asyncDeliveries.values.forEach { it.closed = true }
+        asyncDeliveries.clear()
         insertListeners.clear()
         updateListeners.clear()
         queryListeners.clear()
+        invalidateQueryRewrites()
     }
 
     // ==================== 私有辅助方法 ====================
@@ -103,13 +396,14 @@ object WeDatabaseListenerApi : ApiFeature() {
                 parameters(String::class, String::class, ContentValues::class, Int::class)
             }.hookAfter {
                 try {
-                    if (insertListeners.isEmpty()) return@hookAfter
+                    if (insertListeners.isEmpty) return@hookAfter
 
                     val table = args[0] as String
+                    if (!insertListeners.hasListeners(table)) return@hookAfter
                     val values = args[2] as ContentValues
 
                     logWithStack("Insert", table, args, result)
-                    insertListeners.forEach { it.onInsert(table, values) }
+                    insertListeners.dispatch(table, values) { it.onInsert(table, values) }
                 } catch (e: Throwable) {
                     WeLogger.e(TAG, "Insert dispatch failed", e)
                 }
@@ -135,9 +429,10 @@ object WeDatabaseListenerApi : ApiFeature() {
                 }
                 .hookBefore {
                     try {
-                        if (updateListeners.isEmpty()) return@hookBefore
+                        if (updateListeners.isEmpty) return@hookBefore
 
                         val table = args[0] as String
+                        if (!updateListeners.hasListeners(table)) return@hookBefore
                         val values = args[1] as ContentValues
                         val whereClause = args[2] as String?
 
@@ -147,7 +442,9 @@ object WeDatabaseListenerApi : ApiFeature() {
 
                         logWithStack("Update", table, args)
 
-                        updateListeners.forEach { it.onUpdate(table, values, whereClause, whereArgs, conflictAlgorithm) }
+                        updateListeners.dispatch(table, values) {
+                            it.onUpdate(table, values, whereClause, whereArgs, conflictAlgorithm)
+                        }
                     } catch (e: Throwable) {
                         WeLogger.e(TAG, "update dispatch failed", e)
                     }
@@ -180,13 +477,10 @@ object WeDatabaseListenerApi : ApiFeature() {
                     if (queryListeners.isEmpty()) return@hookBefore
 
                     val sql = args[0] as? String ?: return@hookBefore
-                    var currentSql = sql
 
                     logWithStack("rawQuery", "N/A", args)
 
-                    queryListeners.forEach { listener ->
-                        listener.onQuery(currentSql)?.let { currentSql = it }
-                    }
+                    val currentSql = rewriteQuery(sql)
 
                     if (currentSql != sql) {
                         args[0] = currentSql
@@ -211,7 +505,6 @@ object WeDatabaseListenerApi : ApiFeature() {
                 if (queryListeners.isEmpty()) return@hookBefore
 
                 val sql = args[1] as? String ?: return@hookBefore
-                var currentSql = sql
 
                 logWithStack(
                     "rawQueryWithFactory",
@@ -219,9 +512,7 @@ object WeDatabaseListenerApi : ApiFeature() {
                     args
                 )
 
-                queryListeners.forEach { listener ->
-                    listener.onQuery(currentSql)?.let { currentSql = it }
-                }
+                val currentSql = rewriteQuery(sql)
 
                 if (currentSql != sql) {
                     args[1] = currentSql
@@ -9,9 +9,61 @@ object WePacketManager {
 
     private val listeners = CopyOnWriteArrayList<IWePacketInterceptor>()
 
-    fun addInterceptor(interceptor: IWePacketInterceptor) = listeners.addIfAbsent(interceptor)
+    /**
+     * 按 cgiId / URI 索引的拦截器，增删拦截器时整体重建。
+     * 未声明 cgiId 与 URI 的拦截器放在 [all] 中，对所有数据包生效
+     */
+    private class Routes(interceptors: List<IWePacketInterceptor>) {
+        private val ordered = interceptors.toList()
+        val all = ArrayList<IWePacketInterceptor>()
+        val byCgiId = HashMap<Int, MutableList<IWePacketInterceptor>>()
+        val byUri = HashMap<String, MutableList<IWePacketInterceptor>>()
 
-    fun removeInterceptor(interceptor: IWePacketInterceptor) = listeners.remove(interceptor)
+        init {
+            for (interceptor in interceptors) {
+                val cgiIds = interceptor.cgiIds
+                val uris = interceptor.uris
+                if (cgiIds == null && uris == null) {
+                    all += interceptor
+                    continue
+                }
+                cgiIds?.forEach { byCgiId.getOrPut(it) { ArrayList() } += interceptor }
+                uris?.forEach { byUri.getOrPut(it) { ArrayList() } += interceptor }
+            }
+        }
+
+        fun matches(uri: String, cgiId: Int, predicate: (IWePacketInterceptor) -> Boolean): Boolean =
+            all.any(predicate) ||
+                    byCgiId[cgiId]?.any(predicate) == true ||
+                    byUri[uri]?.any(predicate) == true
+
+        /** 按注册顺序返回命中的拦截器，同时命中 cgiId 与 URI 的拦截器只出现一次 */
+        fun select(uri: String, cgiId: Int): List<IWePacketInterceptor> {
+            val byId = byCgiId[cgiId]
+            val byName = byUri[uri]
+            if (byId == null && byName == null) return all
+            return ordered.filter { it in all || byId?.contains(it) == true || byName?.contains(it) == true }
+        }
+    }
+
+    @Volatile
+    private var routes = Routes(emptyList())
+
+    fun addInterceptor(interceptor: IWePacketInterceptor): Boolean = synchronized(this) {
+        listeners.addIfAbsent(interceptor).also { routes = Routes(listeners) }
+    }
+
+    fun removeInterceptor(interceptor: IWePacketInterceptor): Boolean = synchronized(this) {
+        listeners.remove(interceptor).also { routes = Routes(listeners) }
+    }
+
+    /** 是否有拦截器关心该请求；为 false 时 dispatcher 可以跳过序列化 */
+    internal fun wantsRequest(uri: String, cgiId: Int): Boolean =
+        Preferences.verboseLog || routes.matches(uri, cgiId) { it.interceptsRequests }
+
+    /** 是否有拦截器关心该请求的响应；为 false 时 dispatcher 无需代理回调 */
+    internal fun wantsResponse(uri: String, cgiId: Int): Boolean =
+        Preferences.verboseLog || routes.matches(uri, cgiId) { it.interceptsResponses }
 
     internal fun handleRequestTamper(uri: String, cgiId: Int, reqBytes: ByteArray): ByteArray? {
         if (Preferences.verboseLog) {
@@ -22,7 +74,8 @@ object WePacketManager {
             )
         }
 
-        for (listener in listeners) {
+        for (listener in routes.select(uri, cgiId)) {
+            if (!listener.interceptsRequests) continue
             val tampered = listener.onRequest(uri, cgiId, reqBytes)
             if (tampered != null) return tampered
         }
@@ -37,7 +90,8 @@ object WePacketManager {
                 "Response: $uri, CGI=$cgiId, LEN=${respBytes.size}, Data=${data.toJsonObject()}"
             )
         }
-        for (listener in listeners) {
+        for (listener in routes.select(uri, cgiId)) {
+            if (!listener.interceptsResponses) continue
             val tampered = listener.onResponse(uri, cgiId, respBytes)
             if (tampered != null) return tampered
         }
@@ -191,22 +191,67 @@ class WeProtoData private constructor() {
 
     private fun fieldValueToJsonValue(f: Field): Any {
         if (f.wireType != 2) return f.value
-        val lv = f.value as LenValue
-        return when (lv.view) {
-            LenView.AUTO, LenView.SUB -> {
-                ensureSubParsedStrong(lv)?.also { lv.view = LenView.SUB }?.toJsonObject()
-                    ?: ensureUtf8Decoded(lv)?.also { lv.view = LenView.UTF8 }
-                    ?: ("hex->" + bytesToHex(lv.raw)).also { lv.view = LenView.HEX }
-            }
+        return when (val v = lenViewValue(f.value as LenValue)) {
+            is WeProtoData -> v.toJsonObject()
+            else -> v
+        }
+    }
 
-            LenView.UTF8 -> {
-                ensureUtf8Decoded(lv)
-                    ?: ensureSubParsedStrong(lv)?.toJsonObject()
-                    ?: ("hex->" + bytesToHex(lv.raw))
-            }
+    /** 与 [toJsonObject] 的判定一致，但子消息直接返回其 [WeProtoData] */
+    private fun lenViewValue(lv: LenValue): Any = when (lv.view) {
+        LenView.AUTO, LenView.SUB -> {
+            ensureSubParsedStrong(lv)?.also { lv.view = LenView.SUB }
+                ?: ensureUtf8Decoded(lv)?.also { lv.view = LenView.UTF8 }
+                ?: ("hex->" + bytesToHex(lv.raw)).also { lv.view = LenView.HEX }
+        }
 
-            LenView.HEX -> "hex->" + bytesToHex(lv.raw)
+        LenView.UTF8 -> {
+            ensureUtf8Decoded(lv)
+                ?: ensureSubParsedStrong(lv)
+                ?: ("hex->" + bytesToHex(lv.raw))
         }
+
+        LenView.HEX -> "hex->" + bytesToHex(lv.raw)
+    }
+
+    /** 按出现顺序去重后的字段号 */
+    fun fieldNumbers(): List<Int> = fields.map { it.fieldNumber }.distinct()
+
+    fun fieldCount(fieldNumber: Int): Int = fields.count { it.fieldNumber == fieldNumber }
+
+    /**
+     * 字段第 [occurrenceIndex] 次出现的值，取值形式与 [toJsonObject] 相同，只是子消息不转换为 JSON：
+     * Long (varint / fixed64)、Int (fixed32)、String (UTF-8 或 `hex->…`) 或子消息本身。
+     * 对返回的子消息所做的修改会在下次 [toMessageBytes] 时写回。
+     */
+    fun viewValue(fieldNumber: Int, occurrenceIndex: Int): Any? {
+        val idx = findFieldIndex(fieldNumber, occurrenceIndex).takeIf { it >= 0 } ?: return null
+        val f = fields[idx]
+        return if (f.wireType == 2) lenViewValue(f.value as LenValue) else f.value
+    }
+
+    /**
+     * 按 [applyViewJson] (deleteMissing = true) 的规则写入单个字段，value 为 JSON 值、JSONArray 或 null；
+     * 不同的是不存在的字段与多出的重复项会按 [fromJsonObject] 的类型推断追加
+     *
+     * @return 修改数，0 表示未改变
+     */
+    fun applyViewValue(fieldNumber: Int, value: Any?): Int =
+        applyKey(fieldNumber, value, deleteMissing = true, append = true)
+
+    /** 同 [applyViewValue]，只写字段第 [occurrenceIndex] 次出现；恰为下一次出现时追加 */
+    fun applyViewValue(fieldNumber: Int, occurrenceIndex: Int, value: Any?): Int {
+        val idx = findFieldIndex(fieldNumber, occurrenceIndex)
+        if (value == null || value == JSONObject.NULL) {
+            if (idx < 0) return 0
+            fields.removeAt(idx)
+            return 1
+        }
+        if (idx >= 0) return applyOne(fields[idx], value, true)
+        if (occurrenceIndex != fieldCount(fieldNumber)) return 0
+        val before = fields.size
+        addJsonValueAsField(fieldNumber, value)
+        return fields.size - before
     }
 
     fun toMessageBytes(): ByteArray {
@@ -267,7 +312,7 @@ class WeProtoData private constructor() {
     private fun indicesOf(fieldNumber: Int) =
         fields.indices.filter { fields[it].fieldNumber == fieldNumber }
 
-    private fun removeAllOccurrences(fieldNumber: Int): Int {
+    fun removeAllOccurrences(fieldNumber: Int): Int {
         val before = fields.size
         fields.removeAll { it.fieldNumber == fieldNumber }
         return before - fields.size
@@ -445,28 +490,47 @@ class WeProtoData private constructor() {
 
         for (key in view.keys()) {
             val fn = key.toIntOrNull() ?: continue
-            val value = view.opt(key)
-            if (value == null || value == JSONObject.NULL) {
-                if (deleteMissing) changes += removeAllOccurrences(fn)
-                continue
+            changes += applyKey(fn, view.opt(key), deleteMissing, append = false)
+        }
+        return changes
+    }
+
+    private fun applyKey(fn: Int, value: Any?, deleteMissing: Boolean, append: Boolean): Int {
+        if (value == null || value == JSONObject.NULL) {
+            return if (deleteMissing) removeAllOccurrences(fn) else 0
+        }
+        var changes = 0
+        if (value is JSONArray) {
+            val idxs = indicesOf(fn)
+            val min = minOf(value.length(), idxs.size)
+            for (i in 0 until min) {
+                val v = value.opt(i)
+                if (v == JSONObject.NULL) continue
+                changes += applyOne(fields[idxs[i]], v, deleteMissing)
             }
-            if (value is JSONArray) {
-                val idxs = indicesOf(fn)
-                val min = minOf(value.length(), idxs.size)
-                for (i in 0 until min) {
-                    val v = value.opt(i)
-                    if (v == JSONObject.NULL) continue
-                    changes += applyOne(fields[idxs[i]], v, deleteMissing)
+            if (deleteMissing && idxs.size > value.length()) {
+                for (i in idxs.size - 1 downTo value.length()) {
+                    fields.removeAt(idxs[i])
+                    changes++
                 }
-                if (deleteMissing && idxs.size > value.length()) {
-                    for (i in idxs.size - 1 downTo value.length()) {
-                        fields.removeAt(idxs[i])
-                        changes++
-                    }
+            }
+            if (append) {
+                for (i in idxs.size until value.length()) {
+                    val v = value.opt(i)
+                    if (v == null || v == JSONObject.NULL) continue
+                    val before = fields.size
+                    addJsonValueAsField(fn, v)
+                    changes += fields.size - before
                 }
-            } else {
-                val idx = findFieldIndex(fn, 0)
-                if (idx >= 0) changes += applyOne(fields[idx], value, deleteMissing)
+            }
+        } else {
+            val idx = findFieldIndex(fn, 0)
+            if (idx >= 0) {
+                changes += applyOne(fields[idx], value, deleteMissing)
+            } else if (append) {
+                val before = fields.size
+                addJsonValueAsField(fn, value)
+                changes += fields.size - before
             }
         }
         return changes
@@ -0,0 +1,222 @@
+package dev.ujhhgtg.wekit.features.api.net
+
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.util.TreeMap
+
+/**
+ * 基于偏移量的惰性 protobuf 视图。
+ *
+ * 与 [WeProtoData] 不同，它不预先解析整个消息：字段只在访问时从原始 [ByteArray] 中定位，
+ * 子消息与字符串也只在调用 [Field.message] / [Field.utf8] 时解码，例如 `view.path(2, 5, 1)?.utf8()`。
+ *
+ * 修改通过 [Field] 上的 setter 记录，[toPacketBytes] 时只重写被修改的字段及其外层长度前缀，
+ * 其余字节整段拷贝。读取始终基于原始字节，不会反映尚未输出的修改。
+ */
+class WeProtoView private constructor(
+    private val root: Root,
+    private val container: Field?,
+    private val start: Int,
+    private val end: Int,
+) {
+
+    private class Root(val bytes: ByteArray, val bodyStart: Int) {
+        /** 被替换的字段：tag 偏移 -> 新的完整编码 (空数组表示删除) */
+        val edits = HashMap<Int, ByteArray>()
+
+        /** 容器 tag 偏移 (根消息为 [ROOT_KEY]) -> 其中被修改或包含修改的直接子字段 */
+        val touched = HashMap<Int, TreeMap<Int, Field>>()
+    }
+
+    inner class Field internal constructor(
+        val number: Int,
+        val wireType: Int,
+        private val parent: Field?,
+        internal val tagOffset: Int,
+        private val valueOffset: Int,
+        internal val valueEnd: Int,
+    ) {
+        private val buf get() = root.bytes
+
+        val size: Int get() = valueEnd - valueOffset
+
+        fun varint(): Long = readVarint(buf, valueOffset).value
+
+        fun fixed32(): Int {
+            var v = 0
+            for (i in 3 downTo 0) v = (v shl 8) or (buf[valueOffset + i].toInt() and 0xFF)
+            return v
+        }
+
+        fun fixed64(): Long {
+            var v = 0L
+            for (i in 7 downTo 0) v = (v shl 8) or (buf[valueOffset + i].toLong() and 0xFF)
+            return v
+        }
+
+        fun bytes(): ByteArray = buf.copyOfRange(valueOffset, valueEnd)
+
+        fun utf8(): String = String(buf, valueOffset, size, StandardCharsets.UTF_8)
+
+        /** 将长度分隔字段的内容视为子消息；不做任何预解析，格式错误在遍历时才会抛出 */
+        fun message(): WeProtoView {
+            check(wireType == 2) { "field $number is not length-delimited" }
+            return WeProtoView(root, this, valueOffset, valueEnd)
+        }
+
+        fun setVarint(value: Long) = replace(encode(0) { writeVarint(it, value) })
+
+        fun setFixed32(value: Int) = replace(encode(5) { out -> repeat(4) { out.write(value ushr (it * 8)) } })
+
+        fun setFixed64(value: Long) = replace(encode(1) { out -> repeat(8) { out.write((value ushr (it * 8)).toInt()) } })
+
+        fun setBytes(value: ByteArray) = replace(encode(2) {
+            writeVarint(it, value.size.toLong())
+            it.write(value)
+        })
+
+        fun setUtf8(value: String) = setBytes(value.toByteArray(StandardCharsets.UTF_8))
+
+        fun remove() = replace(ByteArray(0))
+
+        private inline fun encode(newWireType: Int, writeValue: (ByteArrayOutputStream) -> Unit): ByteArray {
+            val out = ByteArrayOutputStream()
+            writeVarint(out, ((number shl 3) or newWireType).toLong())
+            writeValue(out)
+            return out.toByteArray()
+        }
+
+        private fun replace(encoding: ByteArray) {
+            root.edits[tagOffset] = encoding
+            var child = this
+            var current = parent
+            while (true) {
+                root.touched.getOrPut(current?.tagOffset ?: ROOT_KEY) { TreeMap() }[child.tagOffset] = child
+                child = current ?: break
+                current = current.parent
+            }
+        }
+
+        internal fun emit(out: ByteArrayOutputStream) {
+            root.edits[tagOffset]?.let {
+                out.write(it)
+                return
+            }
+            // 子字段被修改：重写本字段的长度前缀
+            val inner = ByteArrayOutputStream(size)
+            emitRange(tagOffset, valueOffset, valueEnd, inner)
+            writeVarint(out, ((number shl 3) or 2).toLong())
+            writeVarint(out, inner.size().toLong())
+            inner.writeTo(out)
+        }
+    }
+
+    /** 按出现顺序惰性遍历本消息的字段 */
+    fun fields(): Sequence<Field> = sequence {
+        var pos = start
+        while (pos < end) {
+            val field = parseField(pos)
+            yield(field)
+            pos = field.valueEnd
+        }
+    }
+
+    fun fields(number: Int): List<Field> = fields().filter { it.number == number }.toList()
+
+    fun field(number: Int, occurrence: Int = 0): Field? =
+        fields().filter { it.number == number }.elementAtOrNull(occurrence)
+
+    /** 沿字段号逐层进入子消息，每层取第一次出现的字段 */
+    fun path(vararg numbers: Int): Field? {
+        var view = this
+        var field: Field? = null
+        for ((i, number) in numbers.withIndex()) {
+            field = view.field(number) ?: return null
+            if (i < numbers.lastIndex) {
+                if (field.wireType != 2) return null
+                view = field.message()
+            }
+        }
+        return field
+    }
+
+    val isModified: Boolean get() = root.edits.isNotEmpty()
+
+    /** 输出根消息 (含原始数据包前缀)；没有修改时直接返回原数组 */
+    fun toPacketBytes(): ByteArray {
+        if (!isModified) return root.bytes
+        val out = ByteArrayOutputStream(root.bytes.size)
+        out.write(root.bytes, 0, root.bodyStart)
+        emitRange(ROOT_KEY, root.bodyStart, root.bytes.size, out)
+        return out.toByteArray()
+    }
+
+    private fun emitRange(key: Int, from: Int, to: Int, out: ByteArrayOutputStream) {
+        var pos = from
+        root.touched[key]?.values?.forEach { field ->
+            out.write(root.bytes, pos, field.tagOffset - pos)
+            field.emit(out)
+            pos = field.valueEnd
+        }
+        out.write(root.bytes, pos, to - pos)
+    }
+
+    private fun parseField(pos: Int): Field {
+        val bytes = root.bytes
+        val tag = readVarint(bytes, pos)
+        val number = (tag.value ushr 3).toInt()
+        val wireType = (tag.value and 7).toInt()
+        var valueOffset = tag.next
+        val valueEnd = when (wireType) {
+            0 -> readVarint(bytes, valueOffset).next
+            1 -> valueOffset + 8
+            2 -> {
+                val length = readVarint(bytes, valueOffset)
+                valueOffset = length.next
+                valueOffset + length.value.toInt()
+            }
+
+            5 -> valueOffset + 4
+            else -> throw IOException("Unexpected wireType: $wireType")
+        }
+        if (number == 0 || valueEnd > end || valueEnd < valueOffset) throw IOException("Truncated field at $pos")
+        return Field(number, wireType, container, pos, valueOffset, valueEnd)
+    }
+
+    private class Varint(val value: Long, val next: Int)
+
+    companion object {
+        private const val ROOT_KEY = -1
+
+        fun fromBytes(b: ByteArray): WeProtoView {
+            val bodyStart = if (WeProtoData.hasPacketPrefix(b)) 4 else 0
+            return WeProtoView(Root(b, bodyStart), null, bodyStart, b.size)
+        }
+
+        fun fromMessageBytes(b: ByteArray): WeProtoView = WeProtoView(Root(b, 0), null, 0, b.size)
+
+        private fun readVarint(bytes: ByteArray, pos: Int): Varint {
+            var result = 0L
+            var shift = 0
+            var i = pos
+            while (shift < 64) {
+                if (i >= bytes.size) throw IOException("Truncated varint at $pos")
+                val b = bytes[i++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return Varint(result, i)
+                shift += 7
+            }
+            throw IOException("Malformed varint at $pos")
+        }
+
+        private fun writeVarint(out: ByteArrayOutputStream, value: Long) {
+            var v = value
+            while (v and 0x7FL.inv() != 0L) {
+                out.write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            out.write(v.toInt())
+        }
+    }
+}
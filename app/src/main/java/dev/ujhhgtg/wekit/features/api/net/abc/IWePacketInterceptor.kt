@@ -3,4 +3,19 @@ package dev.ujhhgtg.wekit.features.api.net.abc
 interface IWePacketInterceptor {
     fun onRequest(uri: String, cgiId: Int, reqBytes: ByteArray): ByteArray? = null
     fun onResponse(uri: String, cgiId: Int, respBytes: ByteArray): ByteArray? = null
+
+    /**
+     * 只接收这些 cgiId 的数据包；与 [uris] 任一命中即回调。
+     * 两者都为 null 时接收所有数据包，此时每个请求都要被序列化
+     */
+    val cgiIds: Set<Int>? get() = null
+
+    /** 只接收这些 URI 的数据包，见 [cgiIds] */
+    val uris: Set<String>? get() = null
+
+    /** 为 false 时不为请求回调 [onRequest]，命中的请求也无需序列化 */
+    val interceptsRequests: Boolean get() = true
+
+    /** 为 false 时不为响应回调 [onResponse]，也无需代理请求的回调 */
+    val interceptsResponses: Boolean get() = true
 }
@@ -0,0 +1,70 @@
+package dev.ujhhgtg.wekit.features.api.net.listener
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 短时间内的重复请求判定。
+ *
+ * 只保存最近 [capacity] 个请求的 128 位摘要与时间戳（定长环形数组，按插入顺序覆盖最旧的一项），
+ * 摘要直接在请求字节上计算，不构造字符串。同一摘要在 [windowMillis] 内再次出现即视为重复。
+ */
+class RequestDedupWindow(val capacity: Int = 16, val windowMillis: Long = 500L) {
+
+    init {
+        require(capacity > 0) { "capacity must be positive: $capacity" }
+        require(windowMillis >= 0) { "windowMillis must not be negative: $windowMillis" }
+    }
+
+    private val digestsHi = LongArray(capacity)
+    private val digestsLo = LongArray(capacity)
+    private val timestamps = LongArray(capacity)
+    private var next = 0
+
+    private val checks = AtomicLong()
+    private val hits = AtomicLong()
+
+    /** 已判定的请求数 */
+    val checkCount: Long get() = checks.get()
+
+    /** 被判定为重复的请求数 */
+    val hitCount: Long get() = hits.get()
+
+    /**
+     * 记录一次请求
+     *
+     * @return true 表示与窗口内的某个请求重复；重复请求不会刷新其时间戳
+     */
+    fun checkAndRecord(cgiId: Int, uri: String, reqClass: Class<*>, bytes: ByteArray, now: Long = System.currentTimeMillis()): Boolean {
+        checks.incrementAndGet()
+
+        // 两路独立的 64 位哈希：FNV-1a 与乘法-异或混合
+        var hi = FNV_OFFSET xor cgiId.toLong() xor (uri.hashCode().toLong() shl 32)
+        var lo = MIX_SEED xor reqClass.name.hashCode().toLong() xor (bytes.size.toLong() shl 32)
+        for (b in bytes) {
+            hi = (hi xor (b.toLong() and 0xFF)) * FNV_PRIME
+            lo = (lo + (b.toLong() and 0xFF)) * MIX_PRIME
+            lo = lo xor (lo ushr 29)
+        }
+
+        synchronized(this) {
+            for (i in 0 until capacity) {
+                if (digestsHi[i] == hi && digestsLo[i] == lo && now - timestamps[i] < windowMillis) {
+                    hits.incrementAndGet()
+                    return true
+                }
+            }
+            digestsHi[next] = hi
+            digestsLo[next] = lo
+            timestamps[next] = now
+            next = (next + 1) % capacity
+        }
+        return false
+    }
+
+    private companion object {
+        const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        const val FNV_PRIME = 0x100000001b3L
+        const val MIX_SEED = -0x61c8864680b583ebL
+        const val MIX_PRIME = -0x4b47d5b1b3d9e7c5L
+    }
+}
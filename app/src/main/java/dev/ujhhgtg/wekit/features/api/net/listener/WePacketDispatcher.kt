@@ -13,7 +13,10 @@ import dev.ujhhgtg.wekit.features.core.ApiFeature
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.utils.WeLogger
 import dev.ujhhgtg.wekit.utils.reflection.ClassLoaders
+import java.lang.reflect.Field
+import java.lang.reflect.Method
 import java.lang.reflect.Proxy
+import java.util.Optional
 import java.util.concurrent.ConcurrentHashMap
 
 @Feature(name = "数据包拦截与篡改服务", categories = ["API"], description = "响应数据包拦截与篡改")
@@ -34,7 +37,83 @@ object WePacketDispatcher : ApiFeature(), IResolveDex {
         }
     }
 
-    private val recentRequests = ConcurrentHashMap<String, Long>()
+    /** 500 毫秒内的重复请求只交给拦截器一次；命中次数见 [RequestDedupWindow.hitCount] */
+    val requestDedup = RequestDedupWindow(capacity = 16, windowMillis = 500L)
+
+    /** NetScene 请求对象 (v0) 上的反射访问器，按类缓存 */
+    private class SceneAccessors(clazz: Class<*>) {
+        val getUri = clazz.findNoArgMethod("getUri")
+        val getType = clazz.findNoArgMethod("getType")
+        val getReqObj = clazz.findNoArgMethod("getReqObj")
+    }
+
+    /** 请求包装对象上的 protobuf 字段与 protobuf 的 toByteArray，按类缓存 */
+    private class ReqAccessors(clazz: Class<*>) {
+        val pbField = clazz.findField("a")
+    }
+
+    private val sceneAccessors = ConcurrentHashMap<Class<*>, SceneAccessors>()
+    private val reqAccessors = ConcurrentHashMap<Class<*>, ReqAccessors>()
+    private val toByteArrayMethods = ConcurrentHashMap<Class<*>, Optional<Method>>()
+
+    private fun Class<*>.findNoArgMethod(name: String): Method? {
+        var current: Class<*>? = this
+        while (current != null) {
+            current.declaredMethods.firstOrNull { it.name == name && it.parameterCount == 0 }?.let {
+                it.isAccessible = true
+                return it
+            }
+            current = current.superclass
+        }
+        return null
+    }
+
+    private fun Class<*>.findField(name: String): Field? {
+        var current: Class<*>? = this
+        while (current != null) {
+            current.declaredFields.firstOrNull { it.name == name }?.let {
+                it.isAccessible = true
+                return it
+            }
+            current = current.superclass
+        }
+        return null
+    }
+
+    private fun serialize(pbObj: Any): ByteArray? {
+        val method = toByteArrayMethods.computeIfAbsent(pbObj.javaClass) {
+            Optional.ofNullable(it.findNoArgMethod("toByteArray"))
+        }.orElse(null) ?: return null
+        return method.invoke(pbObj) as? ByteArray
+    }
+
+    /**
+     * 序列化请求并交给拦截器篡改
+     *
+     * @return false 表示应跳过后续处理 (重复请求或请求体不是 protobuf)
+     */
+    private fun tamperRequest(v0Var: Any, accessors: SceneAccessors, uri: String, cgiId: Int): Boolean {
+        try {
+            val reqWrapper = accessors.getReqObj?.invoke(v0Var) ?: return true
+            val pbField = reqAccessors.computeIfAbsent(reqWrapper.javaClass, ::ReqAccessors).pbField ?: return true
+            val reqPbObj = pbField.get(reqWrapper) ?: return true
+            // a 可能不是 protobuf (如 Integer)，此时没有 toByteArray
+            val reqBytes = serialize(reqPbObj) ?: return false
+
+            if (requestDedup.checkAndRecord(cgiId, uri, reqPbObj.javaClass, reqBytes)) {
+                WeLogger.d(TAG, "request skipped (duplicate #${requestDedup.hitCount}): $uri")
+                return false
+            }
+
+            WePacketManager.handleRequestTamper(uri, cgiId, reqBytes)?.let { tampered ->
+                reqPbObj.reflekt().invokeMethod("parseFrom", tampered)
+                WeLogger.i(TAG, "tampered request: $uri")
+            }
+        } catch (e: Exception) {
+            WeLogger.e(TAG, "failed to tamper request", e)
+        }
+        return true
+    }
 
     override fun onEnable() {
         Handler(Looper.getMainLooper()).postDelayed(3000) {
@@ -46,50 +125,19 @@ object WePacketDispatcher : ApiFeature(), IResolveDex {
                     val v0Var = args[1] ?: return@hookBefore
                     val originalCallback = args[2] ?: return@hookBefore
 
+                    val accessors = sceneAccessors.computeIfAbsent(v0Var.javaClass, ::SceneAccessors)
                     // 有时 getUri 返回 null
-                    val v0Ref = v0Var.reflekt()
-                    val uri = v0Ref.invokeMethod("getUri", superclass = true) as? String? ?: "null"
-                    val cgiId = v0Ref.invokeMethod("getType", superclass = true) as Int
-                    try {
-                        val reqWrapper = v0Ref.invokeMethod("getReqObj", superclass = true)!!
-                        val reqPbObj = reqWrapper.reflekt().getField("a", superclass = true)!!
-                        val reqBytes = reqPbObj.reflekt().firstMethodOrNull { name = "toByteArray"; superclass() }
-                            ?.invoke() as? ByteArray ?: return@hookBefore
-
-                        // 构造唯一标识符
-                        val key =
-                            "$cgiId|$uri|${reqWrapper.javaClass.name}|${reqPbObj.javaClass.name}|${reqBytes.contentToString()}"
-
-                        // 检查是否在缓存中且时间间隔小于500毫秒
-                        val currentTime = System.currentTimeMillis()
-                        val lastTime = recentRequests[key]
-                        if (lastTime != null && currentTime - lastTime < 500) {
-                            // 直接返回，不执行任何请求处理
-                            WeLogger.d(TAG, "request skipped (duplicate): $uri")
-                            return@hookBefore
-                        }
+                    val uri = accessors.getUri?.invoke(v0Var) as? String? ?: "null"
+                    val cgiId = accessors.getType?.invoke(v0Var) as? Int ?: return@hookBefore
 
-                        // 更新缓存
-                        recentRequests[key] = currentTime
-                        // 限制缓存大小为10条
-                        if (recentRequests.size > 10) {
-                            // 移除最旧的条目
-                            val oldestEntry = recentRequests.entries.firstOrNull()
-                            oldestEntry?.let {
-                                recentRequests.remove(it.key)
-                            }
-                        }
+                    // 无人关心的数据包不序列化、不去重、也不代理回调
+                    val wantsRequest = WePacketManager.wantsRequest(uri, cgiId)
+                    val wantsResponse = WePacketManager.wantsResponse(uri, cgiId)
+                    if (!wantsRequest && !wantsResponse) return@hookBefore
 
-                        WePacketManager.handleRequestTamper(uri, cgiId, reqBytes)?.let { tampered ->
-                            reqPbObj.reflekt().invokeMethod("parseFrom", tampered)
-                            WeLogger.i(TAG, "tampered request: $uri")
-                        }
-                    } catch (_: NoSuchElementException) {
-                        // ignored; toByteArray might not exist since a might be Integer
-                    } catch (e: Exception) {
-                        WeLogger.e(TAG, "failed to tamper request", e)
-                    }
+                    if (wantsRequest && !tamperRequest(v0Var, accessors, uri, cgiId)) return@hookBefore
 
+                    if (!wantsResponse) return@hookBefore
                     if (Proxy.isProxyClass(originalCallback.javaClass)) return@hookBefore
 
                     args[2] = Proxy.newProxyInstance(
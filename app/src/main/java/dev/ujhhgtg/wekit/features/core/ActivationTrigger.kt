@@ -0,0 +1,18 @@
+package dev.ujhhgtg.wekit.features.core
+
+/**
+ * Feature 启用时机。默认 [Eager]，即在 [FeaturesLoader.loadFeatures] 中立即安装 hook；
+ * 只作用于特定界面或数据的 Feature 可以声明其它触发条件，把 hook 的安装推迟到真正用到时，
+ * 以缩短微信启动时被阻塞的时间。
+ */
+sealed class ActivationTrigger {
+
+    /** 启动时立即启用 */
+    data object Eager : ActivationTrigger()
+
+    /**
+     * 任一 [activityClasses]（或其子类）第一次 `onCreate` 之前启用。
+     * hook 在 `onCreate` 执行前安装，因此可以直接 hook 该 Activity 的 `onCreate`。
+     */
+    class OnActivity(vararg val activityClasses: String) : ActivationTrigger()
+}
@@ -62,6 +62,21 @@ abstract class BaseFeature {
         }
     }
 
+    /** 启用时机，见 [ActivationTrigger] */
+    open val activationTrigger: ActivationTrigger
+        get() = ActivationTrigger.Eager
+
+    /** 启动时按 [activationTrigger] 立即启用，或登记到 [DeferredActivation] 等待触发 */
+    protected fun enableOnStartup() {
+        when (val trigger = activationTrigger) {
+            ActivationTrigger.Eager -> enable()
+            is ActivationTrigger.OnActivity -> DeferredActivation.defer(this, trigger)
+        }
+    }
+
+    /** 延迟触发时调用 */
+    internal open fun activateDeferred() = enable()
+
     open fun onEnable() {}
 
     open fun onDisable() {}
@@ -82,6 +97,7 @@ abstract class BaseFeature {
 
     internal val unhooks = mutableListOf<XC_MethodHook.Unhook>()
     internal fun registerUnhook(u: XC_MethodHook.Unhook) {
+        StartupTracer.onHook()
         unhooks += u
     }
 
@@ -120,19 +136,24 @@ abstract class BaseFeature {
 
     internal fun Class<*>.hookBeforeOnCreate(
         action: HookAction
-    ) = this.reflekt().firstMethod { name = "onCreate" }.hookBefore(50, action)
+    ) = onCreateMethod().hookBefore(50, action)
 
     internal fun Class<*>.hookAfterOnCreate(
         action: HookAction
-    ) = this.reflekt().firstMethod { name = "onCreate" }.hookAfter(50, action)
+    ) = onCreateMethod().hookAfter(50, action)
 
     internal fun KClass<*>.hookBeforeOnCreate(
         action: HookAction
-    ) = this.reflekt().firstMethod { name = "onCreate" }.hookBefore(50, action)
+    ) = onCreateMethod().hookBefore(50, action)
 
     internal fun KClass<*>.hookAfterOnCreate(
         action: HookAction
-    ) = this.reflekt().firstMethod { name = "onCreate" }.hookAfter(50, action)
+    ) = onCreateMethod().hookAfter(50, action)
+
+    private fun Class<*>.onCreateMethod() =
+        reflekt().firstMethod { name = "onCreate" }.also { StartupTracer.onReflection() }
+
+    private fun KClass<*>.onCreateMethod() = java.onCreateMethod()
 
     // --- end hookBefore ---
 
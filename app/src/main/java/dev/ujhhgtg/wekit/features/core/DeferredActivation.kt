@@ -0,0 +1,77 @@
+package dev.ujhhgtg.wekit.features.core
+
+import android.app.Activity
+import android.app.Instrumentation
+import de.robv.android.xposed.XC_MethodHook
+import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.hookBeforeDirectly
+import kotlin.time.measureTime
+
+/**
+ * 延迟启用的 Feature 登记处。
+ *
+ * [FeaturesLoader] 启动时，声明了非 [ActivationTrigger.Eager] 触发条件的 Feature 只登记在这里，
+ * 全部登记完毕后由 [install] 安装触发器：
+ * - [ActivationTrigger.OnActivity]：hook `Instrumentation.callActivityOnCreate`，按类名查表；
+ *   所有此类 Feature 都启用后自动移除该 hook。
+ */
+internal object DeferredActivation {
+
+    private const val TAG = "DeferredActivation"
+
+    private val byActivity = HashMap<String, MutableList<BaseFeature>>()
+    private val activityUnhooks = mutableListOf<XC_MethodHook.Unhook>()
+
+    val pendingCount: Int
+        @Synchronized get() = byActivity.values.sumOf { it.size }
+
+    @Synchronized
+    fun defer(feature: BaseFeature, trigger: ActivationTrigger.OnActivity) {
+        trigger.activityClasses.forEach {
+            byActivity.getOrPut(it) { mutableListOf() } += feature
+        }
+    }
+
+    @Synchronized
+    fun install() {
+        if (byActivity.isNotEmpty() && activityUnhooks.isEmpty()) {
+            Instrumentation::class.java.declaredMethods
+                .filter { it.name == "callActivityOnCreate" }
+                .forEach { m ->
+                    activityUnhooks += m.hookBeforeDirectly {
+                        val activity = args[0] as? Activity ?: return@hookBeforeDirectly
+                        onActivityCreate(activity.javaClass)
+                    }
+                }
+        }
+    }
+
+    private fun onActivityCreate(clazz: Class<*>) {
+        val features = synchronized(this) {
+            if (byActivity.isEmpty()) return
+            val matched = generateSequence(clazz) { it.superclass }
+                .mapNotNull { byActivity[it.name] }
+                .flatten()
+                .toSet()
+            if (matched.isEmpty()) return
+
+            // 同一个 Feature 可能登记在多个类名下，启用一次后全部移除
+            byActivity.values.forEach { it.removeAll(matched) }
+            byActivity.values.removeAll { it.isEmpty() }
+            if (byActivity.isEmpty()) {
+                activityUnhooks.forEach { it.unhook() }
+                activityUnhooks.clear()
+            }
+            matched.toList()
+        }
+        activate(clazz.name, features)
+    }
+
+    private fun activate(trigger: String, features: List<BaseFeature>) {
+        if (features.isEmpty()) return
+        val elapsed = measureTime {
+            features.forEach { it.activateDeferred() }
+        }
+        WeLogger.i(TAG, "enabled ${features.size} deferred items on $trigger, took $elapsed")
+    }
+}
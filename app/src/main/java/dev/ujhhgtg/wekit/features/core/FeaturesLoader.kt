@@ -10,6 +10,7 @@ import dev.ujhhgtg.wekit.ui.utils.showComposeDialog
 import dev.ujhhgtg.wekit.utils.TargetProcesses
 import dev.ujhhgtg.wekit.utils.WeLogger
 import dev.ujhhgtg.wekit.utils.android.showToast
+import dev.ujhhgtg.wekit.utils.unreachable
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.MainScope
@@ -28,19 +29,13 @@ object FeaturesLoader {
         val allFeatures = FeaturesProvider.ALL_HOOK_ITEMS
         val allDexItems = allFeatures.filterIsInstance<IResolveDex>()
 
-        val outdatedItems = DexCacheManager.getOutdatedItems(allDexItems)
-        val validItems = allDexItems - outdatedItems.toSet()
+        // 单次遍历完成校验与加载。部分 key 缺失的 item 仍会部分加载 —
+        // 其有效委托立即可用；只有 item 本身排队等待重新适配。
+        val allBrokenItems = DexCacheManager.loadFromCache(allDexItems)
 
-        if (outdatedItems.isNotEmpty())
-            WeLogger.i(TAG, "found ${validItems.size} valid items, ${outdatedItems.size} outdated items")
-
-        // Load what we can from cache. Items with *some* missing keys are still partially loaded —
-        // their valid delegates work immediately; only the item itself is queued for re-resolution.
-        val cacheFailedItems = loadDescriptorsFromCache(validItems)
-        val allBrokenItems = (outdatedItems + cacheFailedItems).distinct()
-
-        if (allBrokenItems.isNotEmpty())
-            handleBrokenItems(allBrokenItems)
+        if (allBrokenItems.isNotEmpty()) {
+            WeLogger.i(TAG, "found ${allDexItems.size - allBrokenItems.size} valid items, ${allBrokenItems.size} outdated items")
+        }
 
         val elapsed = measureTime {
             allFeatures.forEach { feature ->
@@ -51,10 +46,15 @@ object FeaturesLoader {
                     return@forEach
                 }
 
-                feature.startup()
+                StartupTracer.traceFeature(feature) { feature.startup() }
             }
         }
-        WeLogger.i(TAG, "enabling all hook items took $elapsed")
+        DeferredActivation.install()
+        WeLogger.i(TAG, "enabling all hook items took $elapsed, ${DeferredActivation.pendingCount} items deferred")
+        StartupTracer.finish(elapsed, DeferredActivation.pendingCount)
+
+        // 在启动循环结束后再修复，迁移成功的 item 才不会与循环并发启用
+        if (allBrokenItems.isNotEmpty()) handleBrokenItems(allBrokenItems)
 
         if (TargetProcesses.isInMain && Preferences.showStartupToast) {
             showToast("WeKit 加载成功!")
@@ -63,46 +63,6 @@ object FeaturesLoader {
 
     // ---------------------------------------------------------------------------
 
-    /**
-     * 逐委托从缓存恢复状态。
-     *
-     * - 某个委托的 key 缺失 → 其他委托不受影响，仍正常加载。
-     * - 有任意 key 缺失的 item 加入返回列表，等待 DexKit 重新扫描。
-     * - 缓存文件整体读取失败 → 删除损坏文件，整个 item 加入返回列表。
-     */
-    private fun loadDescriptorsFromCache(items: List<IResolveDex>): List<IResolveDex> {
-        val failedItems = mutableListOf<IResolveDex>()
-
-        for (item in items) {
-            val path = (item as BaseFeature).displayName
-            try {
-                val cache = DexCacheManager.loadItemCache(item)
-                if (cache == null) {
-                    WeLogger.w(TAG, "cache missing for $path")
-                    failedItems += item
-                    continue
-                }
-
-                // loadFromCache 逐委托加载；返回未命中的 key 集合
-                val missingKeys = item.loadFromCache(cache)
-                if (missingKeys.isNotEmpty()) {
-                    val total = item.dexDelegates.size
-                    val loaded = total - missingKeys.size
-                    WeLogger.w(TAG, "$path: loaded $loaded/$total delegates from cache, missing: $missingKeys")
-                    failedItems += item
-                    // 已命中的委托此时已经可用；hook 仍然跳过（见 loadFeatures），
-                    // 等 DexKit 把缺失的部分补齐、cache 更新后下次启动即完整。
-                }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "cache load failed for $path", e)
-                runCatching { DexCacheManager.deleteCache(path) }
-                failedItems += item
-            }
-        }
-
-        return failedItems
-    }
-
     private fun handleBrokenItems(brokenItems: List<IResolveDex>) {
         if (Preferences.noDexResolve) return
         if (!TargetProcesses.isInMain) return
@@ -110,6 +70,17 @@ object FeaturesLoader {
         WeLogger.i(TAG, "launching background coroutine to repair ${brokenItems.size} items")
 
         CoroutineScope(Dispatchers.IO + SupervisorJob()).launch {
+            // 宿主更新后先用上一版本的缓存校验迁移（需要 DexKit，故不在启动路径上进行），
+            // 通过校验的 item 描述符已加载，随即在本进程中启用
+            val remainingItems = runCatching { DexCacheManager.migrateFromPrevious(brokenItems) }
+                .onFailure { WeLogger.e(TAG, "failed to migrate cache from previous host version", it) }
+                .getOrDefault(brokenItems)
+            val migratedItems = brokenItems - remainingItems.toSet()
+            if (migratedItems.isNotEmpty()) {
+                withContext(Dispatchers.Main) { startMigrated(migratedItems) }
+            }
+            if (remainingItems.isEmpty()) return@launch
+
             var activity = LauncherUI.getInstance()
             var waited = 0L
             while (activity == null && waited < 30_000L) {
@@ -128,7 +99,7 @@ object FeaturesLoader {
                 showComposeDialog(boundActivity, directlyDismissable = false) {
                     DexResolver(
                         boundActivity,
-                        brokenItems,
+                        remainingItems,
                         MainScope(),
                         onDismiss
                     )
@@ -136,4 +107,18 @@ object FeaturesLoader {
             }
         }
     }
+
+    private fun startMigrated(items: List<IResolveDex>) {
+        val elapsed = measureTime {
+            for (feature in items) {
+                if (feature !is BaseFeature) unreachable()
+                // 设置注入在启动循环中已经无条件启用
+                if (feature is WeSettingsInjector) continue
+                runCatching { feature.startup() }
+                    .onFailure { WeLogger.e(TAG, "failed to start migrated item ${feature.displayName}", it) }
+            }
+            DeferredActivation.install()
+        }
+        WeLogger.i(TAG, "enabled ${items.size} items migrated from previous host version, took $elapsed")
+    }
 }
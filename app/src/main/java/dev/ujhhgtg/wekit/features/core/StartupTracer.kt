@@ -0,0 +1,152 @@
+package dev.ujhhgtg.wekit.features.core
+
+import dev.ujhhgtg.wekit.utils.HostInfo
+import dev.ujhhgtg.wekit.utils.TargetProcesses
+import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.fs.KnownPaths
+import dev.ujhhgtg.wekit.utils.serialization.DefaultJson
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.serialization.Serializable
+import java.nio.file.Path
+import kotlin.io.path.div
+import kotlin.io.path.exists
+import kotlin.io.path.readText
+import kotlin.io.path.writeText
+import kotlin.time.Duration
+import kotlin.time.DurationUnit
+import kotlin.time.TimeSource
+
+/**
+ * 主进程启动耗时记录。
+ *
+ * [FeaturesLoader.loadFeatures] 期间逐 Feature 记录 `startup()`（含 `onEnable()`）的耗时、
+ * 安装的 hook 数与反射查找次数，并汇总 [dev.ujhhgtg.wekit.dexkit.cache.DexCacheManager] 的命中情况。
+ * 最近 [MAX_RECORDS] 次启动保存在模块数据目录，设置页中可查看并与上一次对比，
+ * 用于发现宿主或模块更新后悄悄变慢的 Feature。
+ *
+ * 计数只归属于当前线程正在启动的 Feature；延迟启用（[DeferredActivation]）与运行时的 hook 不计入。
+ */
+object StartupTracer {
+
+    private const val TAG = "StartupTracer"
+    private const val FILE_NAME = "startup_traces.json"
+    private const val MAX_RECORDS = 10
+
+    @Serializable
+    data class FeatureTrace(
+        val name: String,
+        val wallMs: Double,
+        val hooks: Int,
+        val reflections: Int
+    )
+
+    @Serializable
+    data class StartupTrace(
+        val timestamp: Long,
+        val hostVersion: String,
+        val totalMs: Double,
+        val cacheLoadMs: Double,
+        val cacheHits: Int,
+        val cacheMisses: Int,
+        val deferred: Int,
+        val features: List<FeatureTrace>
+    )
+
+    /**
+     * 同名 Feature 两次启动间的差异；[previous] 为 null 表示上一次未启动该 Feature。
+     */
+    data class FeatureDiff(val current: FeatureTrace, val previous: FeatureTrace?) {
+        val deltaMs: Double get() = current.wallMs - (previous?.wallMs ?: 0.0)
+    }
+
+    private class Counter {
+        var hooks = 0
+        var reflections = 0
+    }
+
+    private val file: Path by lazy { KnownPaths.moduleData / FILE_NAME }
+
+    private val counter = ThreadLocal<Counter?>()
+    private val features = mutableListOf<FeatureTrace>()
+    private var cacheLoadMs = 0.0
+    private var cacheHits = 0
+    private var cacheMisses = 0
+
+    /** 其他进程的启动不记录，避免多进程同时写文件 */
+    private val enabled: Boolean get() = TargetProcesses.isInMain
+
+    fun onHook() {
+        counter.get()?.let { it.hooks++ }
+    }
+
+    fun onReflection() {
+        counter.get()?.let { it.reflections++ }
+    }
+
+    fun recordDexCache(hits: Int, misses: Int, elapsed: Duration) {
+        cacheHits = hits
+        cacheMisses = misses
+        cacheLoadMs = elapsed.toDouble(DurationUnit.MILLISECONDS)
+    }
+
+    fun traceFeature(feature: BaseFeature, block: () -> Unit) {
+        if (!enabled) return block()
+
+        val c = Counter()
+        counter.set(c)
+        val mark = TimeSource.Monotonic.markNow()
+        try {
+            block()
+        } finally {
+            counter.set(null)
+            features += FeatureTrace(
+                feature.displayName,
+                mark.elapsedNow().toDouble(DurationUnit.MILLISECONDS),
+                c.hooks,
+                c.reflections
+            )
+        }
+    }
+
+    /** 启动结束，后台写入本次记录 */
+    fun finish(total: Duration, deferred: Int) {
+        if (!enabled) return
+
+        val trace = StartupTrace(
+            timestamp = System.currentTimeMillis(),
+            hostVersion = "${HostInfo.versionName} (${HostInfo.versionCode})",
+            totalMs = total.toDouble(DurationUnit.MILLISECONDS),
+            cacheLoadMs = cacheLoadMs,
+            cacheHits = cacheHits,
+            cacheMisses = cacheMisses,
+            deferred = deferred,
+            features = features.toList()
+        )
+        features.clear()
+
+        CoroutineScope(Dispatchers.IO).launch {
+            runCatching {
+                val records = (loadRecords() + trace).takeLast(MAX_RECORDS)
+                file.writeText(DefaultJson.encodeToString(records))
+            }.onFailure { WeLogger.w(TAG, "failed to save startup trace", it) }
+        }
+    }
+
+    /** 按时间先后排列的最近几次启动记录 */
+    fun loadRecords(): List<StartupTrace> {
+        if (!file.exists()) return emptyList()
+        return runCatching { DefaultJson.decodeFromString<List<StartupTrace>>(file.readText()) }
+            .onFailure { WeLogger.w(TAG, "failed to read startup traces", it) }
+            .getOrDefault(emptyList())
+    }
+
+    /** [current] 中每个 Feature 相对 [previous] 的变化，按耗时增加量降序 */
+    fun diff(current: StartupTrace, previous: StartupTrace?): List<FeatureDiff> {
+        val before = previous?.features?.associateBy { it.name }.orEmpty()
+        return current.features
+            .map { FeatureDiff(it, before[it.name]) }
+            .sortedByDescending { it.deltaMs }
+    }
+}
@@ -21,6 +21,11 @@ abstract class SwitchFeature : BaseFeature() {
     final override fun startup() {
         if (!shouldLoadInCurrentProcess) return
         _isEnabled = WePrefs.getBoolOrDef(name, defaultEnabled)
+        if (shouldEnableOnStartup) enableOnStartup()
+    }
+
+    /** 触发前用户可能已在设置中关闭 */
+    override fun activateDeferred() {
         if (shouldEnableOnStartup) enable()
     }
 
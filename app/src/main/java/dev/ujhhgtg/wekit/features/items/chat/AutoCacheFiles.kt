@@ -52,7 +52,7 @@ object AutoCacheFiles : ClickableFeature(),
 
     override fun onEnable() {
         scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
     }
 
     override fun onDisable() {
@@ -40,7 +40,7 @@ object AutoCacheImages : ClickableFeature(), WeDatabaseListenerApi.IInsertListen
     private var blacklist by WePrefs.prefOption("autocache_images_blacklist", emptySet())
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
     }
 
     override fun onDisable() {
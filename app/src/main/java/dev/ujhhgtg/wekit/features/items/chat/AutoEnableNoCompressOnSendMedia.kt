@@ -2,17 +2,22 @@ package dev.ujhhgtg.wekit.features.items.chat
 
 import android.app.Activity
 import dev.ujhhgtg.reflekt.utils.toClass
+import dev.ujhhgtg.wekit.features.core.ActivationTrigger
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.features.core.SwitchFeature
 
 @Feature(name = "自动启用发送原图", categories = ["聊天"], description = "发送媒体时自动勾选发送原图选项")
 object AutoEnableNoCompressOnSendMedia : SwitchFeature() {
 
+    private val activityClasses = arrayOf(
+        "com.tencent.mm.plugin.gallery.ui.AlbumPreviewUI",
+        "com.tencent.mm.plugin.gallery.ui.ImagePreviewUI"
+    )
+
+    override val activationTrigger = ActivationTrigger.OnActivity(*activityClasses)
+
     override fun onEnable() {
-        listOf(
-            "com.tencent.mm.plugin.gallery.ui.AlbumPreviewUI",
-            "com.tencent.mm.plugin.gallery.ui.ImagePreviewUI"
-        ).forEach {
+        activityClasses.forEach {
             it.toClass().hookBeforeOnCreate {
                 val activity = thisObject as Activity
                 activity.intent.putExtra("send_raw_img", true)
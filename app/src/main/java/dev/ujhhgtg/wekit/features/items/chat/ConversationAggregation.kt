@@ -221,7 +221,7 @@ object ConversationAggregation : ClickableFeature(),
     private var refreshHandler: Handler? = null
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, ConversationTable.NAME)
         WeStartActivityApi.addListener(this)
 
         startRefreshThread()
@@ -70,7 +70,7 @@ object CustomChatInputBarPlaceholderText : ClickableFeature(), IResolveDex, WeDa
     }
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
 
         val curDay = LocalDate.now().dayOfMonth
         if (lastDayOfMonth != curDay) {
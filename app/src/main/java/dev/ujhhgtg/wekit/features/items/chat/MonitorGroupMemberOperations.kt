@@ -25,7 +25,7 @@ import kotlinx.serialization.protobuf.ProtoBuf
 object MonitorGroupMemberOperations : SwitchFeature(), IResolveDex, WeDatabaseListenerApi.IUpdateListener {
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "chatroom")
 
         methodHandleSpanClick.hookBefore {
             val url = args[1].reflekt().firstField {
@@ -7,6 +7,7 @@ import dev.ujhhgtg.wekit.features.api.ui.WeCurrentConversationApi
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.features.core.SwitchFeature
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelPaths
+import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSettings
 import dev.ujhhgtg.wekit.features.items.chat.panel.PickedPanelFile
 import dev.ujhhgtg.wekit.features.items.chat.panel.StickerItem
 import dev.ujhhgtg.wekit.features.items.chat.panel.listPanelTreeFiles
@@ -114,7 +115,7 @@ object StickerPanel : SwitchFeature() { // entry implementation in ChatFooterHoo
                             }
                         },
                         loadSimilarityImage = ::resolveStickerBytes,
-                        searchSimilar = FunBoxStickerRepository::searchSimilar,
+                        searchSimilar = ::searchSimilar,
                         uploadPack = FunBoxStickerRepository::uploadPack,
                         setCustomTitle = StickerPanelRepository::setCustomTitle,
                         setPackCover = StickerPanelRepository::setPackCover,
@@ -145,6 +146,8 @@ object StickerPanel : SwitchFeature() { // entry implementation in ChatFooterHoo
 
         CoroutineScope(Dispatchers.IO).launch {
             PanelPaths.cleanupStalePanelCache()
+            // start hashing the library now so the first similar-sticker search has results
+            StickerPanelRepository.syncSimilarityIndex()
         }
     }
 
@@ -193,6 +196,20 @@ object StickerPanel : SwitchFeature() { // entry implementation in ChatFooterHoo
             }.map { }
         }
 
+    /**
+     * Local matches first, then online ones. The local index needs no network, so an online failure
+     * only surfaces when the library had nothing similar either.
+     */
+    private suspend fun searchSimilar(imageBytes: ByteArray): Result<List<StickerItem>> {
+        val local = withContext(Dispatchers.IO) {
+            cancellableResult { StickerPanelRepository.searchSimilar(imageBytes) }
+        }.getOrElse { emptyList() }
+        if (PanelSettings.stickerSimilarityLocalOnly) return Result.success(local)
+        val online = FunBoxStickerRepository.searchSimilar(imageBytes)
+        online.exceptionOrNull()?.let { if (it is CancellationException) throw it }
+        return if (local.isEmpty()) online else Result.success(local + online.getOrElse { emptyList() })
+    }
+
     private suspend inline fun <T> cancellableResult(block: suspend () -> T): Result<T> = try {
         Result.success(block())
     } catch (error: CancellationException) {
@@ -281,7 +281,10 @@ object VoicePanel : SwitchFeature() { // entry implementation in ChatFooterHooks
                 val silkSource = source.extension.equals("silk", true) || source.extension.equals("amr", true)
                 val silkPath = if (silkSource) source else PanelPaths.panelCacheDir / "send-${UUID.randomUUID()}.silk"
                 try {
-                    if (!silkSource) require(AudioUtils.anyToSilk(resolvedPath, silkPath.absolutePathString())) { "音频转 SILK 失败" }
+                    if (!silkSource) {
+                        AudioUtils.convertToSilk(resolvedPath, silkPath.absolutePathString())
+                            .getOrElse { throw IllegalStateException("音频转 SILK 失败", it) }
+                    }
                     check(WeMessageApi.sendVoice(talker, silkPath.absolutePathString(), durationMs.coerceToInt())) { "语音发送失败" }
                     if (recordUsage) VoicePanelRepository.recordSent(item)
                     Unit
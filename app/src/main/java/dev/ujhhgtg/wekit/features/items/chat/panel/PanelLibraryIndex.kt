@@ -0,0 +1,174 @@
+package dev.ujhhgtg.wekit.features.items.chat.panel
+
+import dev.ujhhgtg.wekit.utils.serialization.DefaultJson
+import kotlinx.serialization.Serializable
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.isDirectory
+import kotlin.io.path.listDirectoryEntries
+import kotlin.io.path.name
+import kotlin.io.path.notExists
+import kotlin.io.path.readText
+import kotlin.io.path.writeText
+
+/**
+ * Incrementally maintained index of a panel library: one sub-directory of [root] per pack.
+ *
+ * [packs] lists [root] and stats each pack directory. A pack's files are only re-listed when the
+ * directory's mtime moved or the pack was [invalidate]d. A file is only re-[probe]d when its size or
+ * mtime changed. The result is persisted to [indexFile], so a cold start doesn't re-probe either.
+ */
+internal class PanelLibraryIndex(
+    private val root: () -> Path,
+    private val indexFile: () -> Path,
+    private val isPackDir: (Path) -> Boolean,
+    private val isEntryName: (String) -> Boolean,
+    /** Per-file value cached alongside size/mtime, e.g. a voice file's duration. */
+    private val probe: ((Path) -> Long)? = null,
+) {
+    @Serializable
+    data class Entry(val name: String, val size: Long, val modified: Long, val probed: Long = 0L)
+
+    @Serializable
+    data class Pack(val name: String, val modified: Long, val entries: List<Entry>) {
+        /** Latest mtime of the directory or any entry, for the MODIFIED sort mode. */
+        val lastModified: Long get() = maxOf(modified, entries.maxOfOrNull(Entry::modified) ?: 0L)
+    }
+
+    private var packs: Map<String, Pack>? = null
+    private val stale = HashSet<String>()
+
+    /** Changes every time [packs] returns different content. */
+    @Volatile
+    var version: Long = 0L
+        private set
+
+    /** Current packs in directory-listing order. */
+    @Synchronized
+    fun packs(): List<Pack> {
+        val current = packs ?: readIndex()
+        val next = LinkedHashMap<String, Pack>(current.size)
+        var changed = false
+        runCatching { root().listDirectoryEntries() }.getOrDefault(emptyList())
+            .filter(isPackDir)
+            .forEach { dir ->
+                val modified = lastModified(dir)
+                val cached = current[dir.name]
+                next[dir.name] = if (cached != null && cached.modified == modified && dir.name !in stale) {
+                    cached
+                } else {
+                    changed = true
+                    scanPack(dir, modified, cached)
+                }
+            }
+        stale.clear()
+        val result = if (changed || next.keys != current.keys) {
+            version++
+            writeIndex(next.values)
+            next
+        } else {
+            current
+        }
+        packs = result
+        return result.values.toList()
+    }
+
+    /** Forces [name] to be re-listed on the next [packs], regardless of its directory mtime. */
+    @Synchronized
+    fun invalidate(name: String) {
+        stale += name
+    }
+
+    private fun scanPack(dir: Path, modified: Long, cached: Pack?): Pack {
+        val previous = cached?.entries?.associateBy(Entry::name).orEmpty()
+        val entries = runCatching {
+            Files.newDirectoryStream(dir).use { stream ->
+                stream.mapNotNull { file ->
+                    val name = file.name
+                    if (!isEntryName(name)) return@mapNotNull null
+                    val attrs = runCatching {
+                        Files.readAttributes(file, BasicFileAttributes::class.java)
+                    }.getOrNull()
+                    if (attrs == null || !attrs.isRegularFile) return@mapNotNull null
+                    val size = attrs.size()
+                    val fileModified = attrs.lastModifiedTime().toMillis()
+                    val old = previous[name]
+                    if (old != null && old.size == size && old.modified == fileModified) old
+                    else Entry(name, size, fileModified, probe?.let { runCatching { it(file) }.getOrDefault(0L) } ?: 0L)
+                }
+            }
+        }.getOrDefault(emptyList())
+        return Pack(dir.name, modified, entries)
+    }
+
+    private fun lastModified(path: Path): Long =
+        runCatching { Files.getLastModifiedTime(path).toMillis() }.getOrDefault(0L)
+
+    private fun readIndex(): Map<String, Pack> {
+        val file = indexFile()
+        if (file.notExists()) return emptyMap()
+        return runCatching {
+            DefaultJson.decodeFromString<List<Pack>>(file.readText()).associateBy(Pack::name)
+        }.getOrDefault(emptyMap())
+    }
+
+    private fun writeIndex(packs: Collection<Pack>) {
+        val file = indexFile()
+        val temporary = file.resolveSibling("${file.name}.tmp")
+        runCatching {
+            temporary.writeText(DefaultJson.encodeToString(packs.toList()))
+            runCatching {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            }.getOrElse { Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING) }
+        }
+        temporary.deleteIfExists()
+    }
+
+    companion object {
+        fun isVisiblePackDir(path: Path): Boolean = path.isDirectory() && !path.name.startsWith(".")
+    }
+}
+
+/**
+ * One of a panel library's small JSON metadata files (`.stats.json`, `.orders.json`, …), decoded
+ * once and only re-read when its size or mtime changes. Writers call [invalidate] after replacing
+ * the file, so same-second rewrites are never missed.
+ */
+internal class PanelMetadataFile<T>(
+    val path: () -> Path,
+    private val fallback: T,
+    private val decode: (String) -> T,
+) {
+    private var loaded = false
+    private var stampSize = -1L
+    private var stampModified = -1L
+    private var cached: T = fallback
+
+    /** Changes every time the decoded value may have changed. */
+    @Volatile
+    var version: Long = 0L
+        private set
+
+    @Synchronized
+    fun read(): T {
+        val file = path()
+        val attrs = runCatching { Files.readAttributes(file, BasicFileAttributes::class.java) }.getOrNull()
+        val size = attrs?.size() ?: -1L
+        val modified = attrs?.lastModifiedTime()?.toMillis() ?: -1L
+        if (loaded && size == stampSize && modified == stampModified) return cached
+        cached = if (attrs == null) fallback else runCatching { decode(file.readText()) }.getOrDefault(fallback)
+        loaded = true
+        stampSize = size
+        stampModified = modified
+        version++
+        return cached
+    }
+
+    @Synchronized
+    fun invalidate() {
+        loaded = false
+    }
+}
@@ -0,0 +1,112 @@
+package dev.ujhhgtg.wekit.features.items.chat.panel
+
+/**
+ * Case-insensitive substring search over one snapshot of a panel's packs, built once per loaded
+ * library and reused for every keystroke.
+ *
+ * Every item's lowercased texts are split into all 1-, 2- and 3-character grams, each mapped to the
+ * ascending positions of the items containing it. A query of up to [GRAM] characters is a single
+ * lookup; a longer one intersects the postings of its trigrams and verifies the few survivors. Pack
+ * titles are few and are scanned directly; a matching pack contributes all of its items, as before.
+ * Results keep pack order and item order within each pack.
+ */
+internal class PanelSearchIndex<T>(packs: List<Pair<String, List<T>>>, texts: (T) -> List<String?>) {
+
+    private companion object {
+        const val GRAM = 3
+    }
+
+    private val packTitles = Array(packs.size) { packs[it].first.lowercase() }
+
+    /** Item positions of pack `i` are `packStarts[i] until packStarts[i + 1]`. */
+    private val packStarts = IntArray(packs.size + 1)
+    private val items = ArrayList<T>()
+    private val itemTexts = ArrayList<List<String>>()
+    private val postings = HashMap<String, IntArray>()
+
+    init {
+        val building = HashMap<String, Postings>()
+        packs.forEachIndexed { packIndex, (_, packItems) ->
+            packStarts[packIndex] = items.size
+            for (item in packItems) {
+                val position = items.size
+                val lowered = texts(item).mapNotNull { it?.lowercase()?.takeIf(String::isNotEmpty) }
+                items += item
+                itemTexts += lowered
+                for (text in lowered) {
+                    for (start in text.indices) {
+                        for (end in start + 1..minOf(start + GRAM, text.length)) {
+                            building.getOrPut(text.substring(start, end)) { Postings() }.add(position)
+                        }
+                    }
+                }
+            }
+        }
+        packStarts[packs.size] = items.size
+        building.forEach { (gram, list) -> postings[gram] = list.toArray() }
+    }
+
+    fun search(query: String): List<T> {
+        val term = query.trim().lowercase()
+        if (term.isEmpty()) return items.toList()
+        val hits = itemHits(term)
+        val result = ArrayList<T>()
+        var cursor = 0
+        for (pack in packTitles.indices) {
+            val start = packStarts[pack]
+            val end = packStarts[pack + 1]
+            while (cursor < hits.size && hits[cursor] < start) cursor++
+            if (packTitles[pack].contains(term)) {
+                for (position in start until end) result += items[position]
+            } else {
+                while (cursor < hits.size && hits[cursor] < end) result += items[hits[cursor++]]
+            }
+        }
+        return result
+    }
+
+    /** Ascending positions of items whose own texts contain [term]. */
+    private fun itemHits(term: String): IntArray {
+        if (term.length <= GRAM) return postings[term] ?: IntArray(0)
+        val lists = (0..term.length - GRAM).map { postings[term.substring(it, it + GRAM)] ?: return IntArray(0) }
+            .sortedBy(IntArray::size)
+        var candidates = lists.first()
+        for (other in lists.drop(1)) {
+            candidates = intersect(candidates, other)
+            if (candidates.isEmpty()) return candidates
+        }
+        return candidates.filter { position -> itemTexts[position].any { it.contains(term) } }.toIntArray()
+    }
+
+    private fun intersect(a: IntArray, b: IntArray): IntArray {
+        val out = Postings()
+        var i = 0
+        var j = 0
+        while (i < a.size && j < b.size) {
+            when {
+                a[i] < b[j] -> i++
+                a[i] > b[j] -> j++
+                else -> {
+                    out.add(a[i])
+                    i++
+                    j++
+                }
+            }
+        }
+        return out.toArray()
+    }
+
+    /** Growable ascending int list; repeated adds of the last position are ignored. */
+    private class Postings {
+        private var data = IntArray(4)
+        private var size = 0
+
+        fun add(position: Int) {
+            if (size > 0 && data[size - 1] == position) return
+            if (size == data.size) data = data.copyOf(size * 2)
+            data[size++] = position
+        }
+
+        fun toArray(): IntArray = data.copyOf(size)
+    }
+}
@@ -40,6 +40,7 @@ object PanelSettings {
         "sticker_panel_remove_rounded_video_mask",
         false,
     )
+    var stickerSimilarityLocalOnly by prefOption("sticker_panel_similarity_local_only", false)
 
     var localStickerPackLayout: StickerPackLayout
         get() = StickerPackLayout.entries.firstOrNull { it.name == localStickerPackLayoutValue }
@@ -3,6 +3,7 @@ package dev.ujhhgtg.wekit.features.items.chat.panel.sticker
 import dev.ujhhgtg.wekit.features.items.chat.panel.LocalSortMode
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelCustomOrders
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelPaths
+import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSearchIndex
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSettings
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSource
 import dev.ujhhgtg.wekit.features.items.chat.panel.RECENT_PACK_ID
@@ -28,8 +29,6 @@ import kotlin.io.path.isRegularFile
 import kotlin.io.path.listDirectoryEntries
 import kotlin.io.path.name
 import kotlin.io.path.nameWithoutExtension
-import kotlin.io.path.notExists
-import kotlin.io.path.readText
 import kotlin.io.path.writeText
 
 object StickerPanelRepository {
@@ -44,33 +43,80 @@ object StickerPanelRepository {
     @Serializable
     private data class StickerStats(val sendCount: Long = 0, val lastSentAt: Long = 0)
 
-    fun loadPacks(): List<StickerPack> {
+    private val index = PanelLibraryIndex(
+        root = { PanelPaths.stickerPanelDir },
+        indexFile = { PanelPaths.stickerPanelDir / ".index.json" },
+        isPackDir = PanelLibraryIndex::isVisiblePackDir,
+        isEntryName = ::supportsFileName,
+    )
+
+    private val recentsMetadata = PanelMetadataFile({ recentsFile }, emptyList<String>()) {
+        DefaultJson.decodeFromString<List<String>>(it)
+    }
+    private val onlineRecentsMetadata = PanelMetadataFile({ onlineRecentsFile }, emptyList<StickerItem>()) {
+        DefaultJson.decodeFromString<List<StickerItem>>(it)
+    }
+    private val statsMetadata = PanelMetadataFile({ statsFile }, emptyMap<String, StickerStats>()) {
+        DefaultJson.decodeFromString<Map<String, StickerStats>>(it)
+    }
+    private val titlesMetadata = PanelMetadataFile({ titlesFile }, emptyMap<String, String>()) {
+        DefaultJson.decodeFromString<Map<String, String>>(it)
+    }
+    private val coversMetadata = PanelMetadataFile({ coversFile }, emptyMap<String, String>()) {
+        DefaultJson.decodeFromString<Map<String, String>>(it)
+    }
+    private val ordersMetadata = PanelMetadataFile({ ordersFile }, PanelCustomOrders()) {
+        DefaultJson.decodeFromString<PanelCustomOrders>(it)
+    }
+    private val metadataFiles = listOf(
+        recentsMetadata, onlineRecentsMetadata, statsMetadata, titlesMetadata, coversMetadata, ordersMetadata,
+    )
+
+    /** The last [loadPacks] result and the index / metadata / settings versions it was built from. */
+    private class PacksView(val key: List<Any>, val packs: List<StickerPack>) {
+        /** Built on the first search against this view; matches pack titles, titles and custom titles. */
+        val searchIndex by lazy {
+            PanelSearchIndex(packs.map { it.title to it.items }) { listOf(it.title, it.customTitle) }
+        }
+    }
+
+    @Volatile
+    private var packsView: PacksView? = null
+
+    fun loadPacks(): List<StickerPack> = runCatching {
+        val indexed = index.packs()
         val stats = readStats()
         val titles = readTitles()
         val covers = readCovers()
         val orders = readOrders()
-        return runCatching {
-            PanelPaths.stickerPanelDir.listDirectoryEntries()
-                .filter { it.isDirectory() && !it.name.startsWith(".") }
-                .map { packDir ->
-                    val items = packDir.listDirectoryEntries()
-                        .filter(::isStickerFile)
-                        .sortedWith(stickerComparator(packDir.name, stats, orders))
-                        .map { file -> file.toItem(packDir.name, stats, titles, PanelSource.LOCAL) }
-                    StickerPack(
-                        id = packDir.name,
-                        title = packDir.name,
-                        cover = items.firstOrNull { item ->
-                            item.localPath?.asPath?.name == covers[packDir.name]
-                        }?.localPath ?: items.firstOrNull()?.localPath,
-                        source = PanelSource.LOCAL,
-                        itemCount = items.size,
-                        items = items,
-                    )
-                }
-                .sortedWith(packComparator(orders))
-        }.getOrElse { emptyList() }
-    }
+        val key = listOf(
+            index.version, statsMetadata.version, titlesMetadata.version, coversMetadata.version,
+            ordersMetadata.version, PanelSettings.stickerItemSortMode, PanelSettings.stickerPackSortMode,
+        )
+        packsView?.takeIf { it.key == key }?.let { return@runCatching it.packs }
+
+        val root = PanelPaths.stickerPanelDir
+        val lastModifiedByPack = indexed.associate { it.name to it.lastModified }
+        val packs = indexed.map { pack ->
+            val packDir = root / pack.name
+            val items = pack.entries
+                .map { entry -> entry to (packDir / entry.name).toItem(pack.name, stats, titles, PanelSource.LOCAL) }
+                .sortedWith(stickerComparator(pack.name, orders))
+                .map { it.second }
+            StickerPack(
+                id = pack.name,
+                title = pack.name,
+                cover = items.firstOrNull { item ->
+                    item.localPath?.asPath?.name == covers[pack.name]
+                }?.localPath ?: items.firstOrNull()?.localPath,
+                source = PanelSource.LOCAL,
+                itemCount = items.size,
+                items = items,
+            )
+        }.sortedWith(packComparator(orders, lastModifiedByPack))
+        packsView = PacksView(key, packs)
+        packs
+    }.getOrElse { emptyList() }
 
     fun savePackOrder(packIds: List<String>): Result<Unit> = runCatching {
         val available = PanelPaths.stickerPanelDir.listDirectoryEntries()
@@ -124,13 +170,41 @@ object StickerPanelRepository {
     }
 
     fun search(query: String): List<StickerItem> {
-        val term = query.trim()
-        if (term.isEmpty()) return loadPacks().flatMap { it.items }
-        return loadPacks().flatMap { pack ->
-            pack.items.filter {
-                it.title.contains(term, ignoreCase = true) ||
-                        it.customTitle?.contains(term, ignoreCase = true) == true ||
-                        pack.title.contains(term, ignoreCase = true)
+        val packs = loadPacks()
+        val view = packsView?.takeIf { it.packs === packs } ?: PacksView(emptyList(), packs)
+        return view.searchIndex.search(query)
+    }
+
+    /**
+     * Offline similar-sticker search over the local library, nearest first. Works without network;
+     * stickers not hashed yet (added outside the panel, or older than the index) are picked up by the
+     * background backfill and only show up once it reaches them.
+     */
+    fun searchSimilar(imageBytes: ByteArray): List<StickerItem> {
+        require(imageBytes.isNotEmpty()) { "图片内容为空" }
+        syncSimilarityIndex()
+        val matches = StickerSimilarityIndex.query(imageBytes)
+        if (matches.isEmpty()) return emptyList()
+        val itemsByKey = loadPacks().flatMap { pack ->
+            pack.items.mapNotNull { item -> item.localPath?.let { "${pack.id}/${it.asPath.name}" to item } }
+        }.toMap()
+        return matches.mapNotNull { itemsByKey[it.key] }
+    }
+
+    /** Queues unhashed library stickers for the similarity backfill; returns without decoding any. */
+    fun syncSimilarityIndex() {
+        val indexed = index.packs()
+        StickerSimilarityIndex.sync(index.version) {
+            val root = PanelPaths.stickerPanelDir
+            indexed.flatMap { pack ->
+                pack.entries.map { entry ->
+                    StickerSimilarityIndex.LocalFile(
+                        key = "${pack.name}/${entry.name}",
+                        path = root / pack.name / entry.name,
+                        size = entry.size,
+                        modified = entry.modified,
+                    )
+                }
             }
         }
     }
@@ -145,6 +219,7 @@ object StickerPanelRepository {
         val destination = packPath(safeName)
         require(Files.notExists(destination)) { "表情包已存在" }
         destination.createDirectories()
+        index.invalidate(safeName)
         safeName
     }
 
@@ -152,6 +227,7 @@ object StickerPanelRepository {
     fun ensurePack(name: String): Result<String> = runCatching {
         val safeName = requirePackName(name)
         packPath(safeName).createDirectories()
+        index.invalidate(safeName)
         safeName
     }
 
@@ -165,6 +241,8 @@ object StickerPanelRepository {
         require(source.isDirectory()) { "表情包不存在" }
         require(Files.notExists(destination)) { "表情包已存在" }
         Files.move(source, destination)
+        index.invalidate(safeName)
+        StickerSimilarityIndex.renamePack(safeOldName, safeName)
         migratePathPrefix(source, destination)
     }
 
@@ -172,6 +250,7 @@ object StickerPanelRepository {
         val dir = packPath(requirePackName(name))
         require(dir.isDirectory()) { "表情包不存在" }
         require(dir.toFile().deleteRecursively()) { "表情包删除失败" }
+        StickerSimilarityIndex.removePack(dir.name)
         removePathPrefixFromMetadata(dir)
     }
 
@@ -183,6 +262,8 @@ object StickerPanelRepository {
         val packDir = packPath(safePack).also { it.createDirectories() }
         val destination = uniquePath(packDir, safeFile)
         input.use { Files.copy(it, destination) }
+        index.invalidate(safePack)
+        StickerSimilarityIndex.record(similarityKey(destination), destination)
         destination.toItem(safePack, readStats(), readTitles(), PanelSource.IMPORTED)
     }
 
@@ -209,6 +290,8 @@ object StickerPanelRepository {
                     StandardCopyOption.ATOMIC_MOVE,
                 )
             }.getOrElse { Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING) }
+            index.invalidate(safePack)
+            StickerSimilarityIndex.record(similarityKey(destination), destination)
             destination.toItem(safePack, readStats(), readTitles(), PanelSource.IMPORTED)
         } finally {
             temporary.deleteIfExists()
@@ -257,6 +340,8 @@ object StickerPanelRepository {
                     StandardCopyOption.ATOMIC_MOVE,
                 )
             }.getOrElse { Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING) }
+            index.invalidate(safePack)
+            StickerSimilarityIndex.record(similarityKey(destination), destination)
             destination.toItem(safePack, readStats(), readTitles(), PanelSource.IMPORTED)
         } finally {
             temporary.deleteIfExists()
@@ -305,6 +390,8 @@ object StickerPanelRepository {
         val paths = filePaths.map(::requireLocalSticker).distinct()
         require(paths.isNotEmpty()) { "没有选择表情" }
         paths.forEach { path -> require(path.deleteIfExists()) { "表情不存在" } }
+        paths.mapTo(hashSetOf()) { it.parent.name }.forEach(index::invalidate)
+        StickerSimilarityIndex.remove(paths.map(::similarityKey))
 
         val deletedPaths = paths.mapTo(hashSetOf()) { it.absolutePathString() }
         atomicWrite(
@@ -378,18 +465,13 @@ object StickerPanelRepository {
         atomicWrite(onlineRecentsFile, DefaultJson.encodeToString(current))
     }
 
-    private fun readRecentPaths(): List<String> {
-        if (recentsFile.notExists()) return emptyList()
-        return runCatching {
-            DefaultJson.decodeFromString<List<String>>(recentsFile.readText())
-                .filter { it.asPath.isRegularFile() }
-        }.getOrDefault(emptyList())
-    }
+    private fun readRecentPaths(): List<String> = runCatching {
+        recentsMetadata.read().filter { it.asPath.isRegularFile() }
+    }.getOrDefault(emptyList())
 
     private fun readOnlineRecents(): List<StickerItem> {
-        if (onlineRecentsFile.notExists()) return emptyList()
         return runCatching {
-            DefaultJson.decodeFromString<List<StickerItem>>(onlineRecentsFile.readText())
+            onlineRecentsMetadata.read()
                 .filter { it.localPath == null && it.remoteObjectId != null }
                 // Older online-recents records only stored the thumbnail URL. Preserve those
                 // records while upgrading their preview target to FunBox's original object URL.
@@ -402,66 +484,50 @@ object StickerPanelRepository {
 
     private fun recentKey(item: StickerItem): String = item.remoteObjectId ?: item.id
 
-    private fun readStats(): Map<String, StickerStats> {
-        if (statsFile.notExists()) return emptyMap()
-        return runCatching {
-            DefaultJson.decodeFromString<Map<String, StickerStats>>(statsFile.readText())
-        }.getOrDefault(emptyMap())
-    }
+    private fun readStats(): Map<String, StickerStats> = statsMetadata.read()
 
-    private fun readTitles(): Map<String, String> {
-        if (titlesFile.notExists()) return emptyMap()
-        return runCatching {
-            DefaultJson.decodeFromString<Map<String, String>>(titlesFile.readText())
-        }.getOrDefault(emptyMap())
-    }
+    private fun readTitles(): Map<String, String> = titlesMetadata.read()
 
-    private fun readCovers(): Map<String, String> {
-        if (coversFile.notExists()) return emptyMap()
-        return runCatching {
-            DefaultJson.decodeFromString<Map<String, String>>(coversFile.readText())
-        }.getOrDefault(emptyMap())
-    }
+    private fun readCovers(): Map<String, String> = coversMetadata.read()
 
-    private fun readOrders(): PanelCustomOrders {
-        if (ordersFile.notExists()) return PanelCustomOrders()
-        return runCatching {
-            DefaultJson.decodeFromString<PanelCustomOrders>(ordersFile.readText())
-        }.getOrDefault(PanelCustomOrders())
-    }
+    private fun readOrders(): PanelCustomOrders = ordersMetadata.read()
 
     private fun stickerComparator(
         packName: String,
-        stats: Map<String, StickerStats>,
         orders: PanelCustomOrders,
-    ): Comparator<Path> {
-        val byName = compareBy(String.CASE_INSENSITIVE_ORDER, Path::name)
+    ): Comparator<Pair<PanelLibraryIndex.Entry, StickerItem>> {
+        val byName = compareBy(String.CASE_INSENSITIVE_ORDER) { it: Pair<PanelLibraryIndex.Entry, StickerItem> ->
+            it.first.name
+        }
         return when (PanelSettings.stickerItemSortMode) {
             LocalSortMode.NAME -> byName
-            LocalSortMode.MODIFIED -> compareByDescending<Path>(::lastModified).then(byName)
-            LocalSortMode.RECENT -> compareByDescending<Path> {
-                stats[it.absolutePathString()]?.lastSentAt ?: 0L
+            LocalSortMode.MODIFIED -> compareByDescending<Pair<PanelLibraryIndex.Entry, StickerItem>> {
+                it.first.modified
+            }.then(byName)
+
+            LocalSortMode.RECENT -> compareByDescending<Pair<PanelLibraryIndex.Entry, StickerItem>> {
+                it.second.lastSentAt
             }.then(byName)
 
-            LocalSortMode.FREQUENT -> compareByDescending<Path> {
-                stats[it.absolutePathString()]?.sendCount ?: 0L
+            LocalSortMode.FREQUENT -> compareByDescending<Pair<PanelLibraryIndex.Entry, StickerItem>> {
+                it.second.sendCount
             }.then(byName)
 
-            LocalSortMode.CUSTOM -> compareBy<Path> {
-                customOrderIndex(orders.items[packName], it.name)
+            LocalSortMode.CUSTOM -> compareBy<Pair<PanelLibraryIndex.Entry, StickerItem>> {
+                customOrderIndex(orders.items[packName], it.first.name)
             }.then(byName)
         }
     }
 
-    private fun packComparator(orders: PanelCustomOrders): Comparator<StickerPack> {
+    private fun packComparator(
+        orders: PanelCustomOrders,
+        lastModifiedByPack: Map<String, Long>,
+    ): Comparator<StickerPack> {
         val byName = compareBy(String.CASE_INSENSITIVE_ORDER, StickerPack::title)
         return when (PanelSettings.stickerPackSortMode) {
             LocalSortMode.NAME -> byName
             LocalSortMode.MODIFIED -> compareByDescending<StickerPack> { pack ->
-                maxOf(
-                    lastModified(packPath(pack.id)),
-                    pack.items.maxOfOrNull { it.localPath?.asPath?.let(::lastModified) ?: 0L } ?: 0L,
-                )
+                lastModifiedByPack[pack.id] ?: 0L
             }.then(byName)
 
             LocalSortMode.RECENT -> compareByDescending<StickerPack> { pack ->
@@ -478,9 +544,6 @@ object StickerPanelRepository {
         }
     }
 
-    private fun lastModified(path: Path): Long =
-        runCatching { Files.getLastModifiedTime(path).toMillis() }.getOrDefault(0L)
-
     private fun Path.toItem(
         packId: String,
         stats: Map<String, StickerStats>,
@@ -591,6 +654,7 @@ object StickerPanelRepository {
         } finally {
             temporary.deleteIfExists()
         }
+        metadataFiles.firstOrNull { it.path() == path }?.invalidate()
     }
 
     private fun migratePathPrefix(source: Path, destination: Path) {
@@ -665,6 +729,8 @@ object StickerPanelRepository {
         if (path.startsWith(sourcePrefix)) destinationPrefix.resolve(sourcePrefix.relativize(path)).toString() else value
     }.getOrDefault(value)
 
+    private fun similarityKey(path: Path) = "${path.parent.name}/${path.name}"
+
     private fun md5(value: String) = MessageDigest.getInstance("MD5")
         .digest(value.toByteArray())
         .joinToString("") { "%02x".format(it) }
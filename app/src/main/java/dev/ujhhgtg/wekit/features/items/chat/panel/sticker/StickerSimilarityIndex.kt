@@ -0,0 +1,417 @@
+package dev.ujhhgtg.wekit.features.items.chat.panel.sticker
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Color
+import dev.ujhhgtg.wekit.features.items.chat.panel.PanelPaths
+import dev.ujhhgtg.wekit.utils.WeLogger
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.BasicFileAttributes
+import kotlin.concurrent.thread
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.div
+import kotlin.io.path.name
+import kotlin.io.path.notExists
+
+/**
+ * Offline perceptual-hash index over the local sticker library, backing local similar-sticker search.
+ *
+ * Each sticker gets a 64-bit difference hash of its first frame (GIF/WebP included), computed when it
+ * is imported and persisted to [indexFile] keyed by `pack/file`. Files the platform can't decode
+ * (e.g. wxgf) are remembered as unhashable so they aren't retried until they change. Stickers that
+ * predate the index or were copied in by hand are hashed by a background backfill started from
+ * [sync]; queries meanwhile answer from whatever is already indexed.
+ *
+ * [indexFile] is an append-only log of put / remove records, so an import costs one appended record
+ * rather than a rewrite of the whole index. It is compacted once it holds far more records than live
+ * entries, and a torn tail left by a crash is dropped on load.
+ *
+ * Queries use multi-index hashing: the hash is split into [CHUNKS] 16-bit chunks, each with its own
+ * bucket table. Two hashes within Hamming distance `d` must agree on at least one chunk to within
+ * `d / CHUNKS` bits, so only those few buckets are probed instead of scanning the whole library.
+ */
+internal object StickerSimilarityIndex {
+    private const val TAG = "StickerSimilarityIndex"
+    private const val MAGIC = 0x50484153 // "PHAS"
+    private const val FORMAT_VERSION = 2
+    private const val OP_PUT = 1
+    private const val OP_REMOVE = 2
+    private const val COMPACT_SLACK = 1024
+    private const val BACKFILL_BATCH = 32
+    private const val CHUNKS = 4
+    private const val CHUNK_BITS = 16
+    private const val CHUNK_MASK = (1L shl CHUNK_BITS) - 1
+    private const val HASH_WIDTH = 9
+    private const val HASH_HEIGHT = 8
+
+    /** Default Hamming radius for "similar"; 10 of 64 bits tolerates re-encoding, scaling and small edits. */
+    const val DEFAULT_MAX_DISTANCE = 10
+
+    /** Largest radius [forEachVariant] can probe for: 4 bits per chunk. */
+    private const val MAX_DISTANCE = CHUNKS * 5 - 1
+
+    private val indexFile get() = PanelPaths.stickerPanelDir / ".phash.bin"
+
+    private class Entry(val size: Long, val modified: Long, val hash: Long, val hashed: Boolean)
+
+    /** A local file as listed by the library index. */
+    class LocalFile(val key: String, val path: Path, val size: Long, val modified: Long)
+
+    class Match(val key: String, val distance: Int)
+
+    private var entries: LinkedHashMap<String, Entry>? = null
+    private var syncedVersion = -1L
+
+    /** Records currently in [indexFile], live or superseded. */
+    private var logRecords = 0
+
+    /** Listed files still waiting for the backfill to hash them. */
+    private var pending = ArrayDeque<LocalFile>()
+    private var backfillRunning = false
+
+    // Query tables, rebuilt lazily after any mutation.
+    private var tablesValid = false
+    private var keys: Array<String> = emptyArray()
+    private var hashes = LongArray(0)
+    private var heads = Array(CHUNKS) { IntArray(0) }
+    private var next = Array(CHUNKS) { IntArray(0) }
+    private var seen = IntArray(0)
+    private var seenStamp = 0
+
+    /** Hashes a freshly imported sticker so later queries never have to decode it. */
+    @Synchronized
+    fun record(key: String, path: Path) {
+        val map = load()
+        val attrs = runCatching { Files.readAttributes(path, BasicFileAttributes::class.java) }.getOrNull() ?: return
+        val entry = hashEntry(path, attrs.size(), attrs.lastModifiedTime().toMillis())
+        map[key] = entry
+        tablesValid = false
+        appendLog(1) { writePut(key, entry) }
+    }
+
+    @Synchronized
+    fun remove(removed: Collection<String>) {
+        val map = load()
+        val present = removed.filter { map.remove(it) != null }
+        if (present.isEmpty()) return
+        tablesValid = false
+        appendLog(present.size) { present.forEach { writeRemove(it) } }
+    }
+
+    /** Re-keys every entry of pack [from] under [to] after a rename, keeping the hashes. */
+    @Synchronized
+    fun renamePack(from: String, to: String) {
+        val map = load()
+        val prefix = "$from/"
+        if (map.keys.none { it.startsWith(prefix) } && pending.none { it.key.startsWith(prefix) }) return
+        val migrated = LinkedHashMap<String, Entry>(map.size)
+        map.forEach { (key, entry) ->
+            migrated[if (key.startsWith(prefix)) "$to/${key.substring(prefix.length)}" else key] = entry
+        }
+        entries = migrated
+        tablesValid = false
+        pending = ArrayDeque(pending.map { file ->
+            if (file.key.startsWith(prefix)) LocalFile(
+                "$to/${file.key.substring(prefix.length)}", PanelPaths.stickerPanelDir / to / file.path.name, file.size, file.modified,
+            )
+            else file
+        })
+        compact(migrated)
+    }
+
+    @Synchronized
+    fun removePack(name: String) {
+        val map = load()
+        val prefix = "$name/"
+        val removed = map.keys.filter { it.startsWith(prefix) }
+        if (removed.isEmpty()) return
+        map.keys.removeAll(removed.toSet())
+        tablesValid = false
+        appendLog(removed.size) { removed.forEach { writeRemove(it) } }
+    }
+
+    /**
+     * Brings the index in line with the library listing: drops vanished files at once and queues new
+     * or changed ones (files copied in by hand, a library that predates the index, or one lost to a
+     * crash) for the background backfill. Never decodes on the caller's thread, and is skipped
+     * entirely while [version] is unchanged, so a steady-state query never stats the library.
+     */
+    @Synchronized
+    fun sync(version: Long, files: () -> List<LocalFile>) {
+        if (version == syncedVersion) return
+        val map = load()
+        val listed = files()
+        val listedKeys = listed.mapTo(HashSet(listed.size)) { it.key }
+        val vanished = map.keys.filter { it !in listedKeys }
+        if (vanished.isNotEmpty()) {
+            map.keys.removeAll(vanished.toSet())
+            tablesValid = false
+            appendLog(vanished.size) { vanished.forEach { writeRemove(it) } }
+        }
+        pending = listed.filterTo(ArrayDeque<LocalFile>()) { file ->
+            val old = map[file.key]
+            old == null || old.size != file.size || old.modified != file.modified
+        }
+        syncedVersion = version
+        if (pending.isNotEmpty() && !backfillRunning) {
+            backfillRunning = true
+            WeLogger.i(TAG, "backfilling ${pending.size} stickers, indexed=${map.size}")
+            thread(name = "StickerHashBackfill", isDaemon = true, priority = Thread.MIN_PRIORITY) { backfill() }
+        }
+    }
+
+    /** Hashes [pending] in small batches, decoding outside the lock so queries and imports aren't held up. */
+    private fun backfill() {
+        var total = 0
+        while (true) {
+            val batch = synchronized(this) {
+                if (pending.isEmpty()) {
+                    backfillRunning = false
+                    WeLogger.i(TAG, "backfill done, hashed $total stickers")
+                    return
+                }
+                List(minOf(BACKFILL_BATCH, pending.size)) { pending.removeFirst() }
+            }
+            val hashed = batch.map { file -> file to hashEntry(file.path, file.size, file.modified) }
+            synchronized(this) {
+                val map = load()
+                // skip files deleted, renamed or changed while they were being hashed
+                val fresh = hashed.filter { (file, _) ->
+                    val attrs = runCatching { Files.readAttributes(file.path, BasicFileAttributes::class.java) }.getOrNull()
+                    attrs != null && attrs.size() == file.size && attrs.lastModifiedTime().toMillis() == file.modified
+                }
+                if (fresh.isEmpty()) return@synchronized
+                fresh.forEach { (file, entry) -> map[file.key] = entry }
+                tablesValid = false
+                appendLog(fresh.size) { fresh.forEach { (file, entry) -> writePut(file.key, entry) } }
+            }
+            total += batch.size
+        }
+    }
+
+    /**
+     * Returns library stickers within [maxDistance] bits of [imageBytes], nearest first. Only covers
+     * stickers hashed so far; while a backfill is running the result can miss some.
+     */
+    @Synchronized
+    fun query(imageBytes: ByteArray, maxDistance: Int = DEFAULT_MAX_DISTANCE, limit: Int = 60): List<Match> {
+        val target = runCatching { decodeForHash { BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.size, it) } }
+            .getOrNull()?.let(::differenceHash) ?: return emptyList()
+        ensureTables()
+        if (keys.isEmpty()) return emptyList()
+        val distanceLimit = maxDistance.coerceIn(0, MAX_DISTANCE)
+        if (++seenStamp == Int.MAX_VALUE) {
+            seen.fill(0)
+            seenStamp = 1
+        }
+        val radius = distanceLimit / CHUNKS
+        val matches = ArrayList<Match>()
+        for (chunk in 0 until CHUNKS) {
+            val value = ((target ushr (chunk * CHUNK_BITS)) and CHUNK_MASK).toInt()
+            forEachVariant(value, radius) { variant ->
+                var slot = heads[chunk][variant]
+                while (slot >= 0) {
+                    if (seen[slot] != seenStamp) {
+                        seen[slot] = seenStamp
+                        val distance = java.lang.Long.bitCount(hashes[slot] xor target)
+                        if (distance <= distanceLimit) matches += Match(keys[slot], distance)
+                    }
+                    slot = next[chunk][slot]
+                }
+            }
+        }
+        matches.sortBy(Match::distance)
+        return if (matches.size > limit) matches.subList(0, limit).toList() else matches
+    }
+
+    /** Calls [block] with [value] and every 16-bit value within [radius] flipped bits of it. */
+    private inline fun forEachVariant(value: Int, radius: Int, block: (Int) -> Unit) {
+        block(value)
+        if (radius >= 1) for (i in 0 until CHUNK_BITS) {
+            val one = value xor (1 shl i)
+            block(one)
+            if (radius >= 2) for (j in i + 1 until CHUNK_BITS) {
+                val two = one xor (1 shl j)
+                block(two)
+                if (radius >= 3) for (k in j + 1 until CHUNK_BITS) {
+                    val three = two xor (1 shl k)
+                    block(three)
+                    if (radius >= 4) for (l in k + 1 until CHUNK_BITS) block(three xor (1 shl l))
+                }
+            }
+        }
+    }
+
+    private fun ensureTables() {
+        if (tablesValid) return
+        val hashed = load().filterValues(Entry::hashed)
+        keys = hashed.keys.toTypedArray()
+        hashes = LongArray(keys.size)
+        heads = Array(CHUNKS) { IntArray(1 shl CHUNK_BITS).apply { fill(-1) } }
+        next = Array(CHUNKS) { IntArray(keys.size) }
+        seen = IntArray(keys.size)
+        seenStamp = 0
+        hashed.values.forEachIndexed { slot, entry ->
+            hashes[slot] = entry.hash
+            for (chunk in 0 until CHUNKS) {
+                val bucket = ((entry.hash ushr (chunk * CHUNK_BITS)) and CHUNK_MASK).toInt()
+                next[chunk][slot] = heads[chunk][bucket]
+                heads[chunk][bucket] = slot
+            }
+        }
+        tablesValid = true
+    }
+
+    private fun hashEntry(path: Path, size: Long, modified: Long): Entry {
+        val hash = runCatching {
+            decodeForHash { options -> BitmapFactory.decodeFile(path.toString(), options) }?.let(::differenceHash)
+        }.getOrNull()
+        return Entry(size, modified, hash ?: 0L, hash != null)
+    }
+
+    /** Decodes the first frame, subsampled to roughly 32px so large stickers stay cheap. */
+    private inline fun decodeForHash(decode: (BitmapFactory.Options?) -> Bitmap?): Bitmap? {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        decode(bounds)
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+        var sampleSize = 1
+        while (bounds.outWidth / (sampleSize * 2) >= 32 && bounds.outHeight / (sampleSize * 2) >= 32) sampleSize *= 2
+        return decode(BitmapFactory.Options().apply { inSampleSize = sampleSize })
+    }
+
+    /**
+     * dHash: shrink to 9x8 grayscale and set one bit per horizontally adjacent pair that gets
+     * brighter. Transparent pixels are composited onto white, matching how stickers are shown.
+     */
+    private fun differenceHash(bitmap: Bitmap): Long {
+        val scaled = Bitmap.createScaledBitmap(bitmap, HASH_WIDTH, HASH_HEIGHT, true)
+        val pixels = IntArray(HASH_WIDTH * HASH_HEIGHT)
+        scaled.getPixels(pixels, 0, HASH_WIDTH, 0, 0, HASH_WIDTH, HASH_HEIGHT)
+        if (scaled !== bitmap) scaled.recycle()
+        bitmap.recycle()
+        val luma = IntArray(pixels.size) { i ->
+            val color = pixels[i]
+            val alpha = Color.alpha(color)
+            val gray = (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000
+            (gray * alpha + 255 * (255 - alpha)) / 255
+        }
+        var hash = 0L
+        var bit = 0
+        for (y in 0 until HASH_HEIGHT) {
+            for (x in 0 until HASH_WIDTH - 1) {
+                if (luma[y * HASH_WIDTH + x] < luma[y * HASH_WIDTH + x + 1]) hash = hash or (1L shl bit)
+                bit++
+            }
+        }
+        return hash
+    }
+
+    private fun load(): LinkedHashMap<String, Entry> {
+        entries?.let { return it }
+        val file = indexFile
+        val loaded = LinkedHashMap<String, Entry>()
+        var records = 0
+        var needsCompact = false
+        if (!file.notExists()) runCatching {
+            DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                    needsCompact = true
+                    return@use
+                }
+                try {
+                    while (true) {
+                        when (input.read()) {
+                            -1 -> break
+                            OP_PUT -> {
+                                val key = input.readUTF()
+                                val size = input.readLong()
+                                val modified = input.readLong()
+                                val hashed = input.readBoolean()
+                                loaded[key] = Entry(size, modified, input.readLong(), hashed)
+                            }
+
+                            OP_REMOVE -> loaded.remove(input.readUTF())
+                            else -> {
+                                needsCompact = true
+                                break
+                            }
+                        }
+                        records++
+                    }
+                } catch (_: EOFException) {
+                    // torn last record from an interrupted append
+                    needsCompact = true
+                }
+            }
+        }.onFailure {
+            WeLogger.w(TAG, "discarding unreadable index: ${it.javaClass.simpleName}")
+            loaded.clear()
+            needsCompact = true
+        }
+        entries = loaded
+        tablesValid = false
+        logRecords = records
+        if (needsCompact) compact(loaded)
+        return loaded
+    }
+
+    private fun DataOutputStream.writePut(key: String, entry: Entry) {
+        writeByte(OP_PUT)
+        writeUTF(key)
+        writeLong(entry.size)
+        writeLong(entry.modified)
+        writeBoolean(entry.hashed)
+        writeLong(entry.hash)
+    }
+
+    private fun DataOutputStream.writeRemove(key: String) {
+        writeByte(OP_REMOVE)
+        writeUTF(key)
+    }
+
+    /**
+     * Appends [count] records to [indexFile]; the in-memory map must already reflect them. Falls back
+     * to a full rewrite when there is no log yet, and compacts once superseded records pile up.
+     */
+    private inline fun appendLog(count: Int, write: DataOutputStream.() -> Unit) {
+        val map = load()
+        val file = indexFile
+        if (file.notExists()) {
+            compact(map)
+            return
+        }
+        runCatching {
+            DataOutputStream(
+                BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND))
+            ).use { it.write() }
+            logRecords += count
+        }.onFailure { WeLogger.w(TAG, "failed to append to index: ${it.javaClass.simpleName}") }
+        if (logRecords > map.size * 2 + COMPACT_SLACK) compact(map)
+    }
+
+    /** Rewrites [indexFile] as one put record per live entry. */
+    private fun compact(map: Map<String, Entry>) {
+        val file = indexFile
+        val temporary = file.resolveSibling("${file.name}.tmp")
+        runCatching {
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(temporary))).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(FORMAT_VERSION)
+                map.forEach { (key, entry) -> output.writePut(key, entry) }
+            }
+            runCatching {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            }.getOrElse { Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING) }
+            logRecords = map.size
+        }.onFailure { WeLogger.w(TAG, "failed to persist index: ${it.javaClass.simpleName}") }
+        temporary.deleteIfExists()
+    }
+}
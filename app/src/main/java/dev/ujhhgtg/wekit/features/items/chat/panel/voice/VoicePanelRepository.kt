@@ -3,6 +3,7 @@ package dev.ujhhgtg.wekit.features.items.chat.panel.voice
 import dev.ujhhgtg.wekit.features.items.chat.panel.LocalSortMode
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelCustomOrders
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelPaths
+import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSearchIndex
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSettings
 import dev.ujhhgtg.wekit.features.items.chat.panel.PanelSource
 import dev.ujhhgtg.wekit.features.items.chat.panel.RECENT_PACK_ID
@@ -27,8 +28,6 @@ import kotlin.io.path.isRegularFile
 import kotlin.io.path.listDirectoryEntries
 import kotlin.io.path.name
 import kotlin.io.path.nameWithoutExtension
-import kotlin.io.path.notExists
-import kotlin.io.path.readText
 import kotlin.io.path.writeText
 
 object VoicePanelRepository {
@@ -40,36 +39,75 @@ object VoicePanelRepository {
     @Serializable
     private data class VoiceStats(val sendCount: Long = 0, val lastSentAt: Long = 0)
 
+    // Durations are probed once per file version and persisted with the index.
+    private val index = PanelLibraryIndex(
+        root = { PanelPaths.voicePanelDir },
+        indexFile = { PanelPaths.voicePanelDir / ".index.json" },
+        isPackDir = { it != PanelPaths.cloneVoiceDir && PanelLibraryIndex.isVisiblePackDir(it) },
+        isEntryName = ::supportsFileName,
+        probe = { AudioUtils.getDurationMs(it.absolutePathString()).coerceAtLeast(0L) },
+    )
+
+    private val statsMetadata = PanelMetadataFile({ statsFile }, emptyMap<String, VoiceStats>()) {
+        DefaultJson.decodeFromString<Map<String, VoiceStats>>(it)
+    }
+    private val onlineRecentsMetadata = PanelMetadataFile({ onlineRecentsFile }, emptyList<VoiceItem>()) {
+        DefaultJson.decodeFromString<List<VoiceItem>>(it)
+    }
+    private val ordersMetadata = PanelMetadataFile({ ordersFile }, PanelCustomOrders()) {
+        DefaultJson.decodeFromString<PanelCustomOrders>(it)
+    }
+    private val metadataFiles = listOf(statsMetadata, onlineRecentsMetadata, ordersMetadata)
+
+    /** The last [loadPacks] result and the index / metadata / settings versions it was built from. */
+    private class PacksView(val key: List<Any>, val packs: List<VoicePack>) {
+        /** Built on the first search against this view; the recents pack is left out. */
+        val searchIndex by lazy {
+            PanelSearchIndex(packs.filter { it.id != RECENT_PACK_ID }.map { it.title to it.items }) { listOf(it.title) }
+        }
+    }
+
+    @Volatile
+    private var packsView: PacksView? = null
+
     fun loadPacks(): List<VoicePack> {
         migrateLegacyRootVoices()
-        val root = PanelPaths.voicePanelDir
+        val indexed = index.packs()
         val stats = readStats()
         val orders = readOrders()
-        val packs = mutableListOf<VoicePack>()
-        root.listDirectoryEntries()
-            .filter { it.isDirectory() && it != PanelPaths.cloneVoiceDir && !it.name.startsWith(".") }
-            .forEach { packDir ->
-                val items = packDir.listDirectoryEntries().filter(::isVoiceFile)
-                    .sortedWith(voiceComparator(packDir.name, stats, orders))
-                    .map { it.toItem(packDir.name, PanelSource.LOCAL, stats) }
-                packs += VoicePack(
-                    id = packDir.name,
-                    title = packDir.name,
-                    source = PanelSource.LOCAL,
-                    itemCount = items.size,
-                    items = items,
-                )
-            }
-        packs.sortWith(packComparator(orders))
+        val onlineRecents = readOnlineRecents()
+        val key = listOf(
+            index.version, statsMetadata.version, ordersMetadata.version, onlineRecentsMetadata.version,
+            PanelSettings.voiceItemSortMode, PanelSettings.voicePackSortMode, historyLimit(),
+        )
+        packsView?.takeIf { it.key == key }?.let { return it.packs }
+
+        val root = PanelPaths.voicePanelDir
+        val lastModifiedByPack = indexed.associate { it.name to it.lastModified }
+        val packs = indexed.mapTo(mutableListOf()) { pack ->
+            val packDir = root / pack.name
+            val items = pack.entries
+                .map { entry -> entry to entry.toItem(packDir, pack.name, stats) }
+                .sortedWith(voiceComparator(pack.name, orders))
+                .map { it.second }
+            VoicePack(
+                id = pack.name,
+                title = pack.name,
+                source = PanelSource.LOCAL,
+                itemCount = items.size,
+                items = items,
+            )
+        }
+        packs.sortWith(packComparator(orders, lastModifiedByPack))
         val recentItems = (packs.asSequence()
             .flatMap { it.items.asSequence() }
-            .filter { it.lastSentAt > 0 } + readOnlineRecents().asSequence())
+            .filter { it.lastSentAt > 0 } + onlineRecents.asSequence())
             .distinctBy(::recentKey)
             .sortedByDescending(VoiceItem::lastSentAt)
             .take(historyLimit())
             .map { it.copy(source = PanelSource.RECENT, packId = RECENT_PACK_ID) }
             .toList()
-        return buildList {
+        val result = buildList {
             if (recentItems.isNotEmpty()) {
                 add(
                     VoicePack(
@@ -83,6 +121,8 @@ object VoicePanelRepository {
             }
             addAll(packs)
         }
+        packsView = PacksView(key, result)
+        return result
     }
 
     fun savePackOrder(packIds: List<String>): Result<Unit> = runCatching {
@@ -122,12 +162,9 @@ object VoicePanelRepository {
         .flatMap { it.items }
 
     fun search(query: String): List<VoiceItem> {
-        val term = query.trim()
-        return loadPacks().filter { it.id != RECENT_PACK_ID }.flatMap { pack ->
-            pack.items.filter {
-                term.isEmpty() || it.title.contains(term, true) || pack.title.contains(term, true)
-            }
-        }
+        val packs = loadPacks()
+        val view = packsView?.takeIf { it.packs === packs } ?: PacksView(emptyList(), packs)
+        return view.searchIndex.search(query)
     }
 
     fun createPack(name: String): Result<String> = runCatching {
@@ -137,6 +174,7 @@ object VoicePanelRepository {
         val destination = packPath(safeName)
         require(Files.notExists(destination)) { "语音包已存在" }
         destination.createDirectories()
+        index.invalidate(safeName)
         safeName
     }
 
@@ -144,6 +182,7 @@ object VoicePanelRepository {
     fun ensurePack(name: String): Result<String> = runCatching {
         val safeName = requirePackName(name)
         packPath(safeName).createDirectories()
+        index.invalidate(safeName)
         safeName
     }
 
@@ -157,6 +196,7 @@ object VoicePanelRepository {
         require(source.isDirectory()) { "语音包不存在" }
         require(Files.notExists(destination)) { "语音包已存在" }
         Files.move(source, destination)
+        index.invalidate(safeName)
         migrateStatsPrefix(source, destination)
         migrateOrders(source.name, destination.name)
     }
@@ -181,6 +221,7 @@ object VoicePanelRepository {
         }.distinct()
         require(paths.isNotEmpty()) { "没有选择语音" }
         paths.forEach { path -> require(path.deleteIfExists()) { "语音不存在" } }
+        paths.mapTo(hashSetOf()) { it.parent.name }.forEach(index::invalidate)
 
         val deletedPaths = paths.mapTo(hashSetOf()) { it.absolutePathString() }
         atomicWrite(
@@ -209,6 +250,7 @@ object VoicePanelRepository {
         val directory = packPath(requirePackName(packId)).also { it.createDirectories() }
         val destination = uniquePath(directory, safeFile)
         input.use { Files.copy(it, destination) }
+        index.invalidate(directory.name)
         destination.toItem(packId, PanelSource.IMPORTED, readStats())
     }
 
@@ -236,6 +278,7 @@ object VoicePanelRepository {
                 )
             }.getOrElse { Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING) }
             temporary.deleteIfExists()
+            index.invalidate(safePack)
         }
         destination.toItem(safePack, PanelSource.IMPORTED, readStats())
     }
@@ -299,51 +342,67 @@ object VoicePanelRepository {
         )
     }
 
-    private fun readStats(): Map<String, VoiceStats> {
-        if (statsFile.notExists()) return emptyMap()
-        return runCatching { DefaultJson.decodeFromString<Map<String, VoiceStats>>(statsFile.readText()) }
-            .getOrDefault(emptyMap())
+    /** Builds an item from the index, using its cached duration instead of probing the file. */
+    private fun PanelLibraryIndex.Entry.toItem(
+        packDir: java.nio.file.Path,
+        packId: String,
+        stats: Map<String, VoiceStats>,
+    ): VoiceItem {
+        val path = (packDir / name).absolutePathString()
+        val itemStats = stats[path] ?: VoiceStats()
+        return VoiceItem(
+            id = path,
+            title = name.substringBeforeLast('.'),
+            localPath = path,
+            source = PanelSource.LOCAL,
+            packId = packId,
+            durationMs = probed,
+            format = name.substringAfterLast('.', "").lowercase(),
+            sendCount = itemStats.sendCount,
+            lastSentAt = itemStats.lastSentAt,
+        )
     }
 
-    private fun readOrders(): PanelCustomOrders {
-        if (ordersFile.notExists()) return PanelCustomOrders()
-        return runCatching {
-            DefaultJson.decodeFromString<PanelCustomOrders>(ordersFile.readText())
-        }.getOrDefault(PanelCustomOrders())
-    }
+    private fun readStats(): Map<String, VoiceStats> = statsMetadata.read()
+
+    private fun readOrders(): PanelCustomOrders = ordersMetadata.read()
 
     private fun voiceComparator(
         packName: String,
-        stats: Map<String, VoiceStats>,
         orders: PanelCustomOrders,
-    ): Comparator<java.nio.file.Path> {
-        val byName = compareBy(String.CASE_INSENSITIVE_ORDER) { path: java.nio.file.Path -> path.name }
+    ): Comparator<Pair<PanelLibraryIndex.Entry, VoiceItem>> {
+        val byName = compareBy(String.CASE_INSENSITIVE_ORDER) { it: Pair<PanelLibraryIndex.Entry, VoiceItem> ->
+            it.first.name
+        }
         return when (PanelSettings.voiceItemSortMode) {
             LocalSortMode.NAME -> byName
-            LocalSortMode.MODIFIED -> compareByDescending<java.nio.file.Path>(::lastModified).then(byName)
-            LocalSortMode.RECENT -> compareByDescending<java.nio.file.Path> {
-                stats[it.absolutePathString()]?.lastSentAt ?: 0L
+            LocalSortMode.MODIFIED -> compareByDescending<Pair<PanelLibraryIndex.Entry, VoiceItem>> {
+                it.first.modified
             }.then(byName)
 
-            LocalSortMode.FREQUENT -> compareByDescending<java.nio.file.Path> {
-                stats[it.absolutePathString()]?.sendCount ?: 0L
+            LocalSortMode.RECENT -> compareByDescending<Pair<PanelLibraryIndex.Entry, VoiceItem>> {
+                it.second.lastSentAt
             }.then(byName)
 
-            LocalSortMode.CUSTOM -> compareBy<java.nio.file.Path> {
-                customOrderIndex(orders.items[packName], it.name)
+            LocalSortMode.FREQUENT -> compareByDescending<Pair<PanelLibraryIndex.Entry, VoiceItem>> {
+                it.second.sendCount
+            }.then(byName)
+
+            LocalSortMode.CUSTOM -> compareBy<Pair<PanelLibraryIndex.Entry, VoiceItem>> {
+                customOrderIndex(orders.items[packName], it.first.name)
             }.then(byName)
         }
     }
 
-    private fun packComparator(orders: PanelCustomOrders): Comparator<VoicePack> {
+    private fun packComparator(
+        orders: PanelCustomOrders,
+        lastModifiedByPack: Map<String, Long>,
+    ): Comparator<VoicePack> {
         val byName = compareBy(String.CASE_INSENSITIVE_ORDER) { pack: VoicePack -> pack.title }
         return when (PanelSettings.voicePackSortMode) {
             LocalSortMode.NAME -> byName
             LocalSortMode.MODIFIED -> compareByDescending<VoicePack> { pack ->
-                maxOf(
-                    lastModified(packPath(pack.id)),
-                    pack.items.maxOfOrNull { it.localPath?.asPath?.let(::lastModified) ?: 0L } ?: 0L,
-                )
+                lastModifiedByPack[pack.id] ?: 0L
             }.then(byName)
 
             LocalSortMode.RECENT -> compareByDescending<VoicePack> { pack ->
@@ -360,13 +419,9 @@ object VoicePanelRepository {
         }
     }
 
-    private fun lastModified(path: java.nio.file.Path): Long =
-        runCatching { Files.getLastModifiedTime(path).toMillis() }.getOrDefault(0L)
-
     private fun readOnlineRecents(): List<VoiceItem> {
-        if (onlineRecentsFile.notExists()) return emptyList()
         return runCatching {
-            DefaultJson.decodeFromString<List<VoiceItem>>(onlineRecentsFile.readText())
+            onlineRecentsMetadata.read()
                 .filter { it.localPath == null && (it.remoteObjectId != null || ':' in it.id) }
         }.getOrDefault(emptyList())
     }
@@ -409,6 +464,7 @@ object VoicePanelRepository {
             Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING)
         }
         temporary.deleteIfExists()
+        metadataFiles.firstOrNull { it.path() == path }?.invalidate()
     }
 
     private fun migrateStatsPrefix(source: java.nio.file.Path, destination: java.nio.file.Path) {
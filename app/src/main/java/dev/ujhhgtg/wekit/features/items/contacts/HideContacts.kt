@@ -6,6 +6,7 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
+import android.content.SharedPreferences
 import android.database.Cursor
 import android.hardware.Sensor
 import android.hardware.SensorEvent
@@ -91,9 +92,15 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
                 WeConversationApi.setDnd(convId, true)
             }
             WePrefs.putStringSet(KEY_CONTACTS, value)
+            WeDatabaseListenerApi.invalidateQueryRewrites()
             WeConversationApi.reloadConversations()
         }
 
+    // onQuery's rewrite is cached, so edits to the set from any process must drop it
+    private val hiddenContactsChangeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+        if (key == null || key == KEY_CONTACTS) WeDatabaseListenerApi.invalidateQueryRewrites()
+    }
+
     private object ScreenOffReceiver : BroadcastReceiver() {
         override fun onReceive(context: Context, intent: Intent?) {
             if (intent?.action != Intent.ACTION_SCREEN_OFF) return
@@ -425,6 +432,7 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
         // --- moments feed ---
 
         WeDatabaseListenerApi.addListener(this)
+        WePrefs.default.registerOnSharedPreferenceChangeListener(hiddenContactsChangeListener)
 
         // --- notification ---
 
@@ -445,6 +453,7 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
         chattingUi = null
         WeChatInputBarApi.removeListener(this)
         WeDatabaseListenerApi.removeListener(this)
+        WePrefs.default.unregisterOnSharedPreferenceChangeListener(hiddenContactsChangeListener)
         temporarilyShown = false
         WeConversationApi.reloadConversations()
     }
@@ -494,6 +503,8 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
     private const val FEED_MARKER_RAW = "(sourceType & 2 != 0 )"
     private const val FEED_MARKER_ENHANCED = "(1=1)"
 
+    override val isRewriteCacheable get() = true
+
     override fun onQuery(sql: String): String? {
         if (temporarilyShown) return null
 
@@ -508,7 +519,7 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
         val filter = " AND SnsInfo.userName NOT IN (" +
                 hidden.joinToString(",") { "\"${it.replace("\"", "\"\"")}\"" } + ") "
 
-        val rewritten = when {
+        return when {
             sql.contains(FEED_MARKER_RAW) ->
                 sql.replaceFirst(FEED_MARKER_RAW, FEED_MARKER_RAW + filter)
 
@@ -516,11 +527,8 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
             sql.contains(FEED_MARKER_ENHANCED) ->
                 sql.replaceFirst(FEED_MARKER_ENHANCED, FEED_MARKER_ENHANCED + filter)
 
-            else -> return null
+            else -> null
         }
-
-        WeLogger.i(TAG, "hid ${hidden.size} contacts from moments feed")
-        return rewritten
     }
 
     // The homepage conversation-list cursor and the native contact-selector list (SelectContactUI /
@@ -635,24 +643,31 @@ object HideContacts : ClickableFeature(), IResolveDex, WeChatInputBarApi.IInputB
             return
         }
 
-        // DB not ready yet: leave the flag unset so we retry on the next launch.
-        if (!WeDatabaseApi.isReady) return
-
-        try {
-            val inClause = hidden.joinToString(",") { "'${it.replace("'", "''")}'" }
-            WeDatabaseApi.execStatement(
-                "UPDATE rconversation SET parentRef = '' " +
-                        "WHERE parentRef = '$LEGACY_HIDDEN_PARENT_REF' " +
-                        "AND username IN ($inClause)"
-            )
-            WePrefs.putBool(KEY_LEGACY_MIGRATED, true)
-            WeLogger.d(TAG, "cleared legacy hidden parentRef markers for ${hidden.size} chats")
-        } catch (ex: Exception) {
-            WeLogger.w(TAG, "failed to clear legacy hidden parentRef markers", ex)
+        // Runs right away if the DB is open, otherwise as soon as it is.
+        WeDatabaseApi.addOnReadyListener {
+            // several onCreate calls may have queued this before the DB opened
+            if (WePrefs.getBoolOrFalse(KEY_LEGACY_MIGRATED)) return@addOnReadyListener
+            try {
+                val inClause = hidden.joinToString(",") { "'${it.replace("'", "''")}'" }
+                WeDatabaseApi.execStatement(
+                    "UPDATE rconversation SET parentRef = '' " +
+                            "WHERE parentRef = '$LEGACY_HIDDEN_PARENT_REF' " +
+                            "AND username IN ($inClause)"
+                )
+                WePrefs.putBool(KEY_LEGACY_MIGRATED, true)
+                WeLogger.d(TAG, "cleared legacy hidden parentRef markers for ${hidden.size} chats")
+            } catch (ex: Exception) {
+                WeLogger.w(TAG, "failed to clear legacy hidden parentRef markers", ex)
+            }
         }
     }
 
     private var temporarilyShown = false
+        set(value) {
+            if (field == value) return
+            field = value
+            WeDatabaseListenerApi.invalidateQueryRewrites()
+        }
 
     private var pendingVoipUser: String? = null
 
@@ -2,6 +2,7 @@ package dev.ujhhgtg.wekit.features.items.contacts
 
 import android.app.Activity
 import dev.ujhhgtg.reflekt.utils.toClassOrNull
+import dev.ujhhgtg.wekit.features.core.ActivationTrigger
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.features.core.SwitchFeature
 import dev.ujhhgtg.wekit.utils.WeLogger
@@ -11,11 +12,15 @@ object RemoveMessageBatchForwardLimit : SwitchFeature() {
 
     private const val TAG = "RemoveMessageBatchForwardLimit"
 
+    private val activityClasses = arrayOf(
+        "com.tencent.mm.ui.mvvm.MvvmSelectContactUI",
+        "com.tencent.mm.ui.mvvm.MvvmContactListUI"
+    )
+
+    override val activationTrigger = ActivationTrigger.OnActivity(*activityClasses)
+
     override fun onEnable() {
-        listOf(
-            "com.tencent.mm.ui.mvvm.MvvmSelectContactUI",
-            "com.tencent.mm.ui.mvvm.MvvmContactListUI"
-        ).forEach {
+        activityClasses.forEach {
             it.toClassOrNull()?.hookBeforeOnCreate {
                 val activity = thisObject as Activity
                 activity.intent.putExtra("max_limit_num", 999)
@@ -25,7 +25,7 @@ object AntiMomentsDelete : SwitchFeature(), WeDatabaseListenerApi.IUpdateListene
     }
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, TBL_SNS_INFO)
     }
 
     override fun onDisable() {
@@ -71,7 +71,7 @@ object AutoRepostMoments : AutoMomentsBase(),
     private var lastActionSentAt = 0L
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "SnsInfo")
         AutoRefresh.addListener(this)
 
         installTimelineHooks()
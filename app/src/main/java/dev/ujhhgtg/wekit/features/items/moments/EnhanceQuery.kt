@@ -18,6 +18,8 @@ object EnhanceQuery : SwitchFeature(), WeDatabaseListenerApi.IQueryListener {
         WeDatabaseListenerApi.removeListener(this)
     }
 
+    override val isRewriteCacheable get() = true
+
     override fun onQuery(sql: String): String? {
         val rewritten = rewriteSql(sql)
 
@@ -56,7 +56,7 @@ object FakeMomentsLikes : SwitchFeature(), WeMomentsContextMenuApi.IMenuItemsPro
         snsUserProtobufClassWxIdField = snsUserProtobufClass.reflekt().firstField { type = String::class }.self
         parseFromMethod = SnsObject::class.reflekt().firstMethod { name = "parseFrom"; superclass() }.self
         WeMomentsContextMenuApi.addProvider(this)
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "SnsInfo")
     }
 
     override fun onDisable() {
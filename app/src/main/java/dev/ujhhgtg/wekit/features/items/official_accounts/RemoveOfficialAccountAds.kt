@@ -119,6 +119,11 @@ object RemoveOfficialAccountAds : SwitchFeature(), IWePacketInterceptor {
     /** 广告创意子消息的 frame_set_name 前缀（field 1）。实测形如 `ad_card87782834896_...`。 */
     private const val AD_CARD_PREFIX = "ad_card"
 
+    // 诊断模式需要看到所有数据包
+    override val uris get() = if (DIAG_ALL_URIS) null else targetUris
+
+    override val interceptsRequests get() = DIAG_ALL_URIS
+
     override fun onEnable() {
         WePacketManager.addInterceptor(this)
     }
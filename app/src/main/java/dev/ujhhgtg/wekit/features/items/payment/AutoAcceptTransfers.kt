@@ -54,7 +54,7 @@ object AutoAcceptTransfers : ClickableFeature(), WeDatabaseListenerApi.IInsertLi
     private var transferAutoReply by WePrefs.prefOption("transfer_auto_reply", "")
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
     }
 
     override fun onDisable() {
@@ -110,7 +110,7 @@ object AutoOpenRedPackets : ClickableFeature(), WeDatabaseListenerApi.IInsertLis
     )
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
 
         methodReceiveOnGYNetEnd.hookAfter {
             val json = args[2] as? JSONObject ?: return@hookAfter
@@ -30,6 +30,10 @@ object ModifyTransferWalletBalanceDisplay : ClickableFeature(), IWePacketInterce
     private const val KEY_CFT_BALANCE = "fake_cft_balance"
     private const val KEY_LQT_BALANCE = "fake_lqt_balance"
 
+    override val cgiIds = setOf(2882)
+
+    override val interceptsRequests get() = false
+
     override fun onEnable() {
         WePacketManager.addInterceptor(this)
     }
@@ -0,0 +1,11 @@
+package dev.ujhhgtg.wekit.features.items.scripting_java
+
+import dev.ujhhgtg.wekit.features.core.Feature
+import dev.ujhhgtg.wekit.features.core.SwitchFeature
+
+@Feature(
+    name = "限时执行脚本回调",
+    categories = ["脚本 (Java)"],
+    description = "在后台线程执行 onHandleMsg 等脚本回调, 每次最多等待 500 毫秒, 避免慢脚本卡住微信\n超时的回调会在后台继续运行, 其返回值 (如拦截发送) 将被忽略\n在主线程触发的回调 (如 onClickSendBtn) 仍在主线程执行"
+)
+object BoundedScriptCallbacks : SwitchFeature() // actual implementation in JavaEngine
@@ -0,0 +1,112 @@
+package dev.ujhhgtg.wekit.features.items.scripting_java
+
+import bsh.Interpreter
+import bsh.snapshot.BshSnapshotHelper
+import dev.ujhhgtg.wekit.BuildConfig
+import dev.ujhhgtg.wekit.utils.BshSnapshotDecompiler
+import dev.ujhhgtg.wekit.utils.WeLogger
+import dev.ujhhgtg.wekit.utils.fs.KnownPaths
+import dev.ujhhgtg.wekit.utils.fs.createDirsSafe
+import dev.ujhhgtg.wekit.utils.reflection.ClassLoaders
+import java.io.ByteArrayInputStream
+import java.nio.file.Path
+import java.security.MessageDigest
+import kotlin.concurrent.thread
+import kotlin.io.path.absolutePathString
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.div
+import kotlin.io.path.exists
+import kotlin.io.path.listDirectoryEntries
+import kotlin.io.path.moveTo
+import kotlin.io.path.name
+import kotlin.io.path.readBytes
+import kotlin.io.path.writeText
+
+/**
+ * Precompiled `.bshs` snapshots of plugin sources, so a cold start evaluates an already parsed AST
+ * instead of parsing every `main.java` again.
+ *
+ * A snapshot is named `<plugin>-<hash>.bshs`, where the hash covers the source text and the module
+ * version code (the BeanShell engine ships inside the module). A changed source or a module update
+ * therefore misses the cache; the plugin is then evaluated from source as before and its snapshot
+ * rebuilt in the background with a throwaway interpreter.
+ */
+internal object BshSnapshotCache {
+
+    private const val TAG = "BshSnapshotCache"
+    private const val HASH_BYTES = 12
+    private const val HASH_CHARS = HASH_BYTES * 2
+
+    private val CACHE_DIR by lazy { (KnownPaths.moduleCache / "bsh_snapshots").createDirsSafe() }
+
+    /**
+     * Evaluates [plugin]'s cached snapshot into its interpreter.
+     *
+     * The file is read, decrypted and deserialized before anything runs; only a failure there drops
+     * the snapshot. Once evaluation has started, errors thrown by the plugin's own top-level code
+     * propagate like they would from source, so the caller never evaluates the source on top of a
+     * partly run snapshot.
+     *
+     * @return false if there is no valid snapshot and the caller has to evaluate the source
+     */
+    fun evalCached(plugin: JavaPlugin): Boolean {
+        val snapshot = snapshotPath(plugin)
+        if (!snapshot.exists()) return false
+        val bytes = try {
+            snapshot.readBytes().also {
+                BshSnapshotHelper.readEncrypted(ByteArrayInputStream(it), BshSnapshotDecompiler.SECRET_KEY)
+            }
+        } catch (e: Exception) {
+            // unreadable file; drop it so the next start rebuilds it
+            WeLogger.w(TAG, "snapshot for ${plugin.name} is unreadable, falling back to source", e)
+            snapshot.deleteIfExists()
+            return false
+        }
+        plugin.interpreter.evalSnapshot(ByteArrayInputStream(bytes), BshSnapshotDecompiler.SECRET_KEY)
+        WeLogger.d(TAG, "loaded ${plugin.name} from snapshot")
+        return true
+    }
+
+    /** Compiles snapshots for [plugins] on a background thread, replacing their stale ones. */
+    fun compileInBackground(plugins: Collection<JavaPlugin>) {
+        if (plugins.isEmpty()) return
+        thread(name = "BshSnapshotCompiler", isDaemon = true) {
+            for (plugin in plugins) {
+                runCatching { compile(plugin) }
+                    .onFailure { WeLogger.w(TAG, "failed to compile snapshot for ${plugin.name}", it) }
+            }
+        }
+    }
+
+    private fun compile(plugin: JavaPlugin) {
+        val target = snapshotPath(plugin)
+        val source = CACHE_DIR / "${target.name}.java.tmp"
+        val temp = CACHE_DIR / "${target.name}.tmp"
+        try {
+            // compile the exact text that was loaded, not whatever main.java holds by now
+            source.writeText(plugin.content)
+            val interpreter = Interpreter(null, "")
+            interpreter.classManager.setClassLoader(ClassLoaders.HYBRID)
+            interpreter.compileSnapshot(source.absolutePathString(), temp.absolutePathString(), BshSnapshotDecompiler.SECRET_KEY)
+            temp.moveTo(target, overwrite = true)
+        } finally {
+            source.deleteIfExists()
+            temp.deleteIfExists()
+        }
+
+        val stalePattern = Regex("${Regex.escape(plugin.name)}-[0-9a-f]{$HASH_CHARS}\\.bshs")
+        for (stale in CACHE_DIR.listDirectoryEntries("*.bshs")) {
+            if (stale != target && stalePattern.matches(stale.name)) stale.deleteIfExists()
+        }
+        WeLogger.d(TAG, "compiled snapshot for ${plugin.name}")
+    }
+
+    private fun snapshotPath(plugin: JavaPlugin): Path {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(BuildConfig.VERSION_CODE.toString().toByteArray())
+        digest.update(0)
+        digest.update(plugin.content.toByteArray())
+        val hash = digest.digest().take(HASH_BYTES).joinToString("") { "%02x".format(it) }
+        return CACHE_DIR / "${plugin.name}-$hash.bshs"
+    }
+}
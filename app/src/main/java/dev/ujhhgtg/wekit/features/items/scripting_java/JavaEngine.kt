@@ -61,9 +61,18 @@ import java.lang.reflect.Proxy
 import java.nio.ByteBuffer
 import java.nio.file.Files
 import java.util.Properties
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.function.Consumer
 import java.util.function.Function
 import kotlin.concurrent.thread
+import kotlin.concurrent.withLock
 import kotlin.io.path.absolutePathString
 import kotlin.io.path.deleteExisting
 import kotlin.io.path.div
@@ -74,8 +83,19 @@ object JavaEngine {
 
     private const val TAG = "JavaEngine"
     private const val WA_MODULE_VER = 1418
+    private const val CALLBACK_BUDGET_MS = 500L
+    private const val CALLBACK_QUEUE_SIZE = 64
+
+    /** A single worker, so a plugin's callbacks never overlap even after one of them times out. */
+    internal fun newCallbackExecutor(pluginName: String): ExecutorService =
+        ThreadPoolExecutor(
+            1, 1, 30L, TimeUnit.SECONDS, ArrayBlockingQueue(CALLBACK_QUEUE_SIZE)
+        ) { runnable ->
+            Thread(runnable, "JavaPluginCallbackThread-$pluginName").apply { isDaemon = true }
+        }.apply { allowCoreThreadTimeOut(true) }
 
     fun executeAllOnLoad(scripts: Map<String, JavaPlugin>) {
+        val uncached = mutableListOf<JavaPlugin>()
         scripts.values.forEach { plugin ->
             if (BypassScriptsDrm.isEnabled) {
                 val hook = object : BshHook {
@@ -102,30 +122,37 @@ object JavaEngine {
 
             try {
                 initPlugin(plugin)
-                plugin.interpreter.eval(plugin.content)
+                if (!BshSnapshotCache.evalCached(plugin)) {
+                    plugin.interpreter.eval(plugin.content)
+                    uncached += plugin
+                }
+                refreshCallbacks(plugin)
 
                 val bshMethod = plugin.interpreter.nameSpace.getMethod("onLoad", emptyArray())
                 bshMethod?.apply {
                     invoke(arrayOf(), plugin.interpreter)
                     WeLogger.i(TAG, "onLoad executed for script ${plugin.name}")
                 }
+                // onLoad may define the handlers itself, e.g. through loadJava() or eval()
+                refreshCallbacks(plugin)
             } catch (e: Exception) {
                 WeLogger.e(TAG, "onLoad execution failed for script ${plugin.name}", e)
             }
         }
+        BshSnapshotCache.compileInBackground(uncached)
     }
 
     fun executeAllOnUnload(scripts: Map<String, JavaPlugin>) {
         scripts.values.forEach { plugin ->
             try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod("onUnload", emptyArray())
-                bshMethod?.apply {
+                plugin.callbacks.onUnload?.apply {
                     invoke(emptyArray(), plugin.interpreter)
                     WeLogger.i(TAG, "onUnload executed for script ${plugin.name}")
                 }
             } catch (e: Exception) {
                 WeLogger.e(TAG, "onUnload execution failed for script ${plugin.name}", e)
             }
+            plugin.callbacks = JavaPluginCallbacks.NONE
         }
     }
 
@@ -133,19 +160,9 @@ object JavaEngine {
         scripts: Map<String, JavaPlugin>,
         msgBean: MsgInfoBean
     ) {
-        scripts.values.forEach { plugin ->
-            try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod(
-                    "onHandleMsg",
-                    arrayOf(MsgInfoBean::class.java)
-                )
-                bshMethod?.apply {
-                    invoke(arrayOf(msgBean), plugin.interpreter)
-                    WeLogger.i(TAG, "onHandleMsg executed for script ${plugin.name}")
-                }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "onHandleMsg execution failed for script ${plugin.name}", e)
-            }
+        for (plugin in scripts.values) {
+            val method = plugin.callbacks.onHandleMsg ?: continue
+            invokeCallback(plugin, "onHandleMsg", method, arrayOf(msgBean))
         }
     }
 
@@ -154,21 +171,11 @@ object JavaEngine {
         param: XC_MethodHook.MethodHookParam,
         text: String
     ) {
-        scripts.values.forEach { plugin ->
-            try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod(
-                    "onClickSendBtn",
-                    arrayOf(BString)
-                )
-                bshMethod?.apply {
-                    val ifIntercept = invoke(arrayOf(text), plugin.interpreter)
-                    WeLogger.i(TAG, "onClickSendBtn executed for script ${plugin.name}; ifIntercept=${ifIntercept}")
-                    if (ifIntercept == true) {
-                        param.result = null
-                    }
-                }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "onClickSendBtn execution failed for script ${plugin.name}", e)
+        for (plugin in scripts.values) {
+            val method = plugin.callbacks.onClickSendBtn ?: continue
+            val ifIntercept = invokeCallback(plugin, "onClickSendBtn", method, arrayOf(text))
+            if (ifIntercept == true) {
+                param.result = null
             }
         }
     }
@@ -180,19 +187,9 @@ object JavaEngine {
         userWxid: String,
         userName: String
     ) {
-        scripts.values.forEach { plugin ->
-            try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod(
-                    "onMemberChange",
-                    arrayOf(String::class.java, String::class.java, String::class.java, String::class.java)
-                )
-                bshMethod?.apply {
-                    invoke(arrayOf(type, groupWxid, userWxid, userName), plugin.interpreter)
-                    WeLogger.i(TAG, "onMemberChange executed for script ${plugin.name}")
-                }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "onMemberChange execution failed for script ${plugin.name}", e)
-            }
+        for (plugin in scripts.values) {
+            val method = plugin.callbacks.onMemberChange ?: continue
+            invokeCallback(plugin, "onMemberChange", method, arrayOf(type, groupWxid, userWxid, userName))
         }
     }
 
@@ -202,19 +199,9 @@ object JavaEngine {
         ticket: String,
         scene: Int
     ) {
-        scripts.values.forEach { plugin ->
-            try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod(
-                    "onNewFriend",
-                    arrayOf(String::class.java, String::class.java, Integer.TYPE)
-                )
-                bshMethod?.apply {
-                    invoke(arrayOf<Any>(wxid, ticket, scene), plugin.interpreter)
-                    WeLogger.i(TAG, "onNewFriend executed for script ${plugin.name}")
-                }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "onNewFriend execution failed for script ${plugin.name}", e)
-            }
+        for (plugin in scripts.values) {
+            val method = plugin.callbacks.onNewFriend ?: continue
+            invokeCallback(plugin, "onNewFriend", method, arrayOf(wxid, ticket, scene))
         }
     }
 
@@ -222,20 +209,62 @@ object JavaEngine {
         scripts: Map<String, JavaPlugin>,
         payMsgBean: me.hd.wauxv.data.bean.PayMsgBean
     ) {
-        scripts.values.forEach { plugin ->
-            try {
-                val bshMethod = plugin.interpreter.nameSpace.getMethod(
-                    "onRecvPayMsg",
-                    arrayOf(Any::class.java)
-                )
-                bshMethod?.apply {
-                    invoke(arrayOf(payMsgBean), plugin.interpreter)
-                    WeLogger.i(TAG, "onRecvPayMsg executed for script ${plugin.name}")
+        for (plugin in scripts.values) {
+            val method = plugin.callbacks.onRecvPayMsg ?: continue
+            invokeCallback(plugin, "onRecvPayMsg", method, arrayOf(payMsgBean))
+        }
+    }
+
+    /** Re-resolves which event callbacks [plugin] defines; call whenever its namespace is (re)populated. */
+    fun refreshCallbacks(plugin: JavaPlugin) {
+        plugin.callbacks = JavaPluginCallbacks.resolve(plugin.interpreter.nameSpace)
+    }
+
+    /**
+     * Runs one plugin callback and returns its result, or null if it failed. Callbacks of one plugin
+     * never overlap, since they share its [JavaPlugin.interpreter].
+     *
+     * With [BoundedScriptCallbacks] on, a callback fired off the main thread runs on the plugin's
+     * [JavaPlugin.callbackExecutor] and the caller (often WeChat's DB thread) waits at most
+     * [CALLBACK_BUDGET_MS]; a callback that overruns keeps running but its result is dropped, and
+     * events are dropped outright while the queue is full. Callbacks fired on the main thread, such
+     * as onClickSendBtn, are not offloaded so they can touch views; they wait at most
+     * [CALLBACK_BUDGET_MS] for the plugin's previous callback and are dropped after that.
+     */
+    private fun invokeCallback(plugin: JavaPlugin, event: String, method: BshMethod, args: Array<Any?>): Any? {
+        try {
+            val lock = plugin.callbackLock
+            val result = when {
+                !BoundedScriptCallbacks.isEnabled -> lock.withLock { method.invoke(args, plugin.interpreter) }
+
+                Looper.myLooper() == Looper.getMainLooper() -> {
+                    if (!lock.tryLock(CALLBACK_BUDGET_MS, TimeUnit.MILLISECONDS)) {
+                        WeLogger.w(TAG, "$event for script ${plugin.name} dropped, a previous callback is still running")
+                        return null
+                    }
+                    try {
+                        method.invoke(args, plugin.interpreter)
+                    } finally {
+                        lock.unlock()
+                    }
                 }
-            } catch (e: Exception) {
-                WeLogger.e(TAG, "onRecvPayMsg execution failed for script ${plugin.name}", e)
+
+                else -> plugin.callbackExecutor
+                    .submit(Callable { lock.withLock { method.invoke(args, plugin.interpreter) } })
+                    .get(CALLBACK_BUDGET_MS, TimeUnit.MILLISECONDS)
             }
+            WeLogger.d(TAG, "$event executed for script ${plugin.name}; result=$result")
+            return result
+        } catch (_: TimeoutException) {
+            WeLogger.w(TAG, "$event for script ${plugin.name} exceeded ${CALLBACK_BUDGET_MS}ms, result ignored")
+        } catch (_: RejectedExecutionException) {
+            WeLogger.w(TAG, "$event for script ${plugin.name} dropped, callback queue is full")
+        } catch (e: ExecutionException) {
+            WeLogger.e(TAG, "$event execution failed for script ${plugin.name}", e.cause ?: e)
+        } catch (e: Exception) {
+            WeLogger.e(TAG, "$event execution failed for script ${plugin.name}", e)
         }
+        return null
     }
 
     fun initPlugin(plugin: JavaPlugin) {
@@ -548,7 +577,7 @@ object JavaEngine {
                     "eval", arrayOf(BString)
                 ) {
                     val source = it[0] as String
-                    return@BshMethod plugin.interpreter.eval(source)
+                    return@BshMethod plugin.interpreter.eval(source).also { refreshCallbacks(plugin) }
                 })
 
             // loadJava(path) — sources a Java file into the interpreter
@@ -568,7 +597,7 @@ object JavaEngine {
                             return@BshMethod null
                         }
                     }
-                    plugin.interpreter.source(absPath)
+                    plugin.interpreter.source(absPath).also { refreshCallbacks(plugin) }
                 })
 
             // loadJar(path) — adds a JAR to the interpreter's classloader
@@ -642,6 +671,7 @@ object JavaEngine {
                     }
                     runCatching {
                         plugin.interpreter.evalSnapshot(snapFile.absolutePath, BshSnapshotDecompiler.SECRET_KEY)
+                            .also { refreshCallbacks(plugin) }
                     }.onFailure { e ->
                         WeLogger.e(TAG, "evalSnapshot failed for $resolved", e)
                     }.getOrNull()
@@ -1910,6 +1940,7 @@ object JavaEngine {
             setMethod(BshMethod("evalSnapshot", arrayOf(InputStream::class.java)) { args ->
                 runCatching {
                     plugin.interpreter.evalSnapshot(args[0] as InputStream, BshSnapshotDecompiler.SECRET_KEY)
+                    refreshCallbacks(plugin)
                 }.onFailure { WeLogger.e(TAG, "evalSnapshot failed", it) }
             })
             setMethod(BshMethod("uploadDeviceStep", arrayOf(java.lang.Long.TYPE)) { args ->
@@ -1929,6 +1960,7 @@ object JavaEngine {
                 val pluginName = plugin.name
                 WeLogger.i(TAG, "reloading plugin: $pluginName")
                 initPlugin(plugin)
+                refreshCallbacks(plugin)
             })
 
             // ===== Utility =====
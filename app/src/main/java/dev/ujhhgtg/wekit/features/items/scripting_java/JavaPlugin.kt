@@ -1,7 +1,13 @@
 package dev.ujhhgtg.wekit.features.items.scripting_java
 
+import bsh.BshMethod
 import bsh.Interpreter
+import bsh.NameSpace
+import dev.ujhhgtg.wekit.utils.reflection.BString
+import me.hd.wauxv.data.bean.MsgInfoBean
 import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.locks.ReentrantLock
 
 data class JavaPluginInfo(
     val name: String,
@@ -17,6 +23,16 @@ data class JavaPlugin(
     val content: String,
     val interpreter: Interpreter
 ) {
+    /** Event callbacks resolved after the plugin is evaluated; see [JavaEngine.refreshCallbacks]. */
+    @Volatile
+    var callbacks = JavaPluginCallbacks.NONE
+
+    /** Held while a callback runs in [interpreter], which is not thread-safe. */
+    internal val callbackLock = ReentrantLock()
+
+    /** Runs this plugin's offloaded callbacks one at a time; see [JavaEngine.invokeCallback]. */
+    internal val callbackExecutor: ExecutorService by lazy { JavaEngine.newCallbackExecutor(name) }
+
     companion object {
         fun parseInfoProp(content: String): JavaPluginInfo {
             val props = mutableMapOf<String, String>()
@@ -37,3 +53,31 @@ data class JavaPlugin(
         }
     }
 }
+
+/** The callbacks a plugin defines, looked up once so events can skip plugins without a handler. */
+class JavaPluginCallbacks(
+    val onUnload: BshMethod?,
+    val onHandleMsg: BshMethod?,
+    val onClickSendBtn: BshMethod?,
+    val onMemberChange: BshMethod?,
+    val onNewFriend: BshMethod?,
+    val onRecvPayMsg: BshMethod?,
+) {
+    companion object {
+        val NONE = JavaPluginCallbacks(null, null, null, null, null, null)
+
+        fun resolve(nameSpace: NameSpace): JavaPluginCallbacks {
+            fun method(name: String, vararg params: Class<*>): BshMethod? =
+                runCatching { nameSpace.getMethod(name, arrayOf(*params)) }.getOrNull()
+
+            return JavaPluginCallbacks(
+                onUnload = method("onUnload"),
+                onHandleMsg = method("onHandleMsg", MsgInfoBean::class.java),
+                onClickSendBtn = method("onClickSendBtn", BString),
+                onMemberChange = method("onMemberChange", BString, BString, BString, BString),
+                onNewFriend = method("onNewFriend", BString, BString, Integer.TYPE),
+                onRecvPayMsg = method("onRecvPayMsg", Any::class.java),
+            )
+        }
+    }
+}
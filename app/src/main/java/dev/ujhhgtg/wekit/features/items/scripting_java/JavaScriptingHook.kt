@@ -74,7 +74,8 @@ object JavaScriptingHook : ClickableFeature(), IResolveDex, WeDatabaseListenerAp
     }
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addInsertListener("fmessage_msginfo", this)
+        WeDatabaseListenerApi.addUpdateListener("chatroom", this)
 
         WeMessageApi.methodMsgInfoHandleApiInsertMessage.hookAfter {
             val msgObj = args[0] ?: return@hookAfter
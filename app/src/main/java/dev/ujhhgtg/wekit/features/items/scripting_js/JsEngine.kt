@@ -1,48 +1,35 @@
 package dev.ujhhgtg.wekit.features.items.scripting_js
 
+import dev.ujhhgtg.wekit.features.api.net.WeProtoData
 import dev.ujhhgtg.wekit.utils.WeLogger
-import org.json.JSONObject
-import org.mozilla.javascript.Context
-import org.mozilla.javascript.Function
-import org.mozilla.javascript.NativeObject
-import org.mozilla.javascript.ScriptableObject
 
 object JsEngine {
 
     private const val TAG = "JsEngine"
 
+    /** Compiles [scripts] once via [JsScriptHost], then runs each script's onLoad(). */
     fun executeAllOnLoad(scripts: Map<String, String>) {
-        for (script in scripts) {
-            WeLogger.d(TAG, "executing onLoad for script name='${script.key}'")
+        JsScriptHost.load(scripts)
+        for (script in JsScriptHost.scripts) {
+            val fn = script.onLoad
+            if (fn == null) {
+                WeLogger.d(TAG, "JS script name='${script.name}' does not define onLoad()")
+                continue
+            }
+            WeLogger.d(TAG, "executing onLoad for script name='${script.name}'")
             try {
-                executeOnLoad(script.value)
+                JsScriptHost.call(script, fn)
             } catch (e: Exception) {
-                WeLogger.e(TAG, "script name='${script.key}' threw during onLoad", e)
+                WeLogger.e(TAG, "script name='${script.name}' threw during onLoad", e)
             }
         }
     }
 
-    private fun executeOnLoad(script: String) {
-        val cx: Context = Context.enter()
-        try {
-            val scope = cx.init()
-
-            cx.evaluateString(scope, script, "JsScript", 1, null)
-
-            val fn = scope.get("onLoad", scope)
-            if (fn == ScriptableObject.NOT_FOUND || fn !is Function) {
-                WeLogger.d(TAG, "JS script does not define onLoad()")
-                return
-            }
-
-            fn.call(cx, scope, scope, arrayOf<Any?>())
-        } finally {
-            Context.exit()
-        }
+    fun unloadAll() {
+        JsScriptHost.clear()
     }
 
     fun executeAllOnMessage(
-        scripts: Map<String, String>,
         talker: String,
         content: String,
         type: Int,
@@ -53,162 +40,61 @@ object JsEngine {
             return
         }
 
-        for (script in scripts) {
-            WeLogger.d(TAG, "evaluating script name='${script.key}'")
+        for (script in JsScriptHost.scripts) {
+            val fn = script.onMessage ?: continue
+            WeLogger.d(TAG, "evaluating script name='${script.name}'")
 
             try {
-                executeOnMessage(script.value, talker, content, type, isSend)
+                JsScriptHost.call(script, fn, talker, content, type, isSend)
             } catch (e: Exception) {
-                WeLogger.e(TAG, "script name='${script.key}' threw during onMessage", e)
+                WeLogger.e(TAG, "script name='${script.name}' threw during onMessage", e)
             }
         }
     }
 
-    private fun executeOnMessage(
-        script: String,
-        talker: String,
-        content: String,
-        type: Int,
-        isSend: Int,
-    ) {
-        val cx: Context = Context.enter()
-        try {
-            val scope = cx.init()
+    val hasRequestHandlers get() = JsScriptHost.scripts.any { it.onRequest != null }
 
-            cx.evaluateString(scope, script, "JsScript", 1, null)
-
-            val fn = scope.get("onMessage", scope)
-            if (fn == ScriptableObject.NOT_FOUND || fn !is Function) {
-                WeLogger.w(TAG, "JS script does not define onMessage()")
-                return
-            }
-
-            fn.call(cx, scope, scope, arrayOf<Any?>(talker, content, type, isSend))
-        } finally {
-            Context.exit()
-        }
-    }
+    val hasResponseHandlers get() = JsScriptHost.scripts.any { it.onResponse != null }
 
+    /** Runs every onRequest over a live view of [data]; returns whether any script changed it. */
     fun executeAllOnRequest(
         uri: String,
         cgiId: Int,
-        json: JSONObject,
-    ): JSONObject {
-        var modifiedJson = json
+        data: WeProtoData,
+    ): Boolean {
+        val scripts = JsScriptHost.scripts.filter { it.onRequest != null }
+        if (scripts.isEmpty()) return false
 
-        for (script in JsScriptingHook.scripts) {
+        val bridge = JsScriptHost.protoBridge(data) ?: return false
+        for (script in scripts) {
             try {
-                val result = executeOnRequest(script.value, uri, cgiId, modifiedJson)
-                if (result != null) {
-                    modifiedJson = result
-                }
+                JsScriptHost.callWithProto(script, script.onRequest!!, uri, cgiId, bridge)
             } catch (e: Exception) {
-                WeLogger.e(TAG, "script name='${script.key}' threw during onRequest", e)
+                WeLogger.e(TAG, "script name='${script.name}' threw during onRequest", e)
             }
         }
 
-        return modifiedJson
-    }
-
-
-    private fun executeOnRequest(
-        script: String,
-        uri: String,
-        cgiId: Int,
-        json: JSONObject,
-    ): JSONObject? {
-        val cx: Context = Context.enter()
-        try {
-            val scope = cx.init()
-
-            val jsonStr = json.toString()
-            val jsonObj = cx.evaluateString(scope, "($jsonStr)", "json", 1, null)
-
-            cx.evaluateString(scope, script, "JsScript", 1, null)
-
-            val fn = scope.get("onRequest", scope)
-            if (fn == ScriptableObject.NOT_FOUND || fn !is Function) {
-                return null
-            }
-
-            val result = fn.call(cx, scope, scope, arrayOf<Any?>(uri, cgiId, jsonObj))
-                ?: return null
-
-            val resultStr = when (result) {
-                is NativeObject -> {
-                    val stringify = scope.get("JSON", scope) as NativeObject
-                    val stringifyFn = stringify.get("stringify", stringify) as Function
-                    stringifyFn.call(cx, scope, stringify, arrayOf(result)) as String
-                }
-
-                is String -> result
-                else -> return null
-            }
-
-            return JSONObject(resultStr)
-        } finally {
-            Context.exit()
-        }
+        return bridge.modified
     }
 
+    /** Runs every onResponse over a live view of [data]; returns whether any script changed it. */
     fun executeAllOnResponse(
         uri: String,
         cgiId: Int,
-        json: JSONObject,
-    ): JSONObject {
-        var modifiedJson = json
+        data: WeProtoData,
+    ): Boolean {
+        val scripts = JsScriptHost.scripts.filter { it.onResponse != null }
+        if (scripts.isEmpty()) return false
 
-        for (script in JsScriptingHook.scripts) {
+        val bridge = JsScriptHost.protoBridge(data) ?: return false
+        for (script in scripts) {
             try {
-                val result = executeOnResponse(script.value, uri, cgiId, modifiedJson)
-                if (result != null) {
-                    modifiedJson = result
-                }
+                JsScriptHost.callWithProto(script, script.onResponse!!, uri, cgiId, bridge)
             } catch (e: Exception) {
-                WeLogger.e(TAG, "script name='${script.key}' threw during onResponse", e)
+                WeLogger.e(TAG, "script name='${script.name}' threw during onResponse", e)
             }
         }
 
-        return modifiedJson
-    }
-
-    private fun executeOnResponse(
-        script: String,
-        uri: String,
-        cgiId: Int,
-        json: JSONObject,
-    ): JSONObject? {
-        val cx: Context = Context.enter()
-        try {
-            val scope = cx.init()
-
-            val jsonStr = json.toString()
-            val jsonObj = cx.evaluateString(scope, "($jsonStr)", "json", 1, null)
-
-            cx.evaluateString(scope, script, "JsScript", 1, null)
-
-            val fn = scope.get("onResponse", scope)
-            if (fn == ScriptableObject.NOT_FOUND || fn !is Function) {
-                return null
-            }
-
-            val result = fn.call(cx, scope, scope, arrayOf<Any?>(uri, cgiId, jsonObj))
-                ?: return null
-
-            val resultStr = when (result) {
-                is NativeObject -> {
-                    val stringify = scope.get("JSON", scope) as NativeObject
-                    val stringifyFn = stringify.get("stringify", stringify) as Function
-                    stringifyFn.call(cx, scope, stringify, arrayOf(result)) as String
-                }
-
-                is String -> result
-                else -> return null
-            }
-
-            return JSONObject(resultStr)
-        } finally {
-            Context.exit()
-        }
+        return bridge.modified
     }
 }
@@ -0,0 +1,183 @@
+package dev.ujhhgtg.wekit.features.items.scripting_js
+
+import dev.ujhhgtg.wekit.features.api.net.WeProtoData
+import org.json.JSONArray
+import org.json.JSONObject
+import org.mozilla.javascript.BaseFunction
+import org.mozilla.javascript.Callable
+import org.mozilla.javascript.Context
+import org.mozilla.javascript.NativeArray
+import org.mozilla.javascript.Scriptable
+import org.mozilla.javascript.ScriptableObject
+import org.mozilla.javascript.Undefined
+import org.mozilla.javascript.Wrapper
+import java.util.IdentityHashMap
+
+/**
+ * Live JS view of a [WeProtoData] packet for the onRequest / onResponse hooks, in place of the old
+ * JSON text round trip.
+ *
+ * Reads give the same shapes as [WeProtoData.toJsonObject]: field-number keys, numbers, UTF-8 or
+ * `hex->` strings, nested objects, and array-likes for repeated fields. Writes and deletes go
+ * straight into the message. [modified] records whether anything was written, so an untouched
+ * packet is passed through without being re-encoded.
+ */
+internal class JsProtoBridge(private val data: WeProtoData, private val scope: Scriptable) {
+
+    var modified = false
+        private set
+
+    private val messages = IdentityHashMap<WeProtoData, ProtoMessage>()
+
+    val root: Scriptable get() = message(data)
+
+    /**
+     * Applies a callback's return value. Nothing, or the view itself, keeps the in-place edits;
+     * another object or a JSON string replaces the packet content, as the JSON hooks used to.
+     */
+    fun applyResult(result: Any?) {
+        val json = when (result) {
+            null, is Undefined -> return
+            is ProtoMessage -> if (result.message === data) return else result.message.toJsonObject()
+            is CharSequence -> JSONObject(result.toString())
+            is Scriptable -> toJsonValue(result) as? JSONObject ?: return
+            else -> return
+        }
+        if (data.applyViewJson(json, true) > 0) modified = true
+    }
+
+    private fun message(message: WeProtoData): ProtoMessage =
+        messages.getOrPut(message) { ProtoMessage(message) }
+
+    private fun wrap(value: Any?): Any = when (value) {
+        null -> Scriptable.NOT_FOUND
+        is WeProtoData -> message(value)
+        else -> value
+    }
+
+    private fun changed(changes: Int) {
+        if (changes > 0) modified = true
+    }
+
+    /** True if writing [value] over [current] (a [WeProtoData.viewValue]) would change nothing. */
+    private fun isSame(current: Any?, value: Any?): Boolean = when (current) {
+        null -> false
+        is WeProtoData -> value is ProtoMessage && value.message === current
+        is String -> value is CharSequence && value.toString() == current
+        is Number -> value is Number && value.toDouble() == current.toDouble() && value.toLong() == current.toLong()
+        else -> false
+    }
+
+    /** Converts a JS value to what [WeProtoData.applyViewJson] expects; null means "remove". */
+    private fun toJsonValue(value: Any?): Any? = when (value) {
+        null, is Undefined, is Callable -> null
+        is ProtoMessage -> value.message.toJsonObject()
+        is RepeatedField -> JSONArray().apply {
+            for (i in 0 until value.size) put(toJsonValue(wrap(value.message.viewValue(value.number, i))))
+        }
+
+        is CharSequence -> value.toString()
+        is Boolean -> value
+        is Number -> value.takeUnless { it is Double && (it.isNaN() || it.isInfinite()) }
+        is Wrapper -> toJsonValue(value.unwrap())
+        is NativeArray -> JSONArray().apply {
+            for (i in 0 until value.length.toInt()) put(toJsonValue(value.get(i, value)))
+        }
+
+        is Scriptable -> JSONObject().apply {
+            for (id in value.ids) {
+                val v = if (id is Int) value.get(id, value) else value.get(id.toString(), value)
+                toJsonValue(v)?.let { put(id.toString(), it) }
+            }
+        }
+
+        else -> null
+    }
+
+    private inner class ProtoMessage(val message: WeProtoData) :
+        ScriptableObject(scope, ScriptableObject.getObjectPrototype(scope)) {
+
+        override fun getClassName() = "Object"
+
+        override fun get(index: Int, start: Scriptable): Any = field(index) ?: super.get(index, start)
+
+        override fun get(name: String, start: Scriptable): Any =
+            name.toIntOrNull()?.let(::field) ?: super.get(name, start)
+
+        override fun has(index: Int, start: Scriptable) = message.fieldCount(index) > 0
+
+        override fun has(name: String, start: Scriptable): Boolean {
+            val number = name.toIntOrNull() ?: return super.has(name, start)
+            return message.fieldCount(number) > 0
+        }
+
+        override fun put(index: Int, start: Scriptable, value: Any?) = setField(index, value)
+
+        override fun put(name: String, start: Scriptable, value: Any?) {
+            val number = name.toIntOrNull() ?: return super.put(name, start, value)
+            setField(number, value)
+        }
+
+        override fun delete(index: Int) = changed(message.removeAllOccurrences(index))
+
+        override fun delete(name: String) {
+            val number = name.toIntOrNull() ?: return super.delete(name)
+            changed(message.removeAllOccurrences(number))
+        }
+
+        override fun getIds(): Array<Any> = message.fieldNumbers().map<Int, Any> { it }.toTypedArray() + super.getIds()
+
+        private fun field(number: Int): Any? = when (message.fieldCount(number)) {
+            0 -> null
+            1 -> wrap(message.viewValue(number, 0))
+            else -> RepeatedField(message, number)
+        }
+
+        private fun setField(number: Int, value: Any?) {
+            if (value is RepeatedField && value.message === message && value.number == number) return
+            if (message.fieldCount(number) == 1 && isSame(message.viewValue(number, 0), value)) return
+            changed(message.applyViewValue(number, toJsonValue(value)))
+        }
+    }
+
+    /** Array-like over every occurrence of one field; `JSON.stringify` sees a real array via `toJSON`. */
+    private inner class RepeatedField(val message: WeProtoData, val number: Int) :
+        ScriptableObject(scope, ScriptableObject.getArrayPrototype(scope)) {
+
+        val size: Int get() = message.fieldCount(number)
+
+        override fun getClassName() = "Object"
+
+        override fun get(index: Int, start: Scriptable): Any =
+            if (index in 0 until size) wrap(message.viewValue(number, index)) else super.get(index, start)
+
+        override fun get(name: String, start: Scriptable): Any = when (name) {
+            "length" -> size
+            "toJSON" -> toJson
+            else -> super.get(name, start)
+        }
+
+        override fun has(index: Int, start: Scriptable) = index in 0 until size
+
+        override fun has(name: String, start: Scriptable) =
+            name == "length" || name == "toJSON" || super.has(name, start)
+
+        override fun put(index: Int, start: Scriptable, value: Any?) {
+            if (index < 0) return
+            if (isSame(message.viewValue(number, index), value)) return
+            changed(message.applyViewValue(number, index, toJsonValue(value)))
+        }
+
+        override fun put(name: String, start: Scriptable, value: Any?) {
+            // length is derived from the message; pushes and deletes go through the index setters
+            if (name != "length") super.put(name, start, value)
+        }
+
+        override fun getIds(): Array<Any> = Array(size) { it }
+
+        private val toJson = object : BaseFunction() {
+            override fun call(cx: Context, scope: Scriptable, thisObj: Scriptable?, args: Array<Any?>): Any =
+                cx.newArray(scope, Array(size) { this@RepeatedField.get(it, this@RepeatedField) })
+        }
+    }
+}
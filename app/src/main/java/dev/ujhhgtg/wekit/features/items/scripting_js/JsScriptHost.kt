@@ -0,0 +1,122 @@
+package dev.ujhhgtg.wekit.features.items.scripting_js
+
+import dev.ujhhgtg.wekit.features.api.net.WeProtoData
+import dev.ujhhgtg.wekit.utils.WeLogger
+import org.mozilla.javascript.Context
+import org.mozilla.javascript.Function
+import org.mozilla.javascript.Scriptable
+import org.mozilla.javascript.ScriptableObject
+
+/**
+ * Long-lived Rhino state for the loaded JS scripts.
+ *
+ * The standard objects and every [JsApiExposer] binding are built once into a shared scope; the
+ * scope, the standard objects and the exposed API objects are all sealed, so no script can replace
+ * `JSON`, `Array.prototype` or `http.get` for the others.
+ * Each script is compiled once and its top level runs once, in its own scope that inherits from
+ * the shared one, so scripts can't see or clobber each other's globals. The callbacks are resolved
+ * right after that run; an event then costs one function call per script that defines its callback.
+ */
+internal object JsScriptHost {
+
+    private const val TAG = "JsScriptHost"
+
+    class LoadedScript(
+        val name: String,
+        val scope: Scriptable,
+        val onLoad: Function?,
+        val onMessage: Function?,
+        val onRequest: Function?,
+        val onResponse: Function?,
+    )
+
+    @Volatile
+    var scripts: List<LoadedScript> = emptyList()
+        private set
+
+    @Volatile
+    private var sharedScope: Scriptable? = null
+
+    /** Compiles [sources] (name -> source) and runs their top level, replacing any loaded scripts. */
+    fun load(sources: Map<String, String>) {
+        scripts = withContext { cx ->
+            val shared = cx.initStandardObjects(null, true)
+            JsApiExposer.exposeApis(shared)
+            // the standard objects are sealed above; the exposed APIs are the scope's enumerable properties
+            sealDeep(shared)
+            sharedScope = shared
+            sources.mapNotNull { (name, source) ->
+                try {
+                    val scope = cx.newObject(shared).apply {
+                        prototype = shared
+                        parentScope = null
+                    }
+                    cx.compileString(source, name, 1, null).exec(cx, scope)
+                    LoadedScript(
+                        name = name,
+                        scope = scope,
+                        onLoad = scope.function("onLoad"),
+                        onMessage = scope.function("onMessage"),
+                        onRequest = scope.function("onRequest"),
+                        onResponse = scope.function("onResponse"),
+                    )
+                } catch (e: Exception) {
+                    WeLogger.e(TAG, "script name='$name' failed to load", e)
+                    null
+                }
+            }
+        }
+    }
+
+    fun clear() {
+        scripts = emptyList()
+        sharedScope = null
+    }
+
+    /**
+     * Calls [fn] in [script]'s scope. Calls into one script are serialized, since its globals now
+     * persist across events and hooks arrive on several threads.
+     */
+    fun call(script: LoadedScript, fn: Function, vararg args: Any?): Any? = synchronized(script) {
+        withContext { cx -> fn.call(cx, script.scope, script.scope, arrayOf(*args)) }
+    }
+
+    /**
+     * A live view of [data] for the packet callbacks, shared by every script handling that packet;
+     * null if the scripts were cleared in the meantime.
+     */
+    fun protoBridge(data: WeProtoData): JsProtoBridge? {
+        val scope = sharedScope ?: return null
+        return JsProtoBridge(data, scope)
+    }
+
+    /** Calls a packet callback with `(uri, cgiId, packet)`; edits land in [bridge]. */
+    fun callWithProto(script: LoadedScript, fn: Function, uri: String, cgiId: Int, bridge: JsProtoBridge) =
+        synchronized(script) {
+            withContext { cx ->
+                bridge.applyResult(fn.call(cx, script.scope, script.scope, arrayOf<Any?>(uri, cgiId, bridge.root)))
+            }
+        }
+
+    private inline fun <T> withContext(block: (Context) -> T): T {
+        val cx = Context.enter()
+        try {
+            cx.isInterpretedMode = true
+            return block(cx)
+        } finally {
+            Context.exit()
+        }
+    }
+
+    /** Seals [value] and every object reachable through its own enumerable properties. */
+    private fun sealDeep(value: Any?, seen: MutableSet<ScriptableObject> = HashSet()) {
+        if (value !is ScriptableObject || !seen.add(value)) return
+        value.ids.forEach { id ->
+            sealDeep(if (id is Int) value.get(id, value) else value.get(id.toString(), value), seen)
+        }
+        value.sealObject()
+    }
+
+    private fun Scriptable.function(name: String): Function? =
+        ScriptableObject.getProperty(this, name) as? Function
+}
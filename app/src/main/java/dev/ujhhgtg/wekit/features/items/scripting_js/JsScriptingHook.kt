@@ -26,7 +26,7 @@ object JsScriptingHook : SwitchFeature(),
     val scripts = ConcurrentHashMap<String, String>()
 
     override fun onEnable() {
-        WeDatabaseListenerApi.addListener(this)
+        WeDatabaseListenerApi.addListener(this, "message")
 
         WeLogger.d(TAG, "loading js scripts...")
         for (path in SCRIPTS_DIR.listDirectoryEntries("*.js")) {
@@ -52,14 +52,19 @@ object JsScriptingHook : SwitchFeature(),
         val content = values.getAsString("content") ?: return
         val type = values.getAsInteger("type") ?: 0
 
-        JsEngine.executeAllOnMessage(scripts, talker, content, type, isSend)
+        JsEngine.executeAllOnMessage(talker, content, type, isSend)
     }
 
     override fun onDisable() {
         WeDatabaseListenerApi.removeListener(this)
         scripts.clear()
+        JsEngine.unloadAll()
     }
 
+    override val interceptsRequests get() = OnRequest.isEnabled && JsEngine.hasRequestHandlers
+
+    override val interceptsResponses get() = OnResponse.isEnabled && JsEngine.hasResponseHandlers
+
     // --- onRequest ---
     override fun onRequest(uri: String, cgiId: Int, reqBytes: ByteArray): ByteArray? {
         if (!isEnabled) return null
@@ -67,10 +72,8 @@ object JsScriptingHook : SwitchFeature(),
 
         try {
             val data = WeProtoData.fromBytes(reqBytes)
-            val json = data.toJsonObject()
-            val modifiedJson = JsEngine.executeAllOnRequest(uri, cgiId, json)
-            data.applyViewJson(modifiedJson, true)
-            return data.toPacketBytes()
+            // untouched packets go out as they came in, without a re-encode
+            if (JsEngine.executeAllOnRequest(uri, cgiId, data)) return data.toPacketBytes()
         } catch (e: Exception) {
             WeLogger.e(TAG, "onRequest failed", e)
         }
@@ -85,10 +88,8 @@ object JsScriptingHook : SwitchFeature(),
 
         try {
             val data = WeProtoData.fromBytes(respBytes)
-            val json = data.toJsonObject()
-            val modifiedJson = JsEngine.executeAllOnResponse(uri, cgiId, json)
-            data.applyViewJson(modifiedJson, true)
-            return data.toPacketBytes()
+            // untouched packets go out as they came in, without a re-encode
+            if (JsEngine.executeAllOnResponse(uri, cgiId, data)) return data.toPacketBytes()
         } catch (e: Exception) {
             WeLogger.e(TAG, "onResponse failed", e)
         }
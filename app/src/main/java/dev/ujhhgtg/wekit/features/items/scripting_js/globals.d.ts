@@ -1085,8 +1085,8 @@ declare function onMessage(
  * 
  * @param uri 请求的目标 URI
  * @param cgiId 请求的 CGI ID
- * @param json 请求数据体对象。可以直接修改它的属性
- * @returns 必须返回修改后的对象，否则修改不会生效
+ * @param json 请求数据体的实时视图，键为字段号。对它的修改会直接写回数据包；未修改时原样放行，不会重新编码
+ * @returns 可不返回；返回 json 本身与不返回相同，返回其他对象则以其内容覆盖数据体
  * 
  * @warning 此函数会阻塞请求发送，避免进行耗时操作
  * @warning API 可能在后续版本中改变以支持修改 uri 和 cgiId
@@ -1102,15 +1102,15 @@ declare function onMessage(
  *   return json;
  * }
  */
-declare function onRequest(uri: string, cgiId: number, json: Record<string, unknown>): Record<string, unknown>;
+declare function onRequest(uri: string, cgiId: number, json: Record<string, unknown>): Record<string, unknown> | void;
 
 /**
  * 响应钩子 - 拦截并修改微信收到的网络响应
  * 
  * @param uri 请求的目标 URI
  * @param cgiId 请求的 CGI ID
- * @param json 响应数据体对象。可以直接修改它的属性
- * @returns 必须返回修改后的对象，否则修改不会生效
+ * @param json 响应数据体的实时视图，键为字段号。对它的修改会直接写回数据包；未修改时原样放行，不会重新编码
+ * @returns 可不返回；返回 json 本身与不返回相同，返回其他对象则以其内容覆盖数据体
  * 
  * @warning 此函数会阻塞响应处理，避免进行耗时操作
  * @warning API 可能在后续版本中改变以支持修改 uri 和 cgiId
@@ -1131,7 +1131,7 @@ declare function onRequest(uri: string, cgiId: number, json: Record<string, unkn
  *   return json;
  * }
  */
-declare function onResponse(uri: string, cgiId: number, json: Record<string, unknown>): Record<string, unknown>;
+declare function onResponse(uri: string, cgiId: number, json: Record<string, unknown>): Record<string, unknown> | void;
 
 // --- 常用辅助函数（建议在脚本中定义） ---
 
@@ -4,6 +4,7 @@ import android.app.Activity
 import android.widget.Button
 import com.tencent.mm.plugin.webwx.ui.ExtDeviceWXLoginUI
 import dev.ujhhgtg.reflekt.reflekt
+import dev.ujhhgtg.wekit.features.core.ActivationTrigger
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.features.core.SwitchFeature
 
@@ -14,6 +15,8 @@ object AutoApproveDeviceLogin : SwitchFeature() {
     private const val SHOW_LOGIN_DEVICE = 0x2
     private const val AUTO_LOGIN_DEVICE = 0x4
 
+    override val activationTrigger = ActivationTrigger.OnActivity("com.tencent.mm.plugin.webwx.ui.ExtDeviceWXLoginUI")
+
     override fun onEnable() {
         val targetClass = ExtDeviceWXLoginUI::class.java
 
@@ -1,7 +1,7 @@
 package dev.ujhhgtg.wekit.features.items.system
 
 import dev.ujhhgtg.wekit.features.api.net.WePacketManager
-import dev.ujhhgtg.wekit.features.api.net.WeProtoData
+import dev.ujhhgtg.wekit.features.api.net.WeProtoView
 import dev.ujhhgtg.wekit.features.api.net.abc.IWePacketInterceptor
 import dev.ujhhgtg.wekit.features.core.Feature
 import dev.ujhhgtg.wekit.features.core.SwitchFeature
@@ -14,6 +14,10 @@ object RemoveArticleAds : SwitchFeature(), IWePacketInterceptor {
 
     private const val TAG = "RemoveArticleAds"
 
+    override val cgiIds = setOf(21909)
+
+    override val interceptsRequests get() = false
+
     override fun onEnable() {
         WePacketManager.addInterceptor(this)
     }
@@ -26,13 +30,10 @@ object RemoveArticleAds : SwitchFeature(), IWePacketInterceptor {
         if (cgiId != 21909) return null
 
         try {
-            val data = WeProtoData.fromBytes(respBytes)
-            val json = data.toJsonObject()
-
-            // 获取字段2
-            val field2 = json.optJSONObject("2") ?: return null
-            // 获取字段3中的广告JSON字符串
-            val adJsonStr = field2.optString("3") ?: return null
+            // 只定位字段 2.3 中的广告JSON字符串，不解析整个响应
+            val view = WeProtoView.fromBytes(respBytes)
+            val adJsonField = view.path(2, 3)?.takeIf { it.wireType == 2 } ?: return null
+            val adJsonStr = adJsonField.utf8()
 
             // 解析广告JSON
             val adJson = runCatching { JSONObject(adJsonStr) }.getOrElse { return null }
@@ -75,10 +76,9 @@ object RemoveArticleAds : SwitchFeature(), IWePacketInterceptor {
 
             if (modified) {
                 // 放回修改后的广告JSON
-                field2.put("3", adJson.toString())
-                data.applyViewJson(json, true)
+                adJsonField.setUtf8(adJson.toString())
                 WeLogger.d(TAG, "cleared article ads")
-                return data.toPacketBytes()
+                return view.toPacketBytes()
             }
 
         } catch (e: Exception) {
@@ -1363,7 +1363,7 @@ object ApiServer : ClickableFeature() {
                 deferred.complete(values)
             }
 
-            WeDatabaseListenerApi.addListener(listener)
+            WeDatabaseListenerApi.addAsyncListener(listener, "message")
             val values = try {
                 withTimeoutOrNull(timeoutMs.milliseconds) { deferred.await() }
             } finally {
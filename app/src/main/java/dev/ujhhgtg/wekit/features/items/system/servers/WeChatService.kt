@@ -439,8 +439,9 @@ object WeChatService {
 
     fun audioMp3ToSilk(srcPath: String, destPath: String): Result<Unit> =
         runCatching {
-            AudioUtils.anyToSilk(srcPath, destPath)
-            Result.Success(Unit)
+            AudioUtils.anyToSilkStreaming(srcPath, destPath, null)
+                ?.let { Result.Error(it) }
+                ?: Result.Success(Unit)
         }.getOrElse { Result.Error(it.message ?: "Failed to convert mp3 to silk") }
 
     fun audioSilkToMp3(srcPath: String, destPath: String): Result<Unit> =
@@ -0,0 +1,45 @@
+package dev.ujhhgtg.wekit.preferences
+
+import android.content.SharedPreferences
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.properties.ReadWriteProperty
+import kotlin.reflect.KProperty
+
+/**
+ * A preference delegate that reads through to [WePrefs.default] once and then serves the value
+ * from memory. Change notifications for [key], from this process or another one, drop the cached
+ * value so the next read loads it again.
+ */
+internal class CachedPrefOption<T>(
+    private val key: String,
+    private val read: () -> T,
+    private val write: (T) -> Unit,
+) : ReadWriteProperty<Any?, T>, SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // a fresh marker per invalidation, so a load racing with a change can't store the stale value
+    private class Unset
+
+    private val value = AtomicReference<Any?>(Unset())
+
+    private val registration by lazy { WePrefs.default.registerOnSharedPreferenceChangeListener(this) }
+
+    override fun getValue(thisRef: Any?, property: KProperty<*>): T {
+        val current = value.get()
+        if (current !is Unset) {
+            @Suppress("UNCHECKED_CAST")
+            return current as T
+        }
+        registration
+        val loaded = read()
+        value.compareAndSet(current, loaded)
+        return loaded
+    }
+
+    override fun setValue(thisRef: Any?, property: KProperty<*>, value: T) {
+        write(value)
+    }
+
+    override fun onSharedPreferenceChanged(prefs: SharedPreferences?, key: String?) {
+        if (key == null || key == this.key) value.set(Unset())
+    }
+}
@@ -1,19 +1,67 @@
 package dev.ujhhgtg.wekit.preferences
 
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
 import android.content.SharedPreferences
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import androidx.core.content.ContextCompat
 import com.tencent.mmkv.MMKV
+import dev.ujhhgtg.wekit.utils.HostInfo
 import dev.ujhhgtg.wekit.utils.WeLogger
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.ObjectInputStream
 import java.io.ObjectOutputStream
 import java.io.Serializable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicBoolean
 
-class MmkvPrefsImpl(name: String) : WePrefs() {
+class MmkvPrefsImpl(private val name: String) : WePrefs() {
 
     private val mmkvInstance = MMKV.mmkvWithID(name, MMKV.MULTI_PROCESS_MODE)
 
+    private val listeners = CopyOnWriteArraySet<SharedPreferences.OnSharedPreferenceChangeListener>()
+
+    // keys written here but not yet announced to the other processes
+    private val pendingKeys = ConcurrentHashMap.newKeySet<String>()
+    private val broadcastScheduled = AtomicBoolean(false)
+
+    // bursts of writes go out as one broadcast
+    private val broadcastHandler by lazy { Handler(Looper.getMainLooper()) }
+
+    // registered the first time anyone in this process listens
+    private val remoteChanges by lazy {
+        val receiver = object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                if (intent.getStringExtra(EXTRA_NAME) != name) return
+                if (intent.getIntExtra(EXTRA_PID, 0) == Process.myPid()) return
+                val keys = intent.getStringArrayExtra(EXTRA_KEYS) ?: return
+                mmkvInstance.checkContentChangedByOuterProcess()
+                for (key in keys) dispatchChanged(key.ifEmpty { null })
+            }
+        }
+        runCatching {
+            ContextCompat.registerReceiver(
+                HostInfo.application, receiver, IntentFilter(ACTION_CHANGED),
+                ContextCompat.RECEIVER_NOT_EXPORTED
+            )
+        }.onFailure { WeLogger.w(TAG, "failed to listen for preference changes from other processes", it) }
+        receiver
+    }
+
     companion object {
+        private const val TAG = "MmkvPrefsImpl"
+        private const val ACTION_CHANGED = "dev.ujhhgtg.wekit.action.PREFS_CHANGED"
+        private const val EXTRA_NAME = "name"
+        private const val EXTRA_KEYS = "keys"
+        private const val EXTRA_PID = "pid"
+        private const val BROADCAST_DELAY_MS = 100L
+
         const val TYPE_SUFFIX = $$"$shadow$type"
         private const val TYPE_BOOL = 0x80 + 2
         private const val TYPE_INT = 0x80 + 4
@@ -70,7 +118,7 @@ class MmkvPrefsImpl(name: String) : WePrefs() {
                 val bytes = mmkvInstance.getBytes(key, null) ?: return null
                 runCatching {
                     ObjectInputStream(ByteArrayInputStream(bytes)).readObject()
-                }.onFailure { WeLogger.e("MmkvPrefsImpl", "failed when getting Serializable object", it) }.getOrNull()
+                }.onFailure { WeLogger.e(TAG, "failed when getting Serializable object", it) }.getOrNull()
             }
 
             else -> null
@@ -96,6 +144,7 @@ class MmkvPrefsImpl(name: String) : WePrefs() {
                 ObjectOutputStream(outputStream).writeObject(obj)
                 mmkvInstance.putBytes(key, outputStream.toByteArray())
                 mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_SERIALIZABLE)
+                notifyChanged(key)
             }.onFailure { throw RuntimeException(it) }
 
             else -> throw IllegalArgumentException("unsupported type ${obj::class}")
@@ -106,36 +155,42 @@ class MmkvPrefsImpl(name: String) : WePrefs() {
     override fun putString(key: String, value: String?): WePrefs {
         mmkvInstance.putString(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_STRING)
+        notifyChanged(key)
         return this
     }
 
     override fun putStringSet(key: String, values: Set<String>?): WePrefs {
         mmkvInstance.putStringSet(key, values)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_STRING_SET)
+        notifyChanged(key)
         return this
     }
 
     override fun putInt(key: String, value: Int): WePrefs {
         mmkvInstance.putInt(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_INT)
+        notifyChanged(key)
         return this
     }
 
     override fun putLong(key: String, value: Long): WePrefs {
         mmkvInstance.putLong(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_LONG)
+        notifyChanged(key)
         return this
     }
 
     override fun putFloat(key: String, value: Float): WePrefs {
         mmkvInstance.putFloat(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_FLOAT)
+        notifyChanged(key)
         return this
     }
 
     override fun putBoolean(key: String, value: Boolean): WePrefs {
         mmkvInstance.putBoolean(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_BOOL)
+        notifyChanged(key)
         return this
     }
 
@@ -148,16 +203,19 @@ class MmkvPrefsImpl(name: String) : WePrefs() {
     override fun putBytes(key: String, value: ByteArray) {
         mmkvInstance.putBytes(key, value)
         mmkvInstance.putInt(key + TYPE_SUFFIX, TYPE_BYTES)
+        notifyChanged(key)
     }
 
     override fun remove(key: String): WePrefs {
         mmkvInstance.remove(key)
         mmkvInstance.remove(key + TYPE_SUFFIX)
+        notifyChanged(key)
         return this
     }
 
     override fun clear(): WePrefs {
         mmkvInstance.clear()
+        notifyChanged(null)
         return this
     }
 
@@ -170,7 +228,49 @@ class MmkvPrefsImpl(name: String) : WePrefs() {
     override val isReadOnly: Boolean = false
     override val isPersistent: Boolean = true
 
-    override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {}
+    /**
+     * [listener] hears about writes from every WeChat process: writes here call it directly, and
+     * writes elsewhere arrive through a broadcast. A null key means everything was cleared.
+     */
+    override fun registerOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        remoteChanges
+        listeners.add(listener)
+    }
 
-    override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {}
+    override fun unregisterOnSharedPreferenceChangeListener(listener: SharedPreferences.OnSharedPreferenceChangeListener) {
+        listeners.remove(listener)
+    }
+
+    private fun notifyChanged(key: String?) {
+        dispatchChanged(key)
+
+        // "" stands for clear() in the broadcast
+        pendingKeys.add(key ?: "")
+        if (broadcastScheduled.compareAndSet(false, true)) {
+            broadcastHandler.postDelayed(::broadcastPending, BROADCAST_DELAY_MS)
+        }
+    }
+
+    private fun dispatchChanged(key: String?) {
+        for (listener in listeners) {
+            runCatching { listener.onSharedPreferenceChanged(this, key) }
+                .onFailure { WeLogger.e(TAG, "change listener failed for key $key", it) }
+        }
+    }
+
+    private fun broadcastPending() {
+        broadcastScheduled.set(false)
+        val keys = pendingKeys.toTypedArray()
+        pendingKeys.removeAll(keys.toSet())
+        if (keys.isEmpty()) return
+        runCatching {
+            HostInfo.application.sendBroadcast(
+                Intent(ACTION_CHANGED)
+                    .setPackage(HostInfo.packageName)
+                    .putExtra(EXTRA_NAME, name)
+                    .putExtra(EXTRA_KEYS, keys)
+                    .putExtra(EXTRA_PID, Process.myPid())
+            )
+        }.onFailure { WeLogger.w(TAG, "failed to broadcast preference changes", it) }
+    }
 }
@@ -230,6 +230,20 @@ abstract class WePrefs protected constructor() : SharedPreferences, SharedPrefer
                 }
             }
 
+        // -- Cached delegate properties, for options read on hot paths --
+
+        fun cachedPrefOption(key: String, defValue: Boolean): ReadWriteProperty<Any?, Boolean> =
+            CachedPrefOption(key, { default.getBoolean(key, defValue) }, { putBool(key, it) })
+
+        fun cachedPrefOption(key: String, defValue: Int): ReadWriteProperty<Any?, Int> =
+            CachedPrefOption(key, { getIntOrDef(key, defValue) }, { putInt(key, it) })
+
+        fun cachedPrefOption(key: String, defValue: Long): ReadWriteProperty<Any?, Long> =
+            CachedPrefOption(key, { getLongOrDef(key, defValue) }, { putLong(key, it) })
+
+        fun cachedPrefOption(key: String, defValue: String): ReadWriteProperty<Any?, String> =
+            CachedPrefOption(key, { getStringOrDef(key, defValue) }, { putString(key, it) })
+
         inline fun <reified T : Any> prefOption(
             key: String,
             defValue: T
@@ -28,32 +28,19 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.unit.dp
 import dev.ujhhgtg.wekit.dexkit.abc.IResolveDex
-import dev.ujhhgtg.wekit.dexkit.cache.DexCacheManager
-import dev.ujhhgtg.wekit.features.core.BaseFeature
+import dev.ujhhgtg.wekit.dexkit.engine.DexResolveEngine
 import dev.ujhhgtg.wekit.utils.WeLogger
 import dev.ujhhgtg.wekit.utils.android.copyToClipboard
 import dev.ujhhgtg.wekit.utils.android.showToast
 import dev.ujhhgtg.wekit.utils.reflection.DexKit
 import dev.ujhhgtg.wekit.utils.restartHost
-import dev.ujhhgtg.wekit.utils.unreachable
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
 import kotlinx.coroutines.channels.Channel
-import kotlinx.coroutines.flow.asFlow
-import kotlinx.coroutines.flow.buffer
-import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.launch
-import org.luckypray.dexkit.DexKitBridge
 import java.io.PrintWriter
 import java.io.StringWriter
-
-private sealed class ScanProgress {
-    data class Start(val displayName: String) : ScanProgress()
-    data class Complete(val displayName: String) : ScanProgress()
-    data class Failed(val displayName: String, val error: Exception) : ScanProgress()
-}
+import kotlin.time.Duration
 
 private sealed class ScanResult {
     data class Success(val displayName: String) : ScanResult()
@@ -63,7 +50,7 @@ private sealed class ScanResult {
 private sealed class DialogPhase {
     object Idle : DialogPhase()
     object Scanning : DialogPhase()
-    data class Done(val failed: List<ScanResult.Failed>) : DialogPhase()
+    data class Done(val failed: List<ScanResult.Failed>, val elapsed: Duration) : DialogPhase()
     data class Error(val message: String) : DialogPhase()
 }
 
@@ -81,76 +68,42 @@ fun DexResolver(
     var completed by remember { mutableIntStateOf(0) }
     val scanResults = remember { mutableStateMapOf<String, ScanResult>() }
 
-    fun updateProgress(progress: ScanProgress) {
-        when (progress) {
-            is ScanProgress.Complete -> {
-                scanResults[progress.displayName] = ScanResult.Success(progress.displayName)
+    fun updateProgress(event: DexResolveEngine.Event) {
+        when (event) {
+            is DexResolveEngine.Event.Completed -> {
+                scanResults[event.displayName] = ScanResult.Success(event.displayName)
                 completed = scanResults.size
-                currentTask = "已完成: ${progress.displayName}"
+                currentTask = "已完成: ${event.displayName} (${event.timing.busy.inWholeMilliseconds}ms)"
             }
 
-            is ScanProgress.Failed -> {
-                scanResults[progress.displayName] = ScanResult.Failed(progress.displayName, progress.error)
+            is DexResolveEngine.Event.Failed -> {
+                scanResults[event.displayName] = ScanResult.Failed(event.displayName, event.error)
                 completed = scanResults.size
-                currentTask = "失败: ${progress.displayName}"
+                currentTask = "失败: ${event.displayName}"
             }
 
             else -> {}
         }
     }
 
-    suspend fun scanItem(
-        item: IResolveDex,
-        dexKit: DexKitBridge,
-        progressChannel: Channel<ScanProgress>
-    ): ScanResult {
-        val displayName = if (item is BaseFeature) item.displayName else unreachable()
-        return try {
-            progressChannel.send(ScanProgress.Start(displayName))
-
-            item.resolveInlineDex(dexKit)
-            item.resolveDex(dexKit)
-
-            DexCacheManager.saveItemCache(item)
-            progressChannel.send(ScanProgress.Complete(displayName))
-            ScanResult.Success(displayName)
-        } catch (e: Exception) {
-            WeLogger.e(TAG, "failed to scan: $displayName", e)
-            progressChannel.send(ScanProgress.Failed(displayName, e))
-            ScanResult.Failed(displayName, e)
-        }
-    }
-
     fun startScanning() {
         phase = DialogPhase.Scanning
         scope.launch {
             try {
-                val progressChannel = Channel<ScanProgress>(Channel.UNLIMITED)
+                val progressChannel = Channel<DexResolveEngine.Event>(Channel.UNLIMITED)
 
                 // progress consumer on Main
                 launch(Dispatchers.Main) {
                     for (p in progressChannel) updateProgress(p)
                 }
 
-                // parallel scan — same flow/buffer/async structure
-                val results = outdatedItems.asFlow()
-                    .map { item ->
-                        async(Dispatchers.IO) {
-                            scanItem(
-                                item,
-                                DexKit,
-                                progressChannel
-                            )
-                        }
-                    }
-                    .buffer(8)
-                    .map { it.await() }
-                    .toList()
+                // 依赖感知的并行扫描；成功项由引擎写入缓存
+                val report = DexResolveEngine(DexKit).resolve(outdatedItems) { progressChannel.send(it) }
 
                 progressChannel.close()
 
-                val failed = results.filterIsInstance<ScanResult.Failed>()
-                phase = DialogPhase.Done(failed)
+                val failed = report.failed.map { ScanResult.Failed(it.displayName, it.error) }
+                phase = DialogPhase.Done(failed, report.elapsed)
             } catch (e: Exception) {
                 WeLogger.e(TAG, "scanning failed", e)
                 phase = DialogPhase.Error("扫描过程中发生未知错误: ${e.message}")
@@ -210,7 +163,7 @@ fun DexResolver(
 
                 is DialogPhase.Scanning -> null
                 is DialogPhase.Done ->
-                    if (p.failed.isEmpty()) "适配完成! 所有功能已成功更新 DEX 缓存"
+                    if (p.failed.isEmpty()) "适配完成! 所有功能已成功更新 DEX 缓存 (耗时 ${p.elapsed.inWholeMilliseconds}ms)"
                     else "适配完成, 但有 ${p.failed.size} 个功能失败 (不影响其他功能使用)"
 
                 is DialogPhase.Error -> p.message
@@ -2041,6 +2041,7 @@ private fun StickerSettingsContent(
     var removeRoundedVideoMask by remember {
         mutableStateOf(PanelSettings.stickerRemoveRoundedVideoMask)
     }
+    var similarityLocalOnly by remember { mutableStateOf(PanelSettings.stickerSimilarityLocalOnly) }
     var clientIdPrompt by remember { mutableStateOf(false) }
     var telegramTokenPrompt by remember { mutableStateOf(false) }
     var numberPrompt by remember { mutableStateOf(false) }
@@ -2069,6 +2070,22 @@ private fun StickerSettingsContent(
                     },
                 )
             }
+            item {
+                ListItem(
+                    colors = panelListItemColors(),
+                    headlineContent = { Text("相似表情仅搜索本地") },
+                    supportingContent = { Text("不请求在线服务，只在本地表情库中查找") },
+                    trailingContent = {
+                        Switch(
+                            checked = similarityLocalOnly,
+                            onCheckedChange = {
+                                similarityLocalOnly = it
+                                PanelSettings.stickerSimilarityLocalOnly = it
+                            },
+                        )
+                    },
+                )
+            }
             item { PanelFunBoxApiClientIdSetting { clientIdPrompt = true } }
             item {
                 PanelDropdownSetting(
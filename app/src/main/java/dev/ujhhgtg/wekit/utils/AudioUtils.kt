@@ -1,9 +1,43 @@
 package dev.ujhhgtg.wekit.utils
 
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.isActive
+
 object AudioUtils {
 
+    /** Progress of a streaming conversion. [totalMs] is 0 if the input doesn't report a duration. */
+    fun interface TranscodeListener {
+        /** @return false to cancel the conversion */
+        fun onProgress(processedMs: Long, totalMs: Long): Boolean
+    }
+
     external fun anyToSilk(mp3Path: String, silkPath: String): Boolean
     external fun silkToPcm(silkPath: String, pcmPath: String): Boolean
     external fun pcmToMp3(silkPath: String, pcmPath: String): Boolean
     external fun getDurationMs(path: String): Long
+
+    /**
+     * Decodes, downmixes, resamples and SILK-encodes [srcPath] in one streaming pass with fixed-size
+     * buffers, so memory use doesn't grow with the input's duration. [listener] is called every
+     * ~250 ms of decoded audio, from the converting thread.
+     *
+     * @return null on success, otherwise the error message; the partial output is removed
+     */
+    external fun anyToSilkStreaming(srcPath: String, silkPath: String, listener: TranscodeListener?): String?
+
+    /** [anyToSilkStreaming] for coroutines: cancelling the caller aborts the native conversion. */
+    suspend fun convertToSilk(
+        srcPath: String,
+        silkPath: String,
+        onProgress: ((processedMs: Long, totalMs: Long) -> Unit)? = null,
+    ): Result<Unit> {
+        val context = currentCoroutineContext()
+        val error = anyToSilkStreaming(srcPath, silkPath) { processedMs, totalMs ->
+            onProgress?.invoke(processedMs, totalMs)
+            context.isActive
+        }
+        context.ensureActive()
+        return if (error == null) Result.success(Unit) else Result.failure(IllegalStateException(error))
+    }
 }
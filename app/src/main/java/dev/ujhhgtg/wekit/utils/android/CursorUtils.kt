@@ -0,0 +1,23 @@
+package dev.ujhhgtg.wekit.utils.android
+
+import android.database.Cursor
+
+// 按列索引读取当前行，列不存在 (index < 0) 或值为 NULL 时返回空值，不装箱
+
+fun Cursor.stringOrEmpty(index: Int): String {
+    if (index < 0) return ""
+    return when (getType(index)) {
+        Cursor.FIELD_TYPE_NULL -> ""
+        Cursor.FIELD_TYPE_INTEGER -> getLong(index).toString()
+        Cursor.FIELD_TYPE_FLOAT -> getDouble(index).toString()
+        Cursor.FIELD_TYPE_BLOB -> ""
+        else -> getString(index) ?: ""
+    }
+}
+
+fun Cursor.longOrZero(index: Int): Long {
+    if (index < 0) return 0L
+    return if (getType(index) == Cursor.FIELD_TYPE_INTEGER) getLong(index) else 0L
+}
+
+fun Cursor.intOrZero(index: Int): Int = longOrZero(index).toInt()
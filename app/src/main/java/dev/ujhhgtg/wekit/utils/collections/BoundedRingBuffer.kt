@@ -0,0 +1,65 @@
+package dev.ujhhgtg.wekit.utils.collections
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * 有界无锁环形队列，多生产者 / 单消费者。
+ *
+ * 每个槽位带一个序号：生产者 CAS 抢占写入位置后写入元素并发布序号，
+ * 消费者只在序号就绪时取出元素。队列满时 [offer] 直接返回 false，从不阻塞调用方。
+ *
+ * [poll] 同一时刻只能由一个线程调用。
+ */
+class BoundedRingBuffer<E : Any>(capacity: Int) {
+
+    val capacity: Int = Integer.highestOneBit((capacity.coerceAtLeast(2) - 1) shl 1)
+
+    private val mask = this.capacity - 1
+    private val slots = AtomicReferenceArray<E?>(this.capacity)
+    private val sequences = AtomicLongArray(this.capacity).also { seq ->
+        for (i in 0 until this.capacity) seq.set(i, i.toLong())
+    }
+    private val head = AtomicLong()
+    private val tail = AtomicLong()
+
+    /** 没有可供 [poll] 取出的元素；正在写入但尚未发布的元素不计入 */
+    val isEmpty: Boolean
+        get() {
+            val pos = tail.get()
+            return sequences.get((pos and mask.toLong()).toInt()) != pos + 1
+        }
+
+    val size: Int get() = (head.get() - tail.get()).coerceIn(0, this.capacity.toLong()).toInt()
+
+    fun offer(element: E): Boolean {
+        var pos = head.get()
+        while (true) {
+            val index = (pos and mask.toLong()).toInt()
+            val diff = sequences.get(index) - pos
+            when {
+                diff == 0L -> if (head.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, element)
+                    sequences.set(index, pos + 1)
+                    return true
+                } else {
+                    pos = head.get()
+                }
+                diff < 0L -> return false
+                else -> pos = head.get()
+            }
+        }
+    }
+
+    fun poll(): E? {
+        val pos = tail.get()
+        val index = (pos and mask.toLong()).toInt()
+        if (sequences.get(index) != pos + 1) return null
+        val element = slots.get(index)
+        slots.lazySet(index, null)
+        sequences.set(index, pos + this.capacity)
+        tail.set(pos + 1)
+        return element
+    }
+}
@@ -3,7 +3,7 @@ use mp3lame_encoder::{Bitrate, Builder, FlushNoGap, MonoPcm, Quality};
 use silk_v3_sys::*;
 use std::ffi::c_void;
 use std::fs::File;
-use std::io::{BufReader, Read, Seek, SeekFrom, Write};
+use std::io::{BufReader, BufWriter, Read, Seek, SeekFrom, Write};
 use std::path::Path;
 use symphonia::core::codecs::audio::AudioDecoderOptions;
 use symphonia::core::formats::FormatOptions;
@@ -14,7 +14,28 @@ use symphonia::core::meta::MetadataOptions;
 
 use crate::{loge, logi};
 
-pub fn any_to_pcm_mono(path: &str) -> Result<(Vec<i16>, u32)> {
+/// Sample rate WeChat voice messages are encoded at.
+const SILK_SAMPLE_RATE: u32 = 24000;
+/// Samples per 20 ms SILK frame at [`SILK_SAMPLE_RATE`].
+const SILK_FRAME_SIZE: usize = (SILK_SAMPLE_RATE as usize * SILK_FRAME_MS as usize) / 1000;
+/// How much decoded audio passes between two progress callbacks.
+const PROGRESS_INTERVAL_MS: u64 = 250;
+
+/// What [`decode_mono_stream`] learned about the selected track.
+struct StreamInfo {
+    sample_rate: u32,
+    /// 0 when the container doesn't report a frame count.
+    duration_ms: u64,
+}
+
+/// Decodes `path` packet by packet, downmixes each packet to mono and hands it to `sink`.
+///
+/// The interleaved and mono buffers are reused across packets, so memory stays bounded by the
+/// largest packet rather than growing with the input's duration.
+fn decode_mono_stream(
+    path: &str,
+    mut sink: impl FnMut(&StreamInfo, &[i16]) -> Result<()>,
+) -> Result<StreamInfo> {
     let file = Box::new(File::open(path)?);
     let mss = MediaSourceStream::new(file, Default::default());
 
@@ -35,6 +56,14 @@ pub fn any_to_pcm_mono(path: &str) -> Result<(Vec<i16>, u32)> {
         .default_track(TrackType::Audio)
         .ok_or_else(|| anyhow!("No audio track found in: {}", path))?;
     let track_id = track.id;
+    let duration_ms = track
+        .num_frames
+        .zip(track.time_base)
+        .and_then(|(n_frames, time_base)| {
+            time_base.calc_time(symphonia::core::units::Timestamp::from(n_frames as i64))
+        })
+        .map(|duration| duration.as_millis() as u64)
+        .unwrap_or(0);
     let audio_params = track
         .codec_params
         .as_ref()
@@ -42,12 +71,18 @@ pub fn any_to_pcm_mono(path: &str) -> Result<(Vec<i16>, u32)> {
         .ok_or_else(|| anyhow!("No audio codec params in: {}", path))?;
     let sample_rate = audio_params
         .sample_rate
+        .filter(|&rate| rate > 0)
         .ok_or_else(|| anyhow!("Unknown sample rate in: {}", path))?;
 
     let mut decoder = symphonia::default::get_codecs()
         .make_audio_decoder(audio_params, &AudioDecoderOptions::default())?;
 
-    let mut samples: Vec<i16> = Vec::new();
+    let info = StreamInfo {
+        sample_rate,
+        duration_ms,
+    };
+    let mut interleaved: Vec<i16> = Vec::new();
+    let mut mono: Vec<i16> = Vec::new();
 
     loop {
         let packet = match format.next_packet() {
@@ -67,127 +102,259 @@ pub fn any_to_pcm_mono(path: &str) -> Result<(Vec<i16>, u32)> {
             Err(symphonia::core::errors::Error::DecodeError(_)) => continue,
             Err(e) => return Err(e.into()),
         };
-        let spec = decoded.spec().clone();
-        let channels = spec.channels().count();
+        let channels = decoded.spec().channels().count();
 
-        // Copy decoded audio as interleaved i16 samples
-        let mut raw: Vec<i16> = Vec::new();
-        decoded.copy_to_vec_interleaved(&mut raw);
+        interleaved.clear();
+        decoded.copy_to_vec_interleaved(&mut interleaved);
 
         // Downmix to mono if needed
-        if channels == 1 {
-            samples.extend_from_slice(&raw);
+        if channels <= 1 {
+            sink(&info, &interleaved)?;
         } else {
-            for chunk in raw.chunks(channels) {
-                let mono = chunk.iter().map(|&s| s as i32).sum::<i32>() / channels as i32;
-                samples.push(mono.clamp(i16::MIN as i32, i16::MAX as i32) as i16);
+            mono.clear();
+            for chunk in interleaved.chunks(channels) {
+                let sum = chunk.iter().map(|&s| s as i32).sum::<i32>() / channels as i32;
+                mono.push(sum.clamp(i16::MIN as i32, i16::MAX as i32) as i16);
             }
+            sink(&info, &mono)?;
         }
     }
 
-    Ok((samples, sample_rate))
+    Ok(info)
 }
 
-pub fn resample_to(samples: &[i16], from_rate: u32, to_rate: u32) -> Vec<i16> {
-    if from_rate == to_rate {
-        return samples.to_vec();
-    }
-    // Simple linear resampler (good enough for voice; use rubato for quality)
-    let ratio = from_rate as f64 / to_rate as f64;
-    let out_len = (samples.len() as f64 / ratio) as usize;
-    (0..out_len)
-        .map(|i| {
-            let src = i as f64 * ratio;
-            let idx = src as usize;
-            let frac = src - idx as f64;
-            let a = samples.get(idx).copied().unwrap_or(0) as f64;
-            let b = samples.get(idx + 1).copied().unwrap_or(0) as f64;
-            (a + frac * (b - a)) as i16
-        })
-        .collect()
+/// Linear resampler fed one chunk at a time (good enough for voice).
+///
+/// Output sample `i` interpolates the input at `i * from_rate / to_rate`; the last sample of
+/// the previous chunk is carried over so chunk boundaries don't change the result compared
+/// to resampling the whole signal at once.
+struct LinearResampler {
+    ratio: f64,
+    /// Input samples seen before the current chunk.
+    consumed: u64,
+    emitted: u64,
+    last: i16,
 }
 
-pub fn pcm_bytes_to_silk(pcm: &[i16], mut out: impl Write) -> Result<()> {
-    const SAMPLE_RATE: i32 = 24000;
-    const FRAME_SIZE: usize = (SAMPLE_RATE as usize * SILK_FRAME_MS as usize) / 1000; // 480 samples/frame
+impl LinearResampler {
+    fn new(from_rate: u32, to_rate: u32) -> Self {
+        Self {
+            ratio: from_rate as f64 / to_rate as f64,
+            consumed: 0,
+            emitted: 0,
+            last: 0,
+        }
+    }
+
+    /// Replaces `output` with every sample that can be interpolated from input seen so far.
+    fn process(&mut self, input: &[i16], output: &mut Vec<i16>) {
+        output.clear();
+        if self.ratio == 1.0 {
+            output.extend_from_slice(input);
+            return;
+        }
+        let end = self.consumed + input.len() as u64;
+        loop {
+            let src = self.emitted as f64 * self.ratio;
+            let idx = src as u64;
+            if idx + 1 >= end {
+                break;
+            }
+            let a = self.sample_at(idx, input) as f64;
+            let b = self.sample_at(idx + 1, input) as f64;
+            output.push((a + (src - idx as f64) * (b - a)) as i16);
+            self.emitted += 1;
+        }
+        if let Some(&last) = input.last() {
+            self.last = last;
+        }
+        self.consumed = end;
+    }
 
-    // WeChat-specific: prepend 0x02 before the SILK header
-    out.write_all(&[0x02])?;
-    out.write_all(SILK_MAGIC)?;
+    /// Replaces `output` with the tail samples, which interpolate towards silence past the end.
+    fn finish(&mut self, output: &mut Vec<i16>) {
+        output.clear();
+        if self.ratio == 1.0 {
+            return;
+        }
+        let out_len = (self.consumed as f64 / self.ratio) as u64;
+        while self.emitted < out_len {
+            let src = self.emitted as f64 * self.ratio;
+            let idx = src as u64;
+            // Only the final input sample can still be needed here.
+            let a = if idx < self.consumed { self.last as f64 } else { 0.0 };
+            output.push((a + (src - idx as f64) * (0.0 - a)) as i16);
+            self.emitted += 1;
+        }
+    }
 
-    // Allocate and initialize encoder
-    let mut enc_size: i32 = 0;
-    unsafe { SKP_Silk_SDK_Get_Encoder_Size(&mut enc_size) };
-    if enc_size <= 0 {
-        bail!("Invalid encoder size: {}", enc_size);
+    fn sample_at(&self, idx: u64, input: &[i16]) -> i16 {
+        if idx < self.consumed {
+            self.last
+        } else {
+            input[(idx - self.consumed) as usize]
+        }
     }
+}
+
+/// Incremental SILK encoder: buffers pushed PCM into fixed 20 ms frames and writes each
+/// encoded frame as soon as it is complete.
+struct SilkEncoder<W: Write> {
+    out: W,
+    state: Vec<u8>,
+    ctrl: SKP_SILK_SDK_EncControlStruct,
+    frame: [i16; SILK_FRAME_SIZE],
+    filled: usize,
+    packet: [u8; 1024],
+}
+
+impl<W: Write> SilkEncoder<W> {
+    fn new(mut out: W) -> Result<Self> {
+        // WeChat-specific: prepend 0x02 before the SILK header
+        out.write_all(&[0x02])?;
+        out.write_all(SILK_MAGIC)?;
+
+        // Allocate and initialize encoder
+        let mut enc_size: i32 = 0;
+        unsafe { SKP_Silk_SDK_Get_Encoder_Size(&mut enc_size) };
+        if enc_size <= 0 {
+            bail!("Invalid encoder size: {}", enc_size);
+        }
+
+        let mut state = vec![0u8; enc_size as usize];
+        let mut ctrl = unsafe { std::mem::zeroed::<SKP_SILK_SDK_EncControlStruct>() };
+        let ret = unsafe { SKP_Silk_SDK_InitEncoder(state.as_mut_ptr() as *mut c_void, &mut ctrl) };
+        if ret != 0 {
+            bail!("Failed to init SILK encoder: {}", ret);
+        }
 
-    let mut enc_state = vec![0u8; enc_size as usize];
-    let enc_state_ptr = enc_state.as_mut_ptr() as *mut c_void;
+        // Apply encoder params
+        ctrl.API_sampleRate = SILK_SAMPLE_RATE as i32;
+        ctrl.maxInternalSampleRate = SILK_SAMPLE_RATE as i32;
+        ctrl.packetSize = SILK_FRAME_SIZE as i32;
+        ctrl.bitRate = 25000;
+        ctrl.packetLossPercentage = 0;
+        ctrl.complexity = 2;
+        ctrl.useInBandFEC = 0;
+        ctrl.useDTX = 0;
+
+        Ok(Self {
+            out,
+            state,
+            ctrl,
+            frame: [0; SILK_FRAME_SIZE],
+            filled: 0,
+            packet: [0; 1024],
+        })
+    }
 
-    let mut enc_ctrl = unsafe { std::mem::zeroed::<SKP_SILK_SDK_EncControlStruct>() };
-    let ret = unsafe { SKP_Silk_SDK_InitEncoder(enc_state_ptr, &mut enc_ctrl) };
-    if ret != 0 {
-        bail!("Failed to init SILK encoder: {}", ret);
+    fn push(&mut self, mut samples: &[i16]) -> Result<()> {
+        while !samples.is_empty() {
+            let n = (SILK_FRAME_SIZE - self.filled).min(samples.len());
+            self.frame[self.filled..self.filled + n].copy_from_slice(&samples[..n]);
+            self.filled += n;
+            samples = &samples[n..];
+            if self.filled == SILK_FRAME_SIZE {
+                self.encode_frame()?;
+            }
+        }
+        Ok(())
     }
 
-    // Apply encoder params
-    enc_ctrl.API_sampleRate = SAMPLE_RATE;
-    enc_ctrl.maxInternalSampleRate = SAMPLE_RATE;
-    enc_ctrl.packetSize = FRAME_SIZE as i32;
-    enc_ctrl.bitRate = 25000;
-    enc_ctrl.packetLossPercentage = 0;
-    enc_ctrl.complexity = 2;
-    enc_ctrl.useInBandFEC = 0;
-    enc_ctrl.useDTX = 0;
-
-    // Encode frames
-    let mut frame_buf = vec![0i16; FRAME_SIZE];
-    let mut out_buf = vec![0u8; 1024]; // output buffer for each frame
-
-    let mut offset = 0;
-    while offset < pcm.len() {
-        let end = (offset + FRAME_SIZE).min(pcm.len());
-        let frame_len = end - offset;
-
-        // Copy samples and pad last frame with zeros
-        frame_buf[..frame_len].copy_from_slice(&pcm[offset..end]);
-        if frame_len < FRAME_SIZE {
-            frame_buf[frame_len..].fill(0);
+    /// Encodes the zero-padded last frame, if any, and flushes the output.
+    fn finish(mut self) -> Result<()> {
+        if self.filled > 0 {
+            self.frame[self.filled..].fill(0);
+            self.encode_frame()?;
         }
+        self.out.flush()?;
+        Ok(())
+    }
 
-        let mut n_bytes_out = out_buf.len() as i16;
+    fn encode_frame(&mut self) -> Result<()> {
+        let mut n_bytes_out = self.packet.len() as i16;
         let ret = unsafe {
             SKP_Silk_SDK_Encode(
-                enc_state_ptr,
-                &enc_ctrl,
-                frame_buf.as_ptr(),
-                FRAME_SIZE as i32,
-                out_buf.as_mut_ptr(),
+                self.state.as_mut_ptr() as *mut c_void,
+                &self.ctrl,
+                self.frame.as_ptr(),
+                SILK_FRAME_SIZE as i32,
+                self.packet.as_mut_ptr(),
                 &mut n_bytes_out,
             )
         };
-
         if ret != 0 {
             bail!("SILK encode error: {}", ret);
         }
 
-        out.write_all(&(n_bytes_out as i16).to_le_bytes())?;
-        out.write_all(&out_buf[..n_bytes_out as usize])?;
-        offset += FRAME_SIZE;
+        self.out.write_all(&n_bytes_out.to_le_bytes())?;
+        self.out.write_all(&self.packet[..n_bytes_out as usize])?;
+        self.filled = 0;
+        Ok(())
     }
+}
 
-    Ok(())
+pub fn any_to_silk(src_path: &str, silk_path: &str) -> Result<()> {
+    any_to_silk_with_progress(src_path, silk_path, |_, _| true)
+}
+
+/// Streams `src_path` through decode → downmix → resample → SILK encode using fixed-size
+/// buffers, so memory use doesn't depend on the input's duration.
+///
+/// `progress(processed_ms, total_ms)` is called every [`PROGRESS_INTERVAL_MS`] of decoded
+/// audio and once at the end; `total_ms` is 0 if the container doesn't report a duration.
+/// Returning `false` cancels the conversion. On failure or cancellation the partial output
+/// file is removed.
+pub fn any_to_silk_with_progress(
+    src_path: &str,
+    silk_path: &str,
+    mut progress: impl FnMut(u64, u64) -> bool,
+) -> Result<()> {
+    let result = transcode_to_silk(src_path, silk_path, &mut progress);
+    if result.is_err() {
+        let _ = std::fs::remove_file(silk_path);
+    }
+    result
 }
 
-pub fn any_to_silk(mp3_path: &str, silk_path: &str) -> Result<()> {
-    let (pcm, src_rate) = any_to_pcm_mono(mp3_path)?;
-    logi!("any_to_pcm_mono done");
-    let pcm = resample_to(&pcm, src_rate, 24000);
-    logi!("resample_to done");
-    let out_file = File::create(silk_path)?;
-    pcm_bytes_to_silk(&pcm, out_file)?;
+fn transcode_to_silk(
+    src_path: &str,
+    silk_path: &str,
+    progress: &mut impl FnMut(u64, u64) -> bool,
+) -> Result<()> {
+    let mut encoder = SilkEncoder::new(BufWriter::new(File::create(silk_path)?))?;
+    let mut resampler: Option<LinearResampler> = None;
+    let mut resampled: Vec<i16> = Vec::new();
+    let mut decoded_samples: u64 = 0;
+    let mut next_report_ms: u64 = 0;
+
+    let info = decode_mono_stream(src_path, |info, mono| {
+        let resampler = resampler
+            .get_or_insert_with(|| LinearResampler::new(info.sample_rate, SILK_SAMPLE_RATE));
+        resampler.process(mono, &mut resampled);
+        encoder.push(&resampled)?;
+
+        decoded_samples += mono.len() as u64;
+        let processed_ms = decoded_samples * 1000 / info.sample_rate as u64;
+        if processed_ms >= next_report_ms {
+            next_report_ms = processed_ms + PROGRESS_INTERVAL_MS;
+            if !progress(processed_ms, info.duration_ms) {
+                bail!("Conversion cancelled");
+            }
+        }
+        Ok(())
+    })?;
+    logi!("decode finished, samples={}", decoded_samples);
+
+    if let Some(resampler) = resampler.as_mut() {
+        resampler.finish(&mut resampled);
+        encoder.push(&resampled)?;
+    }
+    encoder.finish()?;
     logi!("encode_to_silk done");
+
+    let processed_ms = decoded_samples * 1000 / info.sample_rate as u64;
+    progress(processed_ms, info.duration_ms.max(processed_ms));
     Ok(())
 }
 
@@ -18,6 +18,7 @@ use crash_handler::{install_crash_handler, uninstall_crash_handler};
 use crash_triggerer::trigger_test_crash;
 
 use jni::{
+    JValue,
     objects::JObject,
     sys::{
         JNI_FALSE, JNI_TRUE, JNI_VERSION_1_6, JNIEnv as RawJNIEnv, JavaVM, jboolean, jint, jlong,
@@ -133,6 +134,71 @@ pub extern "C" fn Java_dev_ujhhgtg_wekit_utils_AudioUtils_anyToSilk(
     })
 }
 
+/// Streaming any → SILK conversion with progress and cancellation.
+///
+/// Returns null on success, otherwise the error message.
+///
+/// Java signature: `(Ljava/lang/String;Ljava/lang/String;Ldev/ujhhgtg/wekit/utils/AudioUtils$TranscodeListener;)Ljava/lang/String;`
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_dev_ujhhgtg_wekit_utils_AudioUtils_anyToSilkStreaming(
+    env: *mut RawJNIEnv,
+    _thiz: jobject,
+    any_path: jstring,
+    silk_path: jstring,
+    listener: jobject,
+) -> jstring {
+    let result = with_jstring(env, any_path, |any| {
+        with_jstring(env, silk_path, |silk| {
+            logi!("streaming {} to {}", any, silk);
+            audio_utils::any_to_silk_with_progress(any, silk, |processed_ms, total_ms| {
+                listener.is_null() || report_transcode_progress(env, listener, processed_ms, total_ms)
+            })
+            .map_err(|err| {
+                logi!("any_to_silk_with_progress failed: {:?}", err);
+                err.to_string()
+            })
+        })
+    });
+    native_error_string(env, result)
+}
+
+/// Calls `TranscodeListener.onProgress(JJ)Z`. A failed call or a thrown exception cancels the
+/// conversion; the exception is cleared so the caller can still return normally.
+fn report_transcode_progress(
+    env: *mut RawJNIEnv,
+    listener: jobject,
+    processed_ms: u64,
+    total_ms: u64,
+) -> bool {
+    let mut unowned = unsafe { jni::EnvUnowned::from_raw(env) };
+    let mut keep_going = false;
+    let _ = unowned.with_env(|jni_env| {
+        let listener = unsafe { JObject::from_raw(jni_env, listener) };
+        let outcome = jni_env
+            .call_method(
+                &listener,
+                jni::jni_str!("onProgress"),
+                jni::jni_sig!("(JJ)Z"),
+                &[
+                    JValue::Long(processed_ms as jlong),
+                    JValue::Long(total_ms as jlong),
+                ],
+            )
+            .and_then(|value| value.z());
+        match outcome {
+            Ok(value) => keep_going = value,
+            Err(err) => {
+                logw!("transcode progress callback failed: {:?}", err);
+                if jni_env.exception_check() {
+                    jni_env.exception_clear();
+                }
+            }
+        }
+        Ok::<(), jni::errors::Error>(())
+    });
+    keep_going
+}
+
 #[unsafe(no_mangle)]
 pub extern "C" fn Java_dev_ujhhgtg_wekit_utils_AudioUtils_silkToPcm(
     env: *mut RawJNIEnv,
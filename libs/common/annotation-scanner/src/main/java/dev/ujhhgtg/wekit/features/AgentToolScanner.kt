@@ -127,6 +127,7 @@ class AgentToolScanner(
         val description = annotationString(fn, "description") ?: ""
         val sideEffect = annotationBool(fn, "sideEffect") ?: true
         val group = annotationString(fn, "group") ?: "builtin-wechat"
+        val parallelSafe = !sideEffect && (annotationBool(fn, "parallelSafe") ?: true)
 
         val params = CodeBlock.builder().apply {
             if (fn.parameters.isEmpty()) {
@@ -148,6 +149,7 @@ class AgentToolScanner(
             .add("name·=·%S,\n", name)
             .add("description·=·%S,\n", description)
             .add("sideEffect·=·%L,\n", sideEffect)
+            .add("parallelSafe·=·%L,\n", parallelSafe)
             .add("group·=·%S,\n", group)
             .add("params·=·%L,\n", params)
             .add("invoker·=·%L\n", invoker)
@@ -32,6 +32,12 @@ annotation class AgentTool(
      * (workspace/memory file tools + skill loading).
      */
     val group: String = BUILTIN_WECHAT,
+    /**
+     * Whether a read-only tool may run concurrently with other parallel-safe calls from the same
+     * model response. Only consulted when [sideEffect] is `false`; side-effecting tools always run
+     * sequentially. Set to `false` for read-only tools whose output depends on call order.
+     */
+    val parallelSafe: Boolean = true,
 ) {
     companion object {
         const val BUILTIN_WECHAT = "builtin-wechat"